@@ -0,0 +1,47 @@
+#!/bin/bash
+
+# Measures time to first request: starts the app, polls an action until it answers 200, then stops the app.
+# Usage: [RUNS=3] [API_URL=...] [PAYLOAD_JSON=...] [CLIENT_CONTEXT=<base64>] bin/time-to-first-request.sh [java-args...]
+#   bin/time-to-first-request.sh
+#   cd target/fast-start && ../../bin/time-to-first-request.sh -XX:SharedArchiveFile=app.jsa -Dspring.aot.enabled=true \
+#       -Dspring.profiles.active=fast-start -jar agentforce-actions-0.0.1-SNAPSHOT.jar
+
+RUNS="${RUNS:-3}"
+API_URL="${API_URL:-http://localhost:8080/api/calculateShippingOptions}"
+DEFAULT_PAYLOAD_JSON='{"productId":"PROD123456"}'
+PAYLOAD_JSON="${PAYLOAD_JSON:-$DEFAULT_PAYLOAD_JSON}"
+TIMEOUT_SECONDS="${TIMEOUT_SECONDS:-120}"
+
+if [ $# -eq 0 ]; then
+    set -- -jar target/agentforce-actions-0.0.1-SNAPSHOT.jar
+fi
+
+# Actions that use Salesforce need an x-client-context header, e.g. one pointing at FakeSalesforce
+HEADERS=(-H "Content-Type: application/json")
+if [ -n "$CLIENT_CONTEXT" ]; then
+    HEADERS+=(-H "x-client-context: $CLIENT_CONTEXT")
+fi
+
+TIMES=()
+for RUN in $(seq 1 "$RUNS"); do
+    START=$(date +%s%N)
+    java "$@" > "${LOG_FILE:-/dev/null}" 2>&1 &
+    PID=$!
+    DEADLINE=$((START + TIMEOUT_SECONDS * 1000000000))
+    until curl -sf -o /dev/null -X POST "$API_URL" "${HEADERS[@]}" -d "$PAYLOAD_JSON"; do
+        if ! kill -0 "$PID" 2>/dev/null || [ "$(date +%s%N)" -gt "$DEADLINE" ]; then
+            echo "Error: No 200 from $API_URL within ${TIMEOUT_SECONDS}s (run $RUN)."
+            kill "$PID" 2>/dev/null
+            exit 1
+        fi
+        sleep 0.05
+    done
+    ELAPSED=$((($(date +%s%N) - START) / 1000000))
+    TIMES+=("$ELAPSED")
+    echo "Run $RUN: ${ELAPSED} ms"
+    kill "$PID"
+    wait "$PID" 2>/dev/null
+done
+
+MEDIAN=$(printf '%s\n' "${TIMES[@]}" | sort -n | sed -n "$(((RUNS + 1) / 2))p")
+echo "Median time to first request: ${MEDIAN} ms"
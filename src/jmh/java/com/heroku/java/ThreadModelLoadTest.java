@@ -0,0 +1,125 @@
+package com.heroku.java;
+
+import com.heroku.java.config.SalesforceConnectionCache;
+import com.heroku.java.services.StubPartnerConnection;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Boots the application once with platform request threads and once with virtual threads, each against a stubbed
+ * PartnerConnection whose queries block for a fixed SOAP-like latency, and drives both with the same concurrent
+ * load. With 200 platform threads and two blocking queries per carbon request, throughput stops scaling at the
+ * thread pool; with virtual threads it keeps scaling with the offered concurrency.
+ * <p>
+ * Run with: {@code mvn -Pbenchmarks test-compile exec:exec@thread-model-load-test}
+ * Tune with -Dloadtest.concurrency, -Dloadtest.requests and -Dloadtest.soqlLatencyMs.
+ */
+public class ThreadModelLoadTest {
+
+    public static void main(String[] args) throws Exception {
+        int concurrency = Integer.getInteger("loadtest.concurrency", 1000);
+        int requests = Integer.getInteger("loadtest.requests", 10000);
+        long soqlLatencyMs = Long.getLong("loadtest.soqlLatencyMs", 100);
+        System.setProperty("loadtest.soqlLatencyMs", Long.toString(soqlLatencyMs));
+
+        System.out.printf("%d requests, %d concurrent clients, %d ms per SOQL query%n", requests, concurrency, soqlLatencyMs);
+        for (boolean virtualThreads : new boolean[] { false, true }) {
+            ConfigurableApplicationContext context = new SpringApplicationBuilder(ActionsApplication.class, StubSalesforce.class)
+                    .properties(
+                            "server.port=0",
+                            "spring.threads.virtual.enabled=" + virtualThreads,
+                            "spring.main.allow-bean-definition-overriding=true",
+                            "spring.main.banner-mode=off",
+                            "logging.level.root=WARN")
+                    .run();
+            try {
+                int port = context.getEnvironment().getRequiredProperty("local.server.port", Integer.class);
+                drive(port, concurrency, requests / 10); // warm up
+                long[] latencies = new long[requests];
+                long elapsedNanos = drive(port, concurrency, latencies);
+                Arrays.sort(latencies);
+                System.out.printf("%-16s throughput %8.1f req/s   p50 %6d ms   p99 %6d ms   max %6d ms%n",
+                        virtualThreads ? "virtual threads" : "platform threads",
+                        requests / (elapsedNanos / 1e9),
+                        percentileMillis(latencies, 0.50), percentileMillis(latencies, 0.99),
+                        percentileMillis(latencies, 1.0));
+            } finally {
+                context.close();
+            }
+        }
+    }
+
+    private static long drive(int port, int concurrency, int requests) throws Exception {
+        return drive(port, concurrency, new long[requests]);
+    }
+
+    // Sends latencies.length requests from `concurrency` clients and returns the wall-clock time it took
+    private static long drive(int port, int concurrency, long[] latencies) throws Exception {
+        String json = "{\"accessToken\":\"stub-session\",\"apiVersion\":\"62.0\",\"requestId\":\"req-1\","
+                + "\"namespace\":\"demo\",\"orgId\":\"00DHs000000EXAMPLE\",\"orgDomainUrl\":\"https://stub.invalid\","
+                + "\"userContext\":{\"userId\":\"0055g00000EXAMPLE\",\"username\":\"agent@example.com\"}}";
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/api/calculateCarbonFootprint"))
+                .header("Content-Type", "application/json")
+                .header("x-client-context", Base64.getEncoder().encodeToString(json.getBytes(StandardCharsets.UTF_8)))
+                .timeout(Duration.ofMinutes(2))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"flightId\":\"a02Hs00001D2QtLIAV\"}"))
+                .build();
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger failures = new AtomicInteger();
+        long start = System.nanoTime();
+        // Closing the executor waits for every client to finish; only then is the HttpClient itself closed
+        try (HttpClient httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+             ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int c = 0; c < concurrency; c++) {
+                clients.submit(() -> {
+                    for (int i = next.getAndIncrement(); i < latencies.length; i = next.getAndIncrement()) {
+                        long sent = System.nanoTime();
+                        try {
+                            if (httpClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() != 200) {
+                                failures.incrementAndGet();
+                            }
+                        } catch (Exception e) {
+                            failures.incrementAndGet();
+                        }
+                        latencies[i] = System.nanoTime() - sent;
+                    }
+                    return null;
+                });
+            }
+        }
+        if (failures.get() > 0) {
+            System.out.printf("%d requests failed%n", failures.get());
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long percentileMillis(long[] sortedNanos, double percentile) {
+        int index = (int) Math.min(sortedNanos.length - 1, Math.ceil(percentile * sortedNanos.length) - 1);
+        return sortedNanos[Math.max(0, index)] / 1_000_000;
+    }
+
+    /**
+     * Replaces the connection cache bean with one that hands out a slow stub connection.
+     */
+    static class StubSalesforce {
+
+        @Bean
+        SalesforceConnectionCache salesforceConnectionCache() throws Exception {
+            StubPartnerConnection connection = StubPartnerConnection.create(50, Long.getLong("loadtest.soqlLatencyMs"));
+            return new SalesforceConnectionCache(16, Duration.ofMinutes(10), Duration.ofHours(1), Duration.ofSeconds(3), Duration.ofSeconds(10), config -> connection);
+        }
+    }
+}
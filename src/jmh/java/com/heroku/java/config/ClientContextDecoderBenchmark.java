@@ -0,0 +1,83 @@
+package com.heroku.java.config;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the original per-request ObjectMapper/JsonNode decoding of x-client-context with
+ * {@link ClientContextDecoder}, with and without its header LRU. Run with -prof gc to see allocation per request.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ClientContextDecoderBenchmark {
+
+    private String encodedClientContext;
+    private ClientContextDecoder streamingDecoder;
+    private ClientContextDecoder cachingDecoder;
+
+    @Setup
+    public void setUp() {
+        encodedClientContext = encodedClientContext("req-0");
+        streamingDecoder = new ClientContextDecoder(0);
+        cachingDecoder = new ClientContextDecoder(128);
+    }
+
+    @Benchmark
+    public SalesforceUserContext objectMapperTree() throws Exception {
+        // The decoding path the filter used before ClientContextDecoder
+        String decodedClientContext = new String(Base64.getDecoder().decode(encodedClientContext), StandardCharsets.UTF_8);
+        ObjectMapper objectMapper = new ObjectMapper();
+        JsonNode clientContextNode = objectMapper.readTree(decodedClientContext);
+        JsonNode userContextNode = clientContextNode.get("userContext");
+        return new SalesforceUserContext(
+                clientContextNode.get("accessToken").asText(),
+                clientContextNode.get("apiVersion").asText(),
+                clientContextNode.get("requestId").asText(),
+                clientContextNode.get("namespace").asText(),
+                clientContextNode.get("orgId").asText(),
+                clientContextNode.get("orgDomainUrl").asText(),
+                userContextNode.get("userId").asText(),
+                userContextNode.get("username").asText());
+    }
+
+    @Benchmark
+    public SalesforceUserContext streamingParser() throws Exception {
+        return streamingDecoder.decode(encodedClientContext);
+    }
+
+    @Benchmark
+    public SalesforceUserContext streamingParserWithLru() throws Exception {
+        return cachingDecoder.decode(encodedClientContext);
+    }
+
+    static String encodedClientContext(String requestId) {
+        String json = "{"
+                + "\"accessToken\":\"00DHs000000EXAMPLE!AQEAQFakeAccessTokenValueForBenchmarkingOnly0123456789abcdef\","
+                + "\"apiVersion\":\"62.0\","
+                + "\"requestId\":\"" + requestId + "\","
+                + "\"namespace\":\"demo\","
+                + "\"orgId\":\"00DHs000000EXAMPLE\","
+                + "\"orgDomainUrl\":\"https://example-dev-ed.develop.my.salesforce.com\","
+                + "\"userContext\":{\"userId\":\"0055g00000EXAMPLE\",\"username\":\"agent@example.com\"}"
+                + "}";
+        return Base64.getEncoder().encodeToString(json.getBytes(StandardCharsets.UTF_8));
+    }
+}
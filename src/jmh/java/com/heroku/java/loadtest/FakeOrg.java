@@ -0,0 +1,289 @@
+package com.heroku.java.loadtest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory org seeded with {@code Flight__c}, {@code Booking__c} and {@code Vehicle_Model__c} records, answering the
+ * SOQL shapes the action services issue: field selects filtered by {@code =} or {@code IN} on one field, optionally
+ * with {@code COUNT(Id)} and {@code GROUP BY}. Results larger than one batch are paged through query cursors.
+ * <p>
+ * Record IDs are derived from their index, so a load generator seeded with the same counts can address every record
+ * without asking the org. The data never changes after seeding.
+ */
+public final class FakeOrg {
+
+    public static final int BATCH_SIZE = 2000;
+
+    private static final String[] AIRLINES = { "Astro Airlines", "Cloud Air", "Trailhead Airways", "Summit Jet" };
+    // Codes present in the bundled airports.csv, so distances are real great-circle ones
+    private static final String[] AIRPORTS = { "SFO", "LAX", "JFK", "ORD", "ATL", "SEA", "DEN", "BOS", "LHR", "CDG", "NRT", "SYD", "DXB", "FRA", "AMS" };
+    private static final int MAX_OPEN_CURSORS = 10_000;
+
+    private static final Pattern SOQL = Pattern.compile(
+            "SELECT\\s+(.+?)\\s+FROM\\s+(\\w+)"
+                    + "(?:\\s+WHERE\\s+(\\w+)\\s*(?:(=)\\s*('(?:[^'\\\\]|\\\\.)*')|IN\\s*\\(([^)]*)\\)))?"
+                    + "(?:\\s+GROUP\\s+BY\\s+(.+?))?(?:\\s+LIMIT\\s+(\\d+))?\\s*",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern LITERAL = Pattern.compile("'((?:[^'\\\\]|\\\\.)*)'");
+    private static final Pattern COUNT = Pattern.compile("COUNT\\(\\s*Id\\s*\\)(?:\\s+(\\w+))?", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * A record of one SObject type, or an {@code AggregateResult} row, with fields in select order.
+     */
+    public record Row(String type, Map<String, String> fields) {
+    }
+
+    /**
+     * One batch of query results. The locator is null once the last batch has been returned.
+     */
+    public record Page(List<Row> records, List<String> columns, int totalSize, String locator) {
+
+        public boolean done() {
+            return locator == null;
+        }
+    }
+
+    /**
+     * A query this org cannot run, reported by the protocols as a malformed query.
+     */
+    public static class QueryException extends Exception {
+
+        private static final long serialVersionUID = 1L;
+
+        public QueryException(String message) {
+            super(message);
+        }
+    }
+
+    private record Cursor(List<Row> rows, List<String> columns) {
+    }
+
+    private final int flightCount;
+    private final int vehicleCount;
+    private final Map<String, List<Map<String, String>>> recordsByType = new LinkedHashMap<>();
+    // type.field -> value key -> records, built on first use
+    private final Map<String, Map<String, List<Map<String, String>>>> indexes = new ConcurrentHashMap<>();
+    private final Map<String, Cursor> cursors = new ConcurrentHashMap<>();
+    private final AtomicLong nextCursor = new AtomicLong();
+
+    private FakeOrg(int flightCount, int vehicleCount) {
+        this.flightCount = flightCount;
+        this.vehicleCount = vehicleCount;
+    }
+
+    /**
+     * Seeds flights with between zero and maxBookingsPerFlight bookings each (75% economy, 20% business, 5% first
+     * class) and vehicles priced between 20,000 and 90,000.
+     */
+    public static FakeOrg seeded(long seed, int flights, int maxBookingsPerFlight, int vehicles) {
+        Random random = new Random(seed);
+        FakeOrg org = new FakeOrg(flights, vehicles);
+        List<Map<String, String>> flightRecords = new ArrayList<>(flights);
+        List<Map<String, String>> bookingRecords = new ArrayList<>();
+        for (int i = 0; i < flights; i++) {
+            Map<String, String> flight = new LinkedHashMap<>();
+            flight.put("Id", flightId(i));
+            flight.put("Airline__c", AIRLINES[random.nextInt(AIRLINES.length)]);
+            int origin = random.nextInt(AIRPORTS.length);
+            int destination = (origin + 1 + random.nextInt(AIRPORTS.length - 1)) % AIRPORTS.length;
+            flight.put("Origin_Airport_Code__c", AIRPORTS[origin]);
+            flight.put("Destination_Airport_Code__c", AIRPORTS[destination]);
+            flightRecords.add(flight);
+            int bookings = random.nextInt(maxBookingsPerFlight + 1);
+            for (int b = 0; b < bookings; b++) {
+                int draw = random.nextInt(100);
+                Map<String, String> booking = new LinkedHashMap<>();
+                booking.put("Id", recordId("a03", bookingRecords.size()));
+                booking.put("Flight__c", flight.get("Id"));
+                booking.put("Class__c", draw < 75 ? "Economy" : draw < 95 ? "Business" : "FirstClass");
+                bookingRecords.add(booking);
+            }
+        }
+        List<Map<String, String>> vehicleRecords = new ArrayList<>(vehicles);
+        for (int i = 0; i < vehicles; i++) {
+            Map<String, String> vehicle = new LinkedHashMap<>();
+            vehicle.put("Id", vehicleId(i));
+            vehicle.put("Name", "Model " + (i + 1));
+            vehicle.put("Price__c", (20_000 + random.nextInt(701) * 100) + ".0");
+            vehicleRecords.add(vehicle);
+        }
+        org.recordsByType.put("Flight__c", flightRecords);
+        org.recordsByType.put("Booking__c", bookingRecords);
+        org.recordsByType.put("Vehicle_Model__c", vehicleRecords);
+        return org;
+    }
+
+    public static String flightId(int index) {
+        return recordId("a02", index);
+    }
+
+    public static String vehicleId(int index) {
+        return recordId("a04", index);
+    }
+
+    public int flightCount() {
+        return flightCount;
+    }
+
+    public int vehicleCount() {
+        return vehicleCount;
+    }
+
+    public int recordCount(String type) {
+        return recordsByType.getOrDefault(type, List.of()).size();
+    }
+
+    public Page query(String soql) throws QueryException {
+        Matcher matcher = SOQL.matcher(soql.trim());
+        if (!matcher.matches()) {
+            throw new QueryException("Unsupported query: " + soql);
+        }
+        String type = matcher.group(2);
+        List<Map<String, String>> records = recordsByType.get(type);
+        if (records == null) {
+            throw new QueryException("sObject type '" + type + "' is not supported.");
+        }
+
+        // Filter on one field, through an index of that field
+        String filterField = matcher.group(3);
+        if (filterField != null) {
+            Set<String> values = new LinkedHashSet<>();
+            Matcher literal = LITERAL.matcher(matcher.group(4) != null ? matcher.group(5) : matcher.group(6));
+            while (literal.find()) {
+                values.add(valueKey(literal.group(1).replace("\\'", "'").replace("\\\\", "\\")));
+            }
+            Map<String, List<Map<String, String>>> index = index(type, filterField);
+            List<Map<String, String>> matching = new ArrayList<>();
+            for (String value : values) {
+                matching.addAll(index.getOrDefault(value, List.of()));
+            }
+            records = matching;
+        }
+
+        List<String> columns = new ArrayList<>();
+        String countAlias = null;
+        int expressions = 0;
+        for (String item : matcher.group(1).split(",")) {
+            item = item.trim();
+            Matcher count = COUNT.matcher(item);
+            if (count.matches()) {
+                countAlias = count.group(1) != null ? count.group(1) : "expr" + expressions++;
+                columns.add(countAlias);
+            } else if (item.matches("\\w+")) {
+                columns.add(item);
+            } else {
+                throw new QueryException("Unsupported select item: " + item);
+            }
+        }
+
+        List<Row> rows;
+        if (countAlias != null) {
+            List<String> groupBy = new ArrayList<>();
+            if (matcher.group(7) != null) {
+                for (String field : matcher.group(7).split(",")) {
+                    groupBy.add(field.trim());
+                }
+            }
+            Map<List<String>, Integer> counts = new LinkedHashMap<>();
+            for (Map<String, String> record : records) {
+                List<String> group = new ArrayList<>(groupBy.size());
+                for (String field : groupBy) {
+                    group.add(record.get(field));
+                }
+                counts.merge(group, 1, Integer::sum);
+            }
+            rows = new ArrayList<>(counts.size());
+            for (Map.Entry<List<String>, Integer> group : counts.entrySet()) {
+                Map<String, String> fields = new LinkedHashMap<>();
+                for (String column : columns) {
+                    int groupIndex = groupBy.indexOf(column);
+                    if (column.equals(countAlias)) {
+                        fields.put(column, group.getValue().toString());
+                    } else if (groupIndex >= 0) {
+                        fields.put(column, group.getKey().get(groupIndex));
+                    } else {
+                        throw new QueryException("Field must be grouped or aggregated: " + column);
+                    }
+                }
+                rows.add(new Row("AggregateResult", fields));
+            }
+        } else {
+            rows = new ArrayList<>(records.size());
+            for (Map<String, String> record : records) {
+                Map<String, String> fields = new LinkedHashMap<>();
+                for (String column : columns) {
+                    if (!record.containsKey(column)) {
+                        throw new QueryException("No such column '" + column + "' on entity '" + type + "'.");
+                    }
+                    fields.put(column, record.get(column));
+                }
+                rows.add(new Row(type, fields));
+            }
+        }
+        if (matcher.group(8) != null) {
+            rows = rows.subList(0, Math.min(rows.size(), Integer.parseInt(matcher.group(8))));
+        }
+        return page(null, new Cursor(rows, columns), 0);
+    }
+
+    public Page queryMore(String queryLocator) throws QueryException {
+        int dash = queryLocator.lastIndexOf('-');
+        Cursor cursor = dash > 0 ? cursors.get(queryLocator.substring(0, dash)) : null;
+        if (cursor == null) {
+            throw new QueryException("invalid query locator");
+        }
+        return page(queryLocator.substring(0, dash), cursor, Integer.parseInt(queryLocator.substring(dash + 1)));
+    }
+
+    private Page page(String cursorId, Cursor cursor, int offset) {
+        List<Row> rows = cursor.rows();
+        int end = Math.min(rows.size(), offset + BATCH_SIZE);
+        String locator = null;
+        if (end < rows.size()) {
+            if (cursorId == null) {
+                if (cursors.size() >= MAX_OPEN_CURSORS) {
+                    cursors.clear();
+                }
+                cursorId = "01gFK" + String.format("%010d", nextCursor.incrementAndGet());
+                cursors.put(cursorId, cursor);
+            }
+            locator = cursorId + "-" + end;
+        } else if (cursorId != null) {
+            cursors.remove(cursorId);
+        }
+        return new Page(Collections.unmodifiableList(rows.subList(offset, end)), cursor.columns(), rows.size(), locator);
+    }
+
+    private Map<String, List<Map<String, String>>> index(String type, String field) {
+        return indexes.computeIfAbsent(type + "." + field, k -> {
+            Map<String, List<Map<String, String>>> index = new ConcurrentHashMap<>();
+            for (Map<String, String> record : recordsByType.get(type)) {
+                String value = record.get(field);
+                if (value != null) {
+                    index.computeIfAbsent(valueKey(value), v -> new ArrayList<>()).add(record);
+                }
+            }
+            return index;
+        });
+    }
+
+    // IDs match in their 15 and 18 character forms
+    private static String valueKey(String value) {
+        return value.length() == 18 ? value.substring(0, 15) : value;
+    }
+
+    private static String recordId(String keyPrefix, int index) {
+        return keyPrefix + "FK" + String.format("%010d", index) + "AAA";
+    }
+}
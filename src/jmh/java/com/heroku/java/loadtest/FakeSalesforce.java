@@ -0,0 +1,448 @@
+package com.heroku.java.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Stand-in for a Salesforce org's API endpoints, serving a {@link FakeOrg} over the protocols this app speaks: the
+ * Partner SOAP API ({@code query} and {@code queryMore}), the REST query resource, Composite Batch and Bulk API 2.0
+ * query jobs. Point a client context's {@code orgDomainUrl} at {@link #url()} and the app talks to it exactly as it
+ * would to an org.
+ * <p>
+ * Every call waits for the configured latency plus a uniformly random jitter, a configured share of calls stalls
+ * for longer on top of that, and calls fail with the configured probability with an HTTP 503, which both clients
+ * treat as a transport error. Requests are served on virtual
+ * threads, so the latency does not limit how many calls are in flight.
+ * <p>
+ * Run on its own with: {@code mvn -Pbenchmarks test-compile exec:exec@fake-salesforce}
+ */
+public final class FakeSalesforce implements AutoCloseable {
+
+    private static final Pattern SOAP_QUERY = Pattern.compile("<(?:\\w+:)?(queryString|queryLocator)>(.*?)</", Pattern.DOTALL);
+    private static final Pattern REST_PATH = Pattern.compile("/services/data/v[\\d.]+(/.*)");
+    private static final String SOAP_ENVELOPE = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+            + "<soapenv:Envelope xmlns:soapenv=\"http://schemas.xmlsoap.org/soap/envelope/\" xmlns=\"urn:partner.soap.sforce.com\""
+            + " xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" xmlns:sf=\"urn:sobject.partner.soap.sforce.com\">"
+            + "<soapenv:Body>";
+
+    /**
+     * Latency and error injection, and how long a bulk query job takes to complete.
+     */
+    public record Options(int port, Duration latency, Duration latencyJitter, double stallRate, Duration stall, double errorRate,
+                          Duration bulkProcessingTime) {
+
+        /**
+         * Reads {@code fake.port}, {@code fake.latencyMs}, {@code fake.jitterMs}, {@code fake.stallRate},
+         * {@code fake.stallMs}, {@code fake.errorRate} and {@code fake.bulkProcessingMs}.
+         */
+        public static Options fromSystemProperties(int defaultPort) {
+            return new Options(Integer.getInteger("fake.port", defaultPort),
+                    Duration.ofMillis(Long.getLong("fake.latencyMs", 50)),
+                    Duration.ofMillis(Long.getLong("fake.jitterMs", 20)),
+                    Double.parseDouble(System.getProperty("fake.stallRate", "0")),
+                    Duration.ofMillis(Long.getLong("fake.stallMs", 2000)),
+                    Double.parseDouble(System.getProperty("fake.errorRate", "0")),
+                    Duration.ofMillis(Long.getLong("fake.bulkProcessingMs", 1000)));
+        }
+    }
+
+    private record BulkJob(List<FakeOrg.Row> rows, List<String> columns, String error, long readyNanos) {
+    }
+
+    private final FakeOrg org;
+    private final Options options;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Map<String, BulkJob> bulkJobs = new ConcurrentHashMap<>();
+
+    private final AtomicLong soapCalls = new AtomicLong();
+    private final AtomicLong restCalls = new AtomicLong();
+    private final AtomicLong batchedQueries = new AtomicLong();
+    private final AtomicLong bulkJobCount = new AtomicLong();
+    private final AtomicLong injectedErrors = new AtomicLong();
+
+    private FakeSalesforce(FakeOrg org, Options options) throws IOException {
+        this.org = org;
+        this.options = options;
+        this.server = HttpServer.create(new InetSocketAddress("localhost", options.port()), 1024);
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+    }
+
+    public static FakeSalesforce start(FakeOrg org, Options options) throws IOException {
+        FakeSalesforce fake = new FakeSalesforce(org, options);
+        fake.server.start();
+        return fake;
+    }
+
+    /**
+     * Seeds an org from {@code fake.seed}, {@code fake.flights}, {@code fake.maxBookingsPerFlight} and
+     * {@code fake.vehicles}.
+     */
+    public static FakeOrg seededOrg() {
+        return FakeOrg.seeded(Long.getLong("fake.seed", 42), Integer.getInteger("fake.flights", 200),
+                Integer.getInteger("fake.maxBookingsPerFlight", 400), Integer.getInteger("fake.vehicles", 50));
+    }
+
+    public String url() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    public String stats() {
+        return String.format("%d SOAP calls, %d REST calls (%d batched queries), %d bulk jobs, %d injected errors",
+                soapCalls.get(), restCalls.get(), batchedQueries.get(), bulkJobCount.get(), injectedErrors.get());
+    }
+
+    public void resetStats() {
+        soapCalls.set(0);
+        restCalls.set(0);
+        batchedQueries.set(0);
+        bulkJobCount.set(0);
+        injectedErrors.set(0);
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            byte[] requestBody;
+            try (InputStream body = "gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"))
+                    ? new GZIPInputStream(exchange.getRequestBody()) : exchange.getRequestBody()) {
+                requestBody = body.readAllBytes();
+            }
+            long latencyNanos = options.latency().toNanos();
+            if (options.latencyJitter().toNanos() > 0) {
+                latencyNanos += ThreadLocalRandom.current().nextLong(options.latencyJitter().toNanos());
+            }
+            if (options.stallRate() > 0 && ThreadLocalRandom.current().nextDouble() < options.stallRate()) {
+                latencyNanos += options.stall().toNanos();
+            }
+            Thread.sleep(Duration.ofNanos(latencyNanos));
+            if (options.errorRate() > 0 && ThreadLocalRandom.current().nextDouble() < options.errorRate()) {
+                injectedErrors.incrementAndGet();
+                send(exchange, 503, "text/plain", "Service Unavailable".getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+
+            String path = exchange.getRequestURI().getPath();
+            if (path.startsWith("/services/Soap/u/")) {
+                soapCalls.incrementAndGet();
+                handleSoap(exchange, new String(requestBody, StandardCharsets.UTF_8));
+                return;
+            }
+            Matcher rest = REST_PATH.matcher(path);
+            if (!rest.matches()) {
+                sendRestError(exchange, 404, "NOT_FOUND", "The requested resource does not exist");
+                return;
+            }
+            restCalls.incrementAndGet();
+            String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+            if (authorization == null || !authorization.startsWith("Bearer ") || authorization.length() == 7) {
+                sendRestError(exchange, 401, "INVALID_SESSION_ID", "Session expired or invalid");
+                return;
+            }
+            handleRest(exchange, rest.group(1), requestBody);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void handleSoap(HttpExchange exchange, String envelope) throws IOException {
+        Matcher call = SOAP_QUERY.matcher(envelope);
+        String xml;
+        int status = 200;
+        try {
+            if (!call.find()) {
+                throw new FakeOrg.QueryException("Only query and queryMore are supported");
+            }
+            String argument = xmlUnescape(call.group(2));
+            boolean more = call.group(1).equals("queryLocator");
+            FakeOrg.Page page = more ? org.queryMore(argument) : org.query(argument);
+            StringBuilder response = new StringBuilder(SOAP_ENVELOPE)
+                    .append(more ? "<queryMoreResponse>" : "<queryResponse>")
+                    .append("<result xsi:type=\"QueryResult\"><done>").append(page.done()).append("</done>")
+                    .append(page.locator() != null ? "<queryLocator>" + page.locator() + "</queryLocator>" : "<queryLocator xsi:nil=\"true\"/>");
+            for (FakeOrg.Row row : page.records()) {
+                response.append("<records xsi:type=\"sf:sObject\"><sf:type>").append(row.type()).append("</sf:type>");
+                // The Partner API always leads with Id, and repeats it if it was selected
+                String id = row.fields().get("Id");
+                response.append(id != null ? "<sf:Id>" + id + "</sf:Id>" : "<sf:Id xsi:nil=\"true\"/>");
+                for (Map.Entry<String, String> field : row.fields().entrySet()) {
+                    if (field.getValue() == null) {
+                        response.append("<sf:").append(field.getKey()).append(" xsi:nil=\"true\"/>");
+                    } else {
+                        response.append("<sf:").append(field.getKey()).append('>').append(xmlEscape(field.getValue()))
+                                .append("</sf:").append(field.getKey()).append('>');
+                    }
+                }
+                response.append("</records>");
+            }
+            response.append("<size>").append(page.totalSize()).append("</size></result>")
+                    .append(more ? "</queryMoreResponse>" : "</queryResponse>")
+                    .append("</soapenv:Body></soapenv:Envelope>");
+            xml = response.toString();
+        } catch (FakeOrg.QueryException e) {
+            status = 500;
+            boolean locator = e.getMessage().contains("locator");
+            String code = locator ? "INVALID_QUERY_LOCATOR" : "MALFORMED_QUERY";
+            String faultType = locator ? "InvalidQueryLocatorFault" : "MalformedQueryFault";
+            xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+                    + "<soapenv:Envelope xmlns:soapenv=\"http://schemas.xmlsoap.org/soap/envelope/\" xmlns:sf=\"urn:fault.partner.soap.sforce.com\""
+                    + " xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"><soapenv:Body><soapenv:Fault>"
+                    + "<faultcode>sf:" + code + "</faultcode><faultstring>" + code + ": " + xmlEscape(e.getMessage()) + "</faultstring>"
+                    + "<detail><sf:" + faultType + " xsi:type=\"sf:" + faultType + "\"><sf:exceptionCode>" + code + "</sf:exceptionCode>"
+                    + "<sf:exceptionMessage>" + xmlEscape(e.getMessage()) + "</sf:exceptionMessage>"
+                    + (locator ? "" : "<sf:row>-1</sf:row><sf:column>-1</sf:column>")
+                    + "</sf:" + faultType + "></detail></soapenv:Fault></soapenv:Body></soapenv:Envelope>";
+        }
+        send(exchange, status, "text/xml; charset=utf-8", xml.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void handleRest(HttpExchange exchange, String resource, byte[] requestBody) throws IOException {
+        String method = exchange.getRequestMethod();
+        String rawQuery = exchange.getRequestURI().getRawQuery();
+        try {
+            if (method.equals("GET") && resource.equals("/query") && rawQuery != null && rawQuery.startsWith("q=")) {
+                sendJson(exchange, 200, queryResult(org.query(URLDecoder.decode(rawQuery.substring(2), StandardCharsets.UTF_8))));
+            } else if (method.equals("GET") && resource.startsWith("/query/")) {
+                sendJson(exchange, 200, queryResult(org.queryMore(resource.substring("/query/".length()))));
+            } else if (method.equals("POST") && resource.equals("/composite/batch")) {
+                sendJson(exchange, 200, compositeBatch(objectMapper.readTree(requestBody)));
+            } else if (resource.startsWith("/jobs/query")) {
+                handleBulk(exchange, method, resource.substring("/jobs/query".length()), rawQuery, requestBody);
+            } else {
+                sendRestError(exchange, 404, "NOT_FOUND", "The requested resource does not exist");
+            }
+        } catch (FakeOrg.QueryException e) {
+            sendRestError(exchange, 400, e.getMessage().contains("locator") ? "INVALID_QUERY_LOCATOR" : "MALFORMED_QUERY", e.getMessage());
+        }
+    }
+
+    private ObjectNode compositeBatch(JsonNode request) {
+        ObjectNode response = objectMapper.createObjectNode();
+        ArrayNode results = response.putArray("results");
+        boolean hasErrors = false;
+        for (JsonNode subrequest : request.path("batchRequests")) {
+            batchedQueries.incrementAndGet();
+            String url = subrequest.path("url").asText();
+            int query = url.indexOf("/query?q=");
+            ObjectNode result = results.addObject();
+            try {
+                if (query < 0) {
+                    throw new FakeOrg.QueryException("Only query subrequests are supported");
+                }
+                result.put("statusCode", 200);
+                result.set("result", queryResult(org.query(URLDecoder.decode(url.substring(query + 9), StandardCharsets.UTF_8))));
+            } catch (FakeOrg.QueryException e) {
+                hasErrors = true;
+                result.put("statusCode", 400);
+                result.set("result", restError("MALFORMED_QUERY", e.getMessage()));
+            }
+        }
+        response.put("hasErrors", hasErrors);
+        return response;
+    }
+
+    private void handleBulk(HttpExchange exchange, String method, String resource, String rawQuery, byte[] requestBody) throws IOException {
+        if (method.equals("POST") && resource.isEmpty()) {
+            bulkJobCount.incrementAndGet();
+            String soql = objectMapper.readTree(requestBody).path("query").asText();
+            String jobId = "750FK" + UUID.randomUUID().toString().replace("-", "").substring(0, 13);
+            long readyNanos = System.nanoTime() + options.bulkProcessingTime().toNanos();
+            BulkJob job;
+            try {
+                FakeOrg.Page page = org.query(soql);
+                if (page.records().stream().anyMatch(row -> row.type().equals("AggregateResult"))) {
+                    throw new FakeOrg.QueryException("Aggregate Relationships not supported in Bulk Query");
+                }
+                job = new BulkJob(collect(page), page.columns(), null, readyNanos);
+            } catch (FakeOrg.QueryException e) {
+                job = new BulkJob(List.of(), List.of(), e.getMessage(), readyNanos);
+            }
+            bulkJobs.put(jobId, job);
+            sendJson(exchange, 200, jobInfo(jobId, "UploadComplete", null));
+            return;
+        }
+        String[] parts = resource.split("/");
+        BulkJob job = parts.length >= 2 ? bulkJobs.get(parts[1]) : null;
+        if (job == null) {
+            sendRestError(exchange, 404, "NOT_FOUND", "Job not found");
+            return;
+        }
+        String jobId = parts[1];
+        if (parts.length == 2 && method.equals("PATCH")) {
+            bulkJobs.remove(jobId);
+            sendJson(exchange, 200, jobInfo(jobId, "Aborted", null));
+        } else if (parts.length == 2 && method.equals("GET")) {
+            String state = System.nanoTime() < job.readyNanos() ? "InProgress" : job.error() != null ? "Failed" : "JobComplete";
+            sendJson(exchange, 200, jobInfo(jobId, state, job.error()));
+        } else if (parts.length == 3 && parts[2].equals("results") && method.equals("GET")) {
+            int maxRecords = Integer.MAX_VALUE;
+            int offset = 0;
+            for (String parameter : rawQuery != null ? rawQuery.split("&") : new String[0]) {
+                if (parameter.startsWith("maxRecords=")) {
+                    maxRecords = Integer.parseInt(parameter.substring("maxRecords=".length()));
+                } else if (parameter.startsWith("locator=")) {
+                    offset = Integer.parseInt(parameter.substring("locator=".length()));
+                }
+            }
+            int end = (int) Math.min(job.rows().size(), (long) offset + maxRecords);
+            StringBuilder csv = new StringBuilder();
+            csvRow(csv, job.columns());
+            for (FakeOrg.Row row : job.rows().subList(offset, end)) {
+                csvRow(csv, row.fields().values());
+            }
+            exchange.getResponseHeaders().add("Sforce-Locator", end < job.rows().size() ? Integer.toString(end) : "null");
+            exchange.getResponseHeaders().add("Sforce-NumberOfRecords", Integer.toString(end - offset));
+            if (end >= job.rows().size()) {
+                bulkJobs.remove(jobId);
+            }
+            send(exchange, 200, "text/csv", csv.toString().getBytes(StandardCharsets.UTF_8));
+        } else {
+            sendRestError(exchange, 404, "NOT_FOUND", "The requested resource does not exist");
+        }
+    }
+
+    // Every row of a query, following its cursor
+    private List<FakeOrg.Row> collect(FakeOrg.Page page) throws FakeOrg.QueryException {
+        List<FakeOrg.Row> rows = new ArrayList<>(page.records());
+        while (!page.done()) {
+            page = org.queryMore(page.locator());
+            rows.addAll(page.records());
+        }
+        return rows;
+    }
+
+    private ObjectNode jobInfo(String jobId, String state, String errorMessage) {
+        ObjectNode job = objectMapper.createObjectNode();
+        job.put("id", jobId);
+        job.put("operation", "query");
+        job.put("state", state);
+        if (errorMessage != null) {
+            job.put("errorMessage", errorMessage);
+        }
+        return job;
+    }
+
+    private ObjectNode queryResult(FakeOrg.Page page) {
+        ObjectNode result = objectMapper.createObjectNode();
+        result.put("totalSize", page.totalSize());
+        result.put("done", page.done());
+        if (!page.done()) {
+            result.put("nextRecordsUrl", "/services/data/v62.0/query/" + page.locator());
+        }
+        ArrayNode records = result.putArray("records");
+        for (FakeOrg.Row row : page.records()) {
+            ObjectNode record = records.addObject();
+            record.putObject("attributes").put("type", row.type());
+            for (Map.Entry<String, String> field : row.fields().entrySet()) {
+                String value = field.getValue();
+                if (value == null) {
+                    record.putNull(field.getKey());
+                } else if (!field.getKey().equals("Id") && value.matches("-?\\d+")) {
+                    // Like the REST API, numbers are JSON numbers rather than strings
+                    record.put(field.getKey(), Long.parseLong(value));
+                } else if (!field.getKey().equals("Id") && value.matches("-?\\d+\\.\\d+")) {
+                    record.put(field.getKey(), Double.parseDouble(value));
+                } else {
+                    record.put(field.getKey(), value);
+                }
+            }
+        }
+        return result;
+    }
+
+    private ArrayNode restError(String errorCode, String message) {
+        ArrayNode errors = objectMapper.createArrayNode();
+        errors.addObject().put("errorCode", errorCode).put("message", message);
+        return errors;
+    }
+
+    private void sendRestError(HttpExchange exchange, int status, String errorCode, String message) throws IOException {
+        sendJson(exchange, status, restError(errorCode, message));
+    }
+
+    private void sendJson(HttpExchange exchange, int status, JsonNode body) throws IOException {
+        send(exchange, status, "application/json;charset=UTF-8", objectMapper.writeValueAsBytes(body));
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", contentType);
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (acceptEncoding != null && acceptEncoding.contains("gzip") && body.length > 512) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 4);
+            try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                gzip.write(body);
+            }
+            body = compressed.toByteArray();
+            exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+        }
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static void csvRow(StringBuilder csv, Iterable<String> values) {
+        boolean first = true;
+        for (String value : values) {
+            if (!first) {
+                csv.append(',');
+            }
+            first = false;
+            if (value != null) {
+                csv.append('"').append(value.replace("\"", "\"\"")).append('"');
+            }
+        }
+        csv.append('\n');
+    }
+
+    private static String xmlEscape(String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+
+    private static String xmlUnescape(String value) {
+        return value.replace("&lt;", "<").replace("&gt;", ">").replace("&quot;", "\"").replace("&apos;", "'").replace("&amp;", "&");
+    }
+
+    public static void main(String[] args) throws Exception {
+        FakeOrg org = seededOrg();
+        FakeSalesforce fake = start(org, Options.fromSystemProperties(9797));
+        System.out.printf("Fake Salesforce at %s with %d flights, %d bookings and %d vehicles%n", fake.url(),
+                org.flightCount(), org.recordCount("Booking__c"), org.vehicleCount());
+        System.out.printf("Flight IDs %s to %s, vehicle IDs %s to %s%n", FakeOrg.flightId(0), FakeOrg.flightId(org.flightCount() - 1),
+                FakeOrg.vehicleId(0), FakeOrg.vehicleId(org.vehicleCount() - 1));
+        Thread.currentThread().join();
+    }
+}
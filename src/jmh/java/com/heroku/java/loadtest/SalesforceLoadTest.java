@@ -0,0 +1,320 @@
+package com.heroku.java.loadtest;
+
+import com.heroku.java.ActionsApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives the action endpoints with a weighted mix of requests, each carrying an {@code x-client-context} header like
+ * the ones Salesforce sends (a new request ID every time, spread over several orgs and users), against a
+ * {@link FakeSalesforce} seeded with flights, bookings and vehicles. Reports throughput and latency percentiles per
+ * endpoint, so capacity can be planned on one machine without an org.
+ * <p>
+ * By default the application is booted in this JVM, with any {@code -D} Spring properties passed on the command
+ * line (for example {@code -Dsalesforce.data-access.mode=rest}), and the fake is embedded too. Set
+ * {@code loadtest.url} to drive an app that is already running, and {@code loadtest.fakeUrl} to use a fake started
+ * separately with the same {@code fake.*} seed settings.
+ * <p>
+ * Clients run a closed loop, each sending its next request once the previous one completes, unless
+ * {@code loadtest.rate} sets a fixed arrival rate in requests per second. At a fixed rate each latency is measured
+ * from when the request was due, so a saturated app shows up as growing latency rather than as fewer requests.
+ * <p>
+ * Run with: {@code mvn -Pbenchmarks test-compile exec:exec@salesforce-load-test -Dloadtest.args="-Dloadtest.concurrency=200"}
+ * Tune with -Dloadtest.concurrency, -Dloadtest.duration, -Dloadtest.warmup, -Dloadtest.rate, -Dloadtest.orgs,
+ * -Dloadtest.usersPerOrg, -Dloadtest.mix (e.g. {@code carbon=4,carbonBatch=1,finance=3,financeScenarios=1,shipping=2,bulkShipping=1})
+ * and the fake's -Dfake.latencyMs, -Dfake.jitterMs, -Dfake.stallRate, -Dfake.stallMs, -Dfake.errorRate, -Dfake.flights, -Dfake.maxBookingsPerFlight and -Dfake.vehicles.
+ */
+public class SalesforceLoadTest {
+
+    private static final String[] DESTINATIONS = { "10001", "60601", "94105", "30301", "98101", "02108", "33101", "75201" };
+
+    enum Endpoint {
+        CARBON("carbon", "/api/calculateCarbonFootprint"),
+        CARBON_BATCH("carbonBatch", "/api/calculateCarbonFootprints"),
+        FINANCE("finance", "/api/calculateFinanceAgreement"),
+        FINANCE_SCENARIOS("financeScenarios", "/api/calculateFinanceScenarios"),
+        SHIPPING("shipping", "/api/calculateShippingOptions"),
+        BULK_SHIPPING("bulkShipping", "/api/calculateBulkShippingOptions");
+
+        final String key;
+        final String path;
+
+        Endpoint(String key, String path) {
+            this.key = key;
+            this.path = path;
+        }
+
+        // A request body addressing random seeded records
+        String body(int flights, int vehicles) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            return switch (this) {
+                case CARBON -> "{\"flightId\":\"" + FakeOrg.flightId(random.nextInt(flights)) + "\"}";
+                case CARBON_BATCH -> {
+                    StringBuilder ids = new StringBuilder();
+                    for (int i = 0; i < 10; i++) {
+                        ids.append(i > 0 ? "," : "").append('"').append(FakeOrg.flightId(random.nextInt(flights))).append('"');
+                    }
+                    yield "{\"flightIds\":[" + ids + "]}";
+                }
+                case FINANCE -> "{\"vehicleId\":\"" + FakeOrg.vehicleId(random.nextInt(vehicles)) + "\",\"maxInterestRate\":"
+                        + (2 + random.nextInt(4)) + ",\"downPayment\":" + random.nextInt(10) * 1000 + ",\"years\":" + (2 + random.nextInt(5)) + "}";
+                case FINANCE_SCENARIOS -> "{\"vehicleId\":\"" + FakeOrg.vehicleId(random.nextInt(vehicles))
+                        + "\",\"years\":[2,3,4,5],\"interestRates\":[2.9,3.2,3.5],\"downPayments\":[0,1000,5000],\"maxOffers\":5}";
+                case SHIPPING -> "{\"productId\":\"PROD123456\",\"destination\":\"" + DESTINATIONS[random.nextInt(DESTINATIONS.length)] + "\"}";
+                case BULK_SHIPPING -> {
+                    StringBuilder items = new StringBuilder();
+                    for (int i = 0; i < 20; i++) {
+                        items.append(i > 0 ? "," : "").append("{\"productId\":\"PROD20000").append(1 + random.nextInt(5))
+                                .append("\",\"quantity\":").append(1 + random.nextInt(3))
+                                .append(",\"destination\":\"").append(DESTINATIONS[random.nextInt(DESTINATIONS.length)]).append("\"}");
+                    }
+                    yield "{\"items\":[" + items + "]}";
+                }
+            };
+        }
+    }
+
+    /**
+     * Latencies and failures of one client, merged once the run is over.
+     */
+    private static final class ClientResults {
+
+        final Map<Endpoint, long[]> latencies = new EnumMap<>(Endpoint.class);
+        final Map<Endpoint, Integer> counts = new EnumMap<>(Endpoint.class);
+        final Map<String, Integer> failures = new TreeMap<>();
+
+        void record(Endpoint endpoint, long latencyNanos) {
+            int count = counts.getOrDefault(endpoint, 0);
+            long[] values = latencies.computeIfAbsent(endpoint, e -> new long[256]);
+            if (count == values.length) {
+                values = Arrays.copyOf(values, count * 2);
+                latencies.put(endpoint, values);
+            }
+            values[count] = latencyNanos;
+            counts.put(endpoint, count + 1);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int concurrency = Integer.getInteger("loadtest.concurrency", 64);
+        Duration duration = Duration.parse(System.getProperty("loadtest.duration", "PT30S"));
+        Duration warmup = Duration.parse(System.getProperty("loadtest.warmup", "PT10S"));
+        double rate = Double.parseDouble(System.getProperty("loadtest.rate", "0"));
+        int orgs = Integer.getInteger("loadtest.orgs", 4);
+        int usersPerOrg = Integer.getInteger("loadtest.usersPerOrg", 5);
+        Endpoint[] mix = mix(System.getProperty("loadtest.mix", "carbon=4,carbonBatch=1,finance=3,financeScenarios=1,shipping=2,bulkShipping=1"));
+
+        FakeOrg org = FakeSalesforce.seededOrg();
+        FakeSalesforce fake = System.getProperty("loadtest.fakeUrl") == null
+                ? FakeSalesforce.start(org, FakeSalesforce.Options.fromSystemProperties(0)) : null;
+        String fakeUrl = fake != null ? fake.url() : System.getProperty("loadtest.fakeUrl");
+        ConfigurableApplicationContext context = null;
+        try {
+            String appUrl = System.getProperty("loadtest.url");
+            if (appUrl == null) {
+                // As arguments, so they take precedence over application.properties
+                context = new SpringApplicationBuilder(ActionsApplication.class)
+                        .run("--server.port=0", "--spring.main.banner-mode=off", "--logging.level.root=WARN");
+                appUrl = "http://localhost:" + context.getEnvironment().getRequiredProperty("local.server.port", Integer.class);
+            }
+            System.out.printf("Driving %s against %s: %d flights, %d bookings, %d vehicles, %d orgs x %d users%n",
+                    appUrl, fakeUrl, org.flightCount(), org.recordCount("Booking__c"), org.vehicleCount(), orgs, usersPerOrg);
+            System.out.printf("%d clients, %s, warm-up %ss, measured %ss%n", concurrency,
+                    rate > 0 ? String.format("%.0f req/s arrival rate", rate) : "closed loop",
+                    warmup.toSeconds(), duration.toSeconds());
+
+            LoadRun run = new LoadRun(URI.create(appUrl), fakeUrl, org, orgs, usersPerOrg, mix);
+            run.drive(concurrency, warmup, rate);
+            if (fake != null) {
+                fake.resetStats();
+            }
+            List<ClientResults> results = run.drive(concurrency, duration, rate);
+            report(results, duration);
+            if (fake != null) {
+                System.out.println("Fake Salesforce served " + fake.stats());
+            }
+        } finally {
+            if (context != null) {
+                context.close();
+            }
+            if (fake != null) {
+                fake.close();
+            }
+        }
+    }
+
+    // Parses "carbon=4,finance=3" into a draw table in which each endpoint appears as often as its weight
+    private static Endpoint[] mix(String spec) {
+        List<Endpoint> draws = new ArrayList<>();
+        for (String entry : spec.split(",")) {
+            String[] keyAndWeight = entry.trim().split("=");
+            Endpoint endpoint = Arrays.stream(Endpoint.values()).filter(e -> e.key.equals(keyAndWeight[0].trim())).findFirst()
+                    .orElseThrow(() -> new IllegalArgumentException("Unknown endpoint in loadtest.mix: " + keyAndWeight[0]));
+            int weight = keyAndWeight.length > 1 ? Integer.parseInt(keyAndWeight[1].trim()) : 1;
+            for (int i = 0; i < weight; i++) {
+                draws.add(endpoint);
+            }
+        }
+        if (draws.isEmpty()) {
+            throw new IllegalArgumentException("loadtest.mix selects no endpoints");
+        }
+        return draws.toArray(new Endpoint[0]);
+    }
+
+    private static final class LoadRun {
+
+        private final URI appUrl;
+        private final String fakeUrl;
+        private final FakeOrg org;
+        private final int orgs;
+        private final int usersPerOrg;
+        private final Endpoint[] mix;
+        private final AtomicLong requestIds = new AtomicLong();
+
+        LoadRun(URI appUrl, String fakeUrl, FakeOrg org, int orgs, int usersPerOrg, Endpoint[] mix) {
+            this.appUrl = appUrl;
+            this.fakeUrl = fakeUrl;
+            this.org = org;
+            this.orgs = orgs;
+            this.usersPerOrg = usersPerOrg;
+            this.mix = mix;
+        }
+
+        List<ClientResults> drive(int concurrency, Duration duration, double rate) throws Exception {
+            long start = System.nanoTime();
+            long end = start + duration.toNanos();
+            long intervalNanos = rate > 0 ? (long) (1e9 / rate) : 0;
+            AtomicLong tickets = new AtomicLong();
+            List<ClientResults> results = new ArrayList<>();
+            // Closing the executor waits for every client to finish; only then is the HttpClient itself closed
+            try (HttpClient httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+                 ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+                for (int c = 0; c < concurrency; c++) {
+                    ClientResults client = new ClientResults();
+                    results.add(client);
+                    clients.submit(() -> {
+                        while (true) {
+                            long due = System.nanoTime();
+                            if (intervalNanos > 0) {
+                                due = start + tickets.getAndIncrement() * intervalNanos;
+                                if (due >= end) {
+                                    return null;
+                                }
+                                LockSupport.parkNanos(due - System.nanoTime());
+                            } else if (due >= end) {
+                                return null;
+                            }
+                            Endpoint endpoint = mix[ThreadLocalRandom.current().nextInt(mix.length)];
+                            String failure = send(httpClient, endpoint);
+                            client.record(endpoint, System.nanoTime() - due);
+                            if (failure != null) {
+                                client.failures.merge(endpoint.key + " " + failure, 1, Integer::sum);
+                            }
+                        }
+                    });
+                }
+            }
+            return results;
+        }
+
+        // Sends one request, returning null on success or what went wrong
+        private String send(HttpClient httpClient, Endpoint endpoint) {
+            HttpRequest request = HttpRequest.newBuilder(appUrl.resolve(endpoint.path))
+                    .header("Content-Type", "application/json")
+                    .header("x-client-context", clientContext())
+                    .timeout(Duration.ofMinutes(1))
+                    .POST(HttpRequest.BodyPublishers.ofString(endpoint.body(org.flightCount(), org.vehicleCount())))
+                    .build();
+            try {
+                int status = httpClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+                return status == 200 ? null : "HTTP " + status;
+            } catch (Exception e) {
+                return e.getClass().getSimpleName();
+            }
+        }
+
+        // A client context for a random user of a random org, with a fresh request ID as Salesforce sends
+        private String clientContext() {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int orgIndex = random.nextInt(orgs);
+            int userIndex = random.nextInt(usersPerOrg);
+            String json = String.format("{\"accessToken\":\"00DFK%010d!session-%d\",\"apiVersion\":\"62.0\",\"requestId\":\"%d\","
+                            + "\"namespace\":\"\",\"orgId\":\"00DFK%010d\",\"orgDomainUrl\":\"%s\","
+                            + "\"userContext\":{\"userId\":\"005FK%010d\",\"username\":\"user%d@org%d.example.com\"}}",
+                    orgIndex, userIndex, requestIds.incrementAndGet(), orgIndex, fakeUrl, orgIndex * usersPerOrg + userIndex, userIndex, orgIndex);
+            return Base64.getEncoder().encodeToString(json.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static void report(List<ClientResults> results, Duration duration) {
+        System.out.printf("%-18s %9s %8s %9s %8s %8s %8s %8s %8s%n",
+                "endpoint", "requests", "errors", "req/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+        long[] all = new long[0];
+        int totalErrors = 0;
+        Map<String, Integer> failures = new TreeMap<>();
+        for (ClientResults client : results) {
+            client.failures.forEach((failure, count) -> failures.merge(failure, count, Integer::sum));
+        }
+        for (Endpoint endpoint : Endpoint.values()) {
+            long[] latencies = new long[0];
+            for (ClientResults client : results) {
+                int count = client.counts.getOrDefault(endpoint, 0);
+                if (count > 0) {
+                    int offset = latencies.length;
+                    latencies = Arrays.copyOf(latencies, offset + count);
+                    System.arraycopy(client.latencies.get(endpoint), 0, latencies, offset, count);
+                }
+            }
+            if (latencies.length == 0) {
+                continue;
+            }
+            int errors = 0;
+            for (Map.Entry<String, Integer> failure : failures.entrySet()) {
+                if (failure.getKey().startsWith(endpoint.key + " ")) {
+                    errors += failure.getValue();
+                }
+            }
+            totalErrors += errors;
+            printRow(endpoint.key, latencies, errors, duration);
+            int offset = all.length;
+            all = Arrays.copyOf(all, offset + latencies.length);
+            System.arraycopy(latencies, 0, all, offset, latencies.length);
+        }
+        if (all.length > 0) {
+            printRow("all", all, totalErrors, duration);
+        }
+        failures.forEach((failure, count) -> System.out.printf("  %6d x %s%n", count, failure));
+    }
+
+    private static void printRow(String name, long[] latencies, int errors, Duration duration) {
+        Arrays.sort(latencies);
+        System.out.printf("%-18s %9d %8d %9.1f %8.1f %8.1f %8.1f %8.1f %8.1f%n", name, latencies.length, errors,
+                latencies.length / (duration.toNanos() / 1e9),
+                percentileMillis(latencies, 0.50), percentileMillis(latencies, 0.90), percentileMillis(latencies, 0.99),
+                percentileMillis(latencies, 0.999), percentileMillis(latencies, 1.0));
+    }
+
+    private static double percentileMillis(long[] sortedNanos, double percentile) {
+        int index = (int) Math.min(sortedNanos.length - 1, Math.ceil(percentile * sortedNanos.length) - 1);
+        return sortedNanos[Math.max(0, index)] / 1e6;
+    }
+}
@@ -0,0 +1,173 @@
+package com.heroku.java.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.heroku.java.config.RequestCoalescer;
+import com.heroku.java.config.SalesforceDataAccess;
+import com.heroku.java.config.SalesforceQueryExecutor;
+import com.heroku.java.config.SalesforceRecordCache;
+import com.heroku.java.config.SalesforceUserContext;
+import com.heroku.java.config.SoapSalesforceApi;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.DoubleStream;
+import java.util.stream.IntStream;
+
+/**
+ * Per-endpoint compute without HTTP or serialization: emission factors and distances, loan amortization, and the
+ * controller methods themselves (including a 5,000 scenario finance grid) invoked against a
+ * {@link StubPartnerConnection}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ActionComputeBenchmark {
+
+    @Param({ "10", "200" })
+    public int bookingCount;
+
+    private SalesforceQueryExecutor queryExecutor;
+    private EmissionFactorModel emissionFactorModel;
+    private CarbonFootprintService carbonFootprintService;
+    private FinanceAgreementService financeAgreementService;
+    private ShippingOptionsService shippingOptionsService;
+    private ShippingRateEngine uncachedRateEngine;
+    private int shippingQuoteCount;
+    private MockHttpServletRequest httpServletRequest;
+    private CarbonFootprintService.CarbonFootprintRequest carbonRequest;
+    private FinanceAgreementService.FinanceCalculationRequest financeRequest;
+    private FinanceAgreementService.FinanceScenarioRequest financeScenarioRequest;
+    private ShippingOptionsService.CalculateShippingOptionsRequest shippingRequest;
+    private ShippingOptionsService.BulkShippingOptionsRequest bulkShippingRequest;
+
+    @Setup
+    public void setUp() throws Exception {
+        AirportIndex airportIndex = new AirportIndex(AirportIndex.class.getResourceAsStream("/airports/airports.csv"));
+        queryExecutor = new SalesforceQueryExecutor(Duration.ofSeconds(20), Executors.newVirtualThreadPerTaskExecutor());
+        SalesforceDataAccess dataAccess = soapDataAccess(queryExecutor);
+        SalesforceRecordCache recordCache = new SalesforceRecordCache(dataAccess, 16, 1000, Duration.ofMinutes(5), Duration.ofMinutes(30));
+        RequestCoalescer requestCoalescer = new RequestCoalescer(new SimpleMeterRegistry(), true);
+        emissionFactorModel = emissionFactorModel();
+        carbonFootprintService = new CarbonFootprintService(airportIndex, emissionFactorModel, dataAccess, queryExecutor, recordCache,
+                requestCoalescer, new ObjectMapper());
+        financeAgreementService = new FinanceAgreementService(recordCache, requestCoalescer);
+        shippingOptionsService = new ShippingOptionsService(shippingRateEngine(4096), "60601");
+        uncachedRateEngine = shippingRateEngine(1);
+        httpServletRequest = new MockHttpServletRequest();
+        httpServletRequest.setAttribute("salesforceUserContext", new SalesforceUserContext("stub-session", "62.0", "req-1",
+                "demo", "00DHs000000EXAMPLE", "https://stub.invalid", "0055g00000EXAMPLE", "agent@example.com"));
+        httpServletRequest.setAttribute("salesforcePartnerConnection", StubPartnerConnection.create(bookingCount));
+
+        carbonRequest = new CarbonFootprintService.CarbonFootprintRequest();
+        carbonRequest.flightId = "a02Hs00001D2QtLIAV";
+        financeRequest = new FinanceAgreementService.FinanceCalculationRequest();
+        financeRequest.vehicleId = "a04Hs00002EMj9PIAT";
+        financeRequest.maxInterestRate = 3.5;
+        financeRequest.downPayment = 1000;
+        financeRequest.years = 3;
+        // 10 terms x 10 rates x 50 down payments
+        financeScenarioRequest = new FinanceAgreementService.FinanceScenarioRequest();
+        financeScenarioRequest.vehicleId = "a04Hs00002EMj9PIAT";
+        financeScenarioRequest.years = IntStream.rangeClosed(1, 10).boxed().toList();
+        financeScenarioRequest.interestRates = DoubleStream.iterate(2.6, rate -> rate + 0.1).limit(10).boxed().toList();
+        financeScenarioRequest.downPayments = DoubleStream.iterate(0, payment -> payment + 250).limit(50).boxed().toList();
+        shippingRequest = new ShippingOptionsService.CalculateShippingOptionsRequest();
+        shippingRequest.productId = "PROD123456";
+        shippingRequest.destination = "10001";
+        // A 500 line order spread over 25 destinations
+        String[] productIds = { "PROD123456", "PROD200001", "PROD200002", "PROD200003", "PROD200004", "PROD200005" };
+        bulkShippingRequest = new ShippingOptionsService.BulkShippingOptionsRequest();
+        bulkShippingRequest.items = IntStream.range(0, 500).mapToObj(i -> {
+            ShippingOptionsService.BulkShippingItem item = new ShippingOptionsService.BulkShippingItem();
+            item.productId = productIds[i % productIds.length];
+            item.quantity = 1 + i % 3;
+            item.destination = String.format("%03d01", 100 + (i % 25) * 35);
+            return item;
+        }).toList();
+    }
+
+    static ShippingRateEngine shippingRateEngine(int quoteCacheSize) throws Exception {
+        return new ShippingRateEngine(
+                ShippingRateEngine.class.getResourceAsStream("/shipping/products.csv"),
+                ShippingRateEngine.class.getResourceAsStream("/shipping/services.csv"),
+                ShippingRateEngine.class.getResourceAsStream("/shipping/rates.csv"),
+                ShippingRateEngine.class.getResourceAsStream("/shipping/zones.csv"),
+                quoteCacheSize, new ShippingRateEngine.PolicyWeights(1.0, 0.5, 0.5));
+    }
+
+    static EmissionFactorModel emissionFactorModel() throws Exception {
+        return new EmissionFactorModel(EmissionFactorModel.class.getResourceAsStream("/emissions/defra-2023.csv"), "DEFRA 2023", true);
+    }
+
+    // The stub connection only speaks SOAP, so the REST and bulk clients are never used
+    static SalesforceDataAccess soapDataAccess(SalesforceQueryExecutor queryExecutor) {
+        return new SalesforceDataAccess(new SoapSalesforceApi(queryExecutor), null, null, SalesforceDataAccess.Mode.SOAP, Integer.MAX_VALUE);
+    }
+
+    @TearDown
+    public void tearDown() {
+        queryExecutor.destroy();
+    }
+
+    @Benchmark
+    public double emissionFactors() {
+        int distanceKm = carbonFootprintService.estimateDistance("SFO", "JFK");
+        return emissionFactorModel.factorPerKm(EmissionFactorModel.SeatClass.ECONOMY, distanceKm)
+                + emissionFactorModel.factorPerKm(EmissionFactorModel.SeatClass.BUSINESS, distanceKm)
+                + emissionFactorModel.factorPerKm(EmissionFactorModel.SeatClass.FIRST_CLASS, distanceKm);
+    }
+
+    @Benchmark
+    public double loanAmortization() {
+        return FinanceAgreementService.monthlyPayment(40800, 3.5, 36);
+    }
+
+    @Benchmark
+    public Object carbonFootprint() {
+        return carbonFootprintService.calculateCarbonFootprint(carbonRequest, httpServletRequest);
+    }
+
+    @Benchmark
+    public Object financeAgreement() {
+        return financeAgreementService.calculateFinanceAgreement(financeRequest, httpServletRequest);
+    }
+
+    @Benchmark
+    public Object financeScenarios() {
+        return financeAgreementService.calculateFinanceScenarios(financeScenarioRequest, httpServletRequest);
+    }
+
+    @Benchmark
+    public Object shippingOptions() {
+        return shippingOptionsService.calculateShippingOptions(shippingRequest, httpServletRequest);
+    }
+
+    @Benchmark
+    public Object bulkShippingOptions() {
+        return shippingOptionsService.calculateBulkShippingOptions(bulkShippingRequest, httpServletRequest);
+    }
+
+    // Alternates destinations through a one-entry cache, so every quote is priced from the rate tables
+    @Benchmark
+    public Object shippingQuoteUncached() {
+        return uncachedRateEngine.quote("PROD200003", (shippingQuoteCount++ & 1) == 0 ? "10001" : "98101");
+    }
+}
@@ -0,0 +1,114 @@
+package com.heroku.java.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.heroku.java.config.ClientContextDecoder;
+import com.heroku.java.config.OrgConcurrencyLimiter;
+import com.heroku.java.config.RequestCoalescer;
+import com.heroku.java.config.RequestStageMetrics;
+import com.heroku.java.config.SalesforceAccessInterceptor;
+import com.heroku.java.config.SalesforceClientContextFilter;
+import com.heroku.java.config.SalesforceConnectionCache;
+import com.heroku.java.config.SalesforceDataAccess;
+import com.heroku.java.config.SalesforceQueryExecutor;
+import com.heroku.java.config.SalesforceRecordCache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+
+/**
+ * Full MockMvc round-trips through {@link SalesforceClientContextFilter}, {@link SalesforceAccessInterceptor} with
+ * the org concurrency limit, the controllers and Jackson serialization, with the connection cache handing out a
+ * {@link StubPartnerConnection}. Reports throughput and, through sample mode, latency percentiles.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ActionRoundTripBenchmark {
+
+    private SalesforceQueryExecutor queryExecutor;
+    private MockMvc mockMvc;
+    private String encodedClientContext;
+
+    @Setup
+    public void setUp() throws Exception {
+        StubPartnerConnection connection = StubPartnerConnection.create(50);
+        SalesforceConnectionCache connectionCache =
+                new SalesforceConnectionCache(16, Duration.ofMinutes(10), Duration.ofHours(1), Duration.ofSeconds(3), Duration.ofSeconds(10), config -> connection);
+        AirportIndex airportIndex = new AirportIndex(AirportIndex.class.getResourceAsStream("/airports/airports.csv"));
+        queryExecutor = new SalesforceQueryExecutor(Duration.ofSeconds(20), Executors.newVirtualThreadPerTaskExecutor());
+        SalesforceDataAccess dataAccess = ActionComputeBenchmark.soapDataAccess(queryExecutor);
+        SalesforceRecordCache recordCache = new SalesforceRecordCache(dataAccess, 16, 1000, Duration.ofMinutes(5), Duration.ofMinutes(30));
+        RequestCoalescer requestCoalescer = new RequestCoalescer(new SimpleMeterRegistry(), true);
+        mockMvc = MockMvcBuilders
+                .standaloneSetup(new CarbonFootprintService(airportIndex, ActionComputeBenchmark.emissionFactorModel(), dataAccess, queryExecutor,
+                                recordCache, requestCoalescer, new ObjectMapper()),
+                        new FinanceAgreementService(recordCache, requestCoalescer), new ShippingOptionsService(ActionComputeBenchmark.shippingRateEngine(4096), "60601"))
+                .addFilter(new SalesforceClientContextFilter(new ClientContextDecoder(128), connectionCache,
+                        new RequestStageMetrics(new SimpleMeterRegistry(), true, 256, false)), "/api/*")
+                .addInterceptors(new SalesforceAccessInterceptor(new OrgConcurrencyLimiter(new SimpleMeterRegistry(), true, true, 200, 20, 4, 100,
+                        1.5, 0.2, 256, Duration.ofSeconds(1))))
+                .build();
+        String json = "{\"accessToken\":\"stub-session\",\"apiVersion\":\"62.0\",\"requestId\":\"req-1\","
+                + "\"namespace\":\"demo\",\"orgId\":\"00DHs000000EXAMPLE\",\"orgDomainUrl\":\"https://stub.invalid\","
+                + "\"userContext\":{\"userId\":\"0055g00000EXAMPLE\",\"username\":\"agent@example.com\"}}";
+        encodedClientContext = Base64.getEncoder().encodeToString(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @TearDown
+    public void tearDown() {
+        queryExecutor.destroy();
+    }
+
+    @Benchmark
+    public String carbonFootprint() throws Exception {
+        return perform("/api/calculateCarbonFootprint", "{\"flightId\":\"a02Hs00001D2QtLIAV\"}");
+    }
+
+    @Benchmark
+    public String financeAgreement() throws Exception {
+        return perform("/api/calculateFinanceAgreement",
+                "{\"customerId\":\"0035g00000XyZbHAZ\",\"vehicleId\":\"a04Hs00002EMj9PIAT\",\"maxInterestRate\":3.5,\"downPayment\":1000,\"years\":3}");
+    }
+
+    @Benchmark
+    public String shippingOptions() throws Exception {
+        return perform("/api/calculateShippingOptions", "{\"productId\":\"PROD123456\",\"destination\":\"10001\"}");
+    }
+
+    private String perform(String path, String body) throws Exception {
+        MockHttpServletRequestBuilder request = post(path)
+                .header("x-client-context", encodedClientContext)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(body);
+        MockHttpServletResponse response = mockMvc.perform(request).andReturn().getResponse();
+        if (response.getStatus() != 200) {
+            throw new IllegalStateException(path + " returned " + response.getStatus());
+        }
+        return response.getContentAsString();
+    }
+}
@@ -0,0 +1,87 @@
+package com.heroku.java.services;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Route distance lookups: the original per-call HashMap estimate against {@link AirportIndex}, both for memoized
+ * routes and for cold haversine computations. The synthetic 10k index stands in for a full IATA dataset; its
+ * array footprint is printed during setup.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AirportIndexBenchmark {
+
+    @Param({ "bundled", "10000" })
+    public String airports;
+
+    private AirportIndex airportIndex;
+    private String[] codes;
+    private int next;
+
+    @Setup
+    public void setUp() throws Exception {
+        if ("bundled".equals(airports)) {
+            airportIndex = new AirportIndex(AirportIndex.class.getResourceAsStream("/airports/airports.csv"));
+            codes = new String[] { "SFO", "LAX", "JFK", "LHR", "CDG", "SYD", "NRT", "GRU", "DXB", "SIN" };
+        } else {
+            int count = Integer.parseInt(airports);
+            Random random = new Random(42);
+            StringBuilder csv = new StringBuilder();
+            codes = new String[count];
+            for (int i = 0; i < count; i++) {
+                codes[i] = "" + (char) ('A' + i / 676 % 26) + (char) ('A' + i / 26 % 26) + (char) ('A' + i % 26);
+                csv.append(codes[i]).append(',')
+                        .append(random.nextDouble() * 180 - 90).append(',')
+                        .append(random.nextDouble() * 360 - 180).append('\n');
+            }
+            InputStream input = new ByteArrayInputStream(csv.toString().getBytes(StandardCharsets.UTF_8));
+            airportIndex = new AirportIndex(input);
+        }
+        System.out.printf("%n%d airports, index footprint %d bytes%n", airportIndex.size(), airportIndex.footprintBytes());
+    }
+
+    @Benchmark
+    public int hashMapEstimate() {
+        // The lookup CarbonFootprintService used before AirportIndex
+        Map<String, Integer> sampleDistances = new HashMap<>();
+        sampleDistances.put("LAX-SFO", 543);
+        sampleDistances.put("SFO-LAX", 543);
+        sampleDistances.put("JFK-SFO", 4162);
+        sampleDistances.put("SFO-JFK", 4162);
+        return sampleDistances.getOrDefault("SFO" + "-" + codes[1], 500);
+    }
+
+    @Benchmark
+    public int memoizedRoute() {
+        return airportIndex.distanceKm(codes[0], codes[1]);
+    }
+
+    @Benchmark
+    public int rotatingRoutes() {
+        // Walks many distinct routes so most calls miss the route cache and compute the haversine distance
+        int i = next++;
+        return airportIndex.distanceKm(codes[i % codes.length], codes[(i * 7 + 3) % codes.length]);
+    }
+}
@@ -0,0 +1,115 @@
+package com.heroku.java.services;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Emissions of one flight, and of a million passenger-legs as in a nightly report over booking exports: the original
+ * per-request factor lookup (a case-insensitive string comparison chain per class) against {@link EmissionFactorModel},
+ * per leg and through its array batch calculator. Leg benchmarks report time per leg.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EmissionFactorModelBenchmark {
+
+    private static final int LEGS = 1_000_000;
+    private static final String[] PICKLIST_VALUES = { "Economy", "Business", "FirstClass" };
+
+    private EmissionFactorModel model;
+    private int[] distancesKm;
+    private byte[] seatClasses;
+    private String[] seatClassValues;
+    private double[] emissionsKg;
+    private final int[] flightClassCounts = { 150, 24, 6 };
+
+    @Setup
+    public void setUp() throws Exception {
+        model = ActionComputeBenchmark.emissionFactorModel();
+        Random random = new Random(42);
+        distancesKm = new int[LEGS];
+        seatClasses = new byte[LEGS];
+        seatClassValues = new String[LEGS];
+        emissionsKg = new double[LEGS];
+        for (int i = 0; i < LEGS; i++) {
+            distancesKm[i] = 200 + random.nextInt(15_000);
+            int draw = random.nextInt(100);
+            seatClasses[i] = (byte) (draw < 75 ? 0 : draw < 95 ? 1 : 2);
+            seatClassValues[i] = PICKLIST_VALUES[seatClasses[i]];
+        }
+    }
+
+    @Benchmark
+    public double legacyFlight() {
+        int distanceKm = 4139;
+        return (flightClassCounts[0] * legacyFactorPerKm("Economy", distanceKm) * distanceKm)
+                + (flightClassCounts[1] * legacyFactorPerKm("Business", distanceKm) * distanceKm)
+                + (flightClassCounts[2] * legacyFactorPerKm("FirstClass", distanceKm) * distanceKm);
+    }
+
+    @Benchmark
+    public double modelFlight() {
+        return model.flightEmissionsKg(4139, flightClassCounts);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LEGS)
+    public double legacyLegs() {
+        double totalKg = 0;
+        for (int i = 0; i < LEGS; i++) {
+            totalKg += legacyFactorPerKm(seatClassValues[i], distancesKm[i]) * distancesKm[i];
+        }
+        return totalKg;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LEGS)
+    public double modelLegs() {
+        double totalKg = 0;
+        for (int i = 0; i < LEGS; i++) {
+            totalKg += model.factorPerKm(EmissionFactorModel.SeatClass.VALUES[seatClasses[i]], distancesKm[i]) * distancesKm[i];
+        }
+        return totalKg;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LEGS)
+    public double batchTotal() {
+        return model.totalEmissionsKg(distancesKm, seatClasses, LEGS);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LEGS)
+    public double[] batchPerLeg() {
+        model.emissionsKg(distancesKm, seatClasses, LEGS, emissionsKg);
+        return emissionsKg;
+    }
+
+    // The factor lookup CarbonFootprintService used before the factor model
+    private static double legacyFactorPerKm(String seatClass, int distanceKm) {
+        boolean isLongHaul = distanceKm > 1500;
+        if ("Economy".equalsIgnoreCase(seatClass)) {
+            return isLongHaul ? 0.102 : 0.158;
+        } else if ("Business".equalsIgnoreCase(seatClass)) {
+            return isLongHaul ? 0.293 : 0.287;
+        } else if ("FirstClass".equalsIgnoreCase(seatClass)) {
+            return isLongHaul ? 0.435 : 0.474;
+        }
+        return 0.158;
+    }
+}
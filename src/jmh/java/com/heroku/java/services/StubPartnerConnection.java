@@ -0,0 +1,104 @@
+package com.heroku.java.services;
+
+import com.sforce.soap.partner.PartnerConnection;
+import com.sforce.soap.partner.QueryResult;
+import com.sforce.soap.partner.sobject.SObject;
+import com.sforce.ws.ConnectionException;
+import com.sforce.ws.ConnectorConfig;
+
+/**
+ * PartnerConnection that answers the SOQL issued by the action services from canned records instead of calling an
+ * org, so benchmarks measure this app's own work rather than network latency. An optional per-query delay blocks
+ * the calling thread like a real SOAP round-trip does, for load tests of the thread model.
+ */
+public class StubPartnerConnection extends PartnerConnection {
+
+    private final QueryResult flights;
+    private final QueryResult bookings;
+    private final QueryResult bookingCounts;
+    private final QueryResult vehicles;
+    private final long latencyMillis;
+
+    public StubPartnerConnection(ConnectorConfig config, int bookingCount, long latencyMillis) throws ConnectionException {
+        super(config);
+        this.latencyMillis = latencyMillis;
+        SObject flight = new SObject("Flight__c");
+        flight.setId("a02Hs00001D2QtLIAV");
+        flight.setField("Airline__c", "Astro Airlines");
+        flight.setField("Origin_Airport_Code__c", "SFO");
+        flight.setField("Destination_Airport_Code__c", "JFK");
+        this.flights = queryResult(flight);
+
+        String[] classes = { "Economy", "Economy", "Economy", "Business", "FirstClass" };
+        SObject[] bookingRecords = new SObject[bookingCount];
+        int economy = 0, business = 0, firstClass = 0;
+        for (int i = 0; i < bookingCount; i++) {
+            String seatClass = classes[i % classes.length];
+            bookingRecords[i] = new SObject("Booking__c");
+            bookingRecords[i].setField("Class__c", seatClass);
+            switch (seatClass) {
+                case "Economy" -> economy++;
+                case "Business" -> business++;
+                default -> firstClass++;
+            }
+        }
+        this.bookings = queryResult(bookingRecords);
+        // The same bookings as COUNT(Id) ... GROUP BY Class__c rows
+        this.bookingCounts = queryResult(
+                aggregate("Economy", economy), aggregate("Business", business), aggregate("FirstClass", firstClass));
+
+        SObject vehicle = new SObject("Vehicle_Model__c");
+        vehicle.setField("Id", "a04Hs00002EMj9PIAT");
+        vehicle.setField("Price__c", "41800.0");
+        this.vehicles = queryResult(vehicle);
+    }
+
+    public static StubPartnerConnection create(int bookingCount) throws ConnectionException {
+        return create(bookingCount, 0);
+    }
+
+    public static StubPartnerConnection create(int bookingCount, long latencyMillis) throws ConnectionException {
+        ConnectorConfig config = new ConnectorConfig();
+        config.setSessionId("stub-session");
+        config.setServiceEndpoint("https://stub.invalid/services/Soap/u/62.0");
+        return new StubPartnerConnection(config, bookingCount, latencyMillis);
+    }
+
+    @Override
+    public QueryResult query(String soql) throws ConnectionException {
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ConnectionException("Interrupted", e);
+            }
+        }
+        if (soql.contains("FROM Flight__c")) {
+            return flights;
+        } else if (soql.contains("FROM Booking__c") && soql.contains("GROUP BY")) {
+            return bookingCounts;
+        } else if (soql.contains("FROM Booking__c")) {
+            return bookings;
+        } else if (soql.contains("FROM Vehicle_Model__c")) {
+            return vehicles;
+        }
+        throw new ConnectionException("Unexpected query: " + soql);
+    }
+
+    private static SObject aggregate(String seatClass, int passengers) {
+        SObject group = new SObject("AggregateResult");
+        group.setField("Flight__c", "a02Hs00001D2QtLIAV");
+        group.setField("Class__c", seatClass);
+        group.setField("passengers", Integer.toString(passengers));
+        return group;
+    }
+
+    private static QueryResult queryResult(SObject... records) {
+        QueryResult result = new QueryResult();
+        result.setRecords(records);
+        result.setSize(records.length);
+        result.setDone(true);
+        return result;
+    }
+}
@@ -0,0 +1,476 @@
+package com.heroku.java.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs action calculations in the background, so an agent can submit a large carbon report or finance grid, get a
+ * job ID straight away and poll for the result instead of running into its invocation timeout. A fixed number of
+ * workers take queued jobs in priority order, first come first served within a priority. Each org may only have a
+ * few jobs queued or running at once, and jobs are only visible to the org and user that submitted them.
+ * <p>
+ * Finished jobs are kept for {@code action.jobs.result-ttl} and then dropped. When {@code action.jobs.store-file} is
+ * set, jobs are also appended to that file as JSON lines and reloaded on startup, so results survive a restart; jobs
+ * that were still queued or running when the app stopped come back as failed, to be submitted again.
+ */
+@Component
+public class ActionJobQueue implements DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(ActionJobQueue.class);
+
+    public enum Priority {
+        HIGH, NORMAL, LOW;
+
+        /**
+         * The priority named by a request parameter, ignoring case, or {@link #NORMAL} if none is given.
+         */
+        public static Priority of(String value) {
+            if (value == null || value.isBlank()) {
+                return NORMAL;
+            }
+            try {
+                return valueOf(value.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "priority must be high, normal or low.");
+            }
+        }
+    }
+
+    public enum Status {
+        QUEUED, RUNNING, SUCCEEDED, FAILED;
+
+        public boolean isDone() {
+            return this == SUCCEEDED || this == FAILED;
+        }
+    }
+
+    /**
+     * The calculation a job runs, writing the JSON response the action would have returned.
+     */
+    @FunctionalInterface
+    public interface JobBody {
+        void writeResult(OutputStream result) throws Exception;
+    }
+
+    private final ObjectMapper objectMapper;
+    private final SalesforceConnectionCache connectionCache;
+    private final Meter.MeterProvider<Counter> completedCounter;
+    private final Meter.MeterProvider<Counter> rejectedCounter;
+    private final int maxQueued;
+    private final int maxActivePerOrg;
+    private final int maxJobs;
+    private final Duration resultTtl;
+    private final Path storeFile;
+    private final ThreadPoolExecutor workers;
+
+    private final ConcurrentHashMap<String, Job> jobs = new ConcurrentHashMap<>();
+    // Jobs queued or running per org
+    private final ConcurrentHashMap<String, Integer> activeJobsByOrg = new ConcurrentHashMap<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicLong sequence = new AtomicLong();
+    private final Object storeLock = new Object();
+
+    public ActionJobQueue(ObjectMapper objectMapper, SalesforceConnectionCache connectionCache, MeterRegistry registry,
+                          @Value("${action.jobs.workers:4}") int workerCount,
+                          @Value("${action.jobs.max-queued:500}") int maxQueued,
+                          @Value("${action.jobs.max-active-per-org:20}") int maxActivePerOrg,
+                          @Value("${action.jobs.max-jobs:10000}") int maxJobs,
+                          @Value("${action.jobs.result-ttl:PT1H}") Duration resultTtl,
+                          @Value("${action.jobs.store-file:}") String storeFile) {
+        this.objectMapper = objectMapper;
+        this.connectionCache = connectionCache;
+        this.completedCounter = Counter.builder("action.jobs.completed")
+                .description("Asynchronous action jobs that finished, by action and status")
+                .withRegistry(registry);
+        this.rejectedCounter = Counter.builder("action.jobs.rejected")
+                .description("Asynchronous action jobs refused because the queue, the org or the store was full")
+                .withRegistry(registry);
+        this.maxQueued = maxQueued;
+        this.maxActivePerOrg = maxActivePerOrg;
+        this.maxJobs = maxJobs;
+        this.resultTtl = resultTtl;
+        this.storeFile = storeFile.isBlank() ? null : Path.of(storeFile);
+        // Jobs mostly wait on Salesforce, so the workers are virtual threads; their number still bounds how many run
+        this.workers = new ThreadPoolExecutor(workerCount, workerCount, 60, TimeUnit.SECONDS, new PriorityBlockingQueue<>(),
+                Thread.ofVirtual().name("action-job-", 1).factory());
+        this.workers.allowCoreThreadTimeOut(true);
+        Gauge.builder("action.jobs.queued", queued, AtomicInteger::get)
+                .description("Asynchronous action jobs waiting for a worker")
+                .register(registry);
+        Gauge.builder("action.jobs.running", running, AtomicInteger::get)
+                .description("Asynchronous action jobs being run")
+                .register(registry);
+        Gauge.builder("action.jobs.stored", jobs, Map::size)
+                .description("Asynchronous action jobs kept for polling, finished or not")
+                .register(registry);
+        if (this.storeFile != null) {
+            load();
+        }
+    }
+
+    /**
+     * Queues a job for the caller's org and user and returns it straight away, or refuses it with 429 when the org
+     * already has too many jobs and 503 when the queue or the job store is full.
+     */
+    public Job submit(String action, SalesforceUserContext userContext, Priority priority, JobBody body) {
+        if (jobs.size() >= maxJobs) {
+            throw reject("store", HttpStatus.SERVICE_UNAVAILABLE, "Too many jobs are waiting to be collected, try again later.");
+        }
+        if (queued.incrementAndGet() > maxQueued) {
+            queued.decrementAndGet();
+            throw reject("queue", HttpStatus.SERVICE_UNAVAILABLE, "The job queue is full, try again later.");
+        }
+        String orgId = userContext.getOrgId();
+        if (activeJobsByOrg.merge(orgId, 1, Integer::sum) > maxActivePerOrg) {
+            queued.decrementAndGet();
+            releaseOrgSlot(orgId);
+            throw reject("org-limit", HttpStatus.TOO_MANY_REQUESTS, "Too many jobs queued or running for this org.");
+        }
+        Job job = new Job(UUID.randomUUID().toString(), action, priority, orgId, userContext.getUserId(), Instant.now());
+        jobs.put(job.id, job);
+        persist(job);
+        try {
+            workers.execute(new QueuedJob(job, userContext, body, sequence.getAndIncrement()));
+        } catch (RejectedExecutionException e) {
+            queued.decrementAndGet();
+            releaseOrgSlot(orgId);
+            job.finish(Status.FAILED, null, HttpStatus.SERVICE_UNAVAILABLE.value(), "The app is shutting down.");
+            persist(job);
+        }
+        logger.debug("Queued {} job {} for org {} at {} priority", action, job.id, orgId, priority);
+        return job;
+    }
+
+    /**
+     * The job with the given ID if it was submitted by the same org and user and has not expired, otherwise null.
+     */
+    public Job get(String jobId, SalesforceUserContext userContext) {
+        Job job = jobs.get(jobId);
+        if (job == null || !job.orgId.equals(userContext.getOrgId()) || !job.userId.equals(userContext.getUserId())
+                || job.isExpired(Instant.now(), resultTtl)) {
+            return null;
+        }
+        return job;
+    }
+
+    /**
+     * When a finished job will be dropped, or null while it is still queued or running.
+     */
+    public Instant expiresAt(Job job) {
+        Instant completedAt = job.completedAt;
+        return completedAt != null ? completedAt.plus(resultTtl) : null;
+    }
+
+    @Scheduled(fixedDelayString = "${action.jobs.sweep-interval:PT1M}")
+    public void evictExpired() {
+        Instant now = Instant.now();
+        int evicted = 0;
+        Iterator<Job> iterator = jobs.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().isExpired(now, resultTtl)) {
+                iterator.remove();
+                evicted++;
+            }
+        }
+        if (evicted > 0) {
+            logger.debug("Evicted {} expired action jobs", evicted);
+            compact();
+        }
+    }
+
+    @Override
+    public void destroy() {
+        workers.shutdownNow();
+    }
+
+    private void run(QueuedJob queuedJob) {
+        Job job = queuedJob.job;
+        queued.decrementAndGet();
+        running.incrementAndGet();
+        job.start();
+        persist(job);
+        try {
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            queuedJob.body.writeResult(result);
+            job.finish(Status.SUCCEEDED, result.toString(StandardCharsets.UTF_8), 0, null);
+        } catch (ResponseStatusException e) {
+            if (e.getStatusCode().is5xxServerError()) {
+                logger.warn("{} job {} for org {} failed: {}", job.action, job.id, job.orgId, e.getReason(), e);
+            }
+            connectionCache.invalidateIfSessionInvalid(queuedJob.userContext, e);
+            job.finish(Status.FAILED, null, e.getStatusCode().value(), e.getReason());
+        } catch (Exception e) {
+            logger.error("{} job {} for org {} failed", job.action, job.id, job.orgId, e);
+            job.finish(Status.FAILED, null, HttpStatus.INTERNAL_SERVER_ERROR.value(), "An unexpected error occurred.");
+        } finally {
+            if (!job.status.isDone()) {
+                job.finish(Status.FAILED, null, HttpStatus.INTERNAL_SERVER_ERROR.value(), "An unexpected error occurred.");
+            }
+            running.decrementAndGet();
+            releaseOrgSlot(job.orgId);
+            completedCounter.withTags("action", job.action, "status", job.status.name()).increment();
+            persist(job);
+        }
+    }
+
+    private ResponseStatusException reject(String reason, HttpStatus status, String message) {
+        rejectedCounter.withTags("reason", reason).increment();
+        return new ResponseStatusException(status, message);
+    }
+
+    private void releaseOrgSlot(String orgId) {
+        activeJobsByOrg.computeIfPresent(orgId, (key, active) -> active > 1 ? active - 1 : null);
+    }
+
+    // Appends the job's current state; the last line of a job wins when the file is read back
+    private void persist(Job job) {
+        if (storeFile == null) {
+            return;
+        }
+        synchronized (storeLock) {
+            try {
+                Files.writeString(storeFile, objectMapper.writeValueAsString(job.stored()) + "\n", StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            } catch (IOException e) {
+                logger.warn("Failed to write job {} to {}", job.id, storeFile, e);
+            }
+        }
+    }
+
+    // Rewrites the file with one line per job still kept, so it does not grow with every job ever run
+    private void compact() {
+        if (storeFile == null) {
+            return;
+        }
+        synchronized (storeLock) {
+            try {
+                List<String> lines = new ArrayList<>(jobs.size());
+                for (Job job : jobs.values()) {
+                    lines.add(objectMapper.writeValueAsString(job.stored()));
+                }
+                Path temporary = storeFile.resolveSibling(storeFile.getFileName() + ".tmp");
+                Files.write(temporary, lines, StandardCharsets.UTF_8);
+                Files.move(temporary, storeFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                logger.warn("Failed to compact job store {}", storeFile, e);
+            }
+        }
+    }
+
+    private void load() {
+        if (!Files.exists(storeFile)) {
+            return;
+        }
+        Map<String, StoredJob> storedJobs = new LinkedHashMap<>();
+        try {
+            for (String line : Files.readAllLines(storeFile, StandardCharsets.UTF_8)) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                try {
+                    StoredJob stored = objectMapper.readValue(line, StoredJob.class);
+                    storedJobs.put(stored.id(), stored);
+                } catch (IOException e) {
+                    // A line cut short when the app stopped mid-write
+                    logger.warn("Skipping unreadable line in job store {}", storeFile);
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to read job store {}, starting with no jobs", storeFile, e);
+            return;
+        }
+        Instant now = Instant.now();
+        for (StoredJob stored : storedJobs.values()) {
+            Job job = Job.restore(stored);
+            if (!job.status.isDone()) {
+                job.finish(Status.FAILED, null, HttpStatus.SERVICE_UNAVAILABLE.value(),
+                        "The app restarted before the job completed, submit it again.");
+            }
+            if (!job.isExpired(now, resultTtl)) {
+                jobs.put(job.id, job);
+            }
+        }
+        logger.info("Loaded {} action jobs from {}", jobs.size(), storeFile);
+        compact();
+    }
+
+    /**
+     * One submitted job. Its status and outcome change as a worker runs it.
+     */
+    public static final class Job {
+
+        private final String id;
+        private final String action;
+        private final Priority priority;
+        private final String orgId;
+        private final String userId;
+        private final Instant submittedAt;
+        private volatile Status status = Status.QUEUED;
+        private volatile Instant startedAt;
+        private volatile Instant completedAt;
+        private volatile String result;
+        private volatile int errorStatus;
+        private volatile String errorMessage;
+
+        private Job(String id, String action, Priority priority, String orgId, String userId, Instant submittedAt) {
+            this.id = id;
+            this.action = action;
+            this.priority = priority;
+            this.orgId = orgId;
+            this.userId = userId;
+            this.submittedAt = submittedAt;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getAction() {
+            return action;
+        }
+
+        public Priority getPriority() {
+            return priority;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        public Instant getSubmittedAt() {
+            return submittedAt;
+        }
+
+        public Instant getStartedAt() {
+            return startedAt;
+        }
+
+        public Instant getCompletedAt() {
+            return completedAt;
+        }
+
+        /**
+         * The JSON response of a succeeded job.
+         */
+        public String getResult() {
+            return result;
+        }
+
+        /**
+         * The HTTP status the action would have failed with, or 0 unless the job failed.
+         */
+        public int getErrorStatus() {
+            return errorStatus;
+        }
+
+        public String getErrorMessage() {
+            return errorMessage;
+        }
+
+        private void start() {
+            startedAt = Instant.now();
+            status = Status.RUNNING;
+        }
+
+        // The outcome is set before the status, so a reader that sees a finished status also sees its outcome
+        private void finish(Status finalStatus, String result, int errorStatus, String errorMessage) {
+            this.result = result;
+            this.errorStatus = errorStatus;
+            this.errorMessage = errorMessage;
+            this.completedAt = Instant.now();
+            this.status = finalStatus;
+        }
+
+        private boolean isExpired(Instant now, Duration resultTtl) {
+            Instant completed = completedAt;
+            return status.isDone() && completed != null && completed.plus(resultTtl).isBefore(now);
+        }
+
+        private StoredJob stored() {
+            return new StoredJob(id, action, priority, orgId, userId, status, submittedAt.toEpochMilli(),
+                    startedAt != null ? startedAt.toEpochMilli() : null, completedAt != null ? completedAt.toEpochMilli() : null,
+                    result, errorStatus, errorMessage);
+        }
+
+        private static Job restore(StoredJob stored) {
+            Job job = new Job(stored.id(), stored.action(), stored.priority(), stored.orgId(), stored.userId(),
+                    Instant.ofEpochMilli(stored.submittedAt()));
+            job.startedAt = stored.startedAt() != null ? Instant.ofEpochMilli(stored.startedAt()) : null;
+            job.completedAt = stored.completedAt() != null ? Instant.ofEpochMilli(stored.completedAt()) : null;
+            job.result = stored.result();
+            job.errorStatus = stored.errorStatus();
+            job.errorMessage = stored.errorMessage();
+            job.status = stored.status();
+            return job;
+        }
+    }
+
+    // A line of the job store file; times in epoch milliseconds
+    private record StoredJob(String id, String action, Priority priority, String orgId, String userId, Status status,
+                             long submittedAt, Long startedAt, Long completedAt, String result, int errorStatus,
+                             String errorMessage) {
+    }
+
+    // Ordered for the worker queue by priority, then by submission
+    private final class QueuedJob implements Runnable, Comparable<QueuedJob> {
+        private final Job job;
+        private final SalesforceUserContext userContext;
+        private final JobBody body;
+        private final long sequence;
+
+        private QueuedJob(Job job, SalesforceUserContext userContext, JobBody body, long sequence) {
+            this.job = job;
+            this.userContext = userContext;
+            this.body = body;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            ActionJobQueue.this.run(this);
+        }
+
+        @Override
+        public int compareTo(QueuedJob other) {
+            int byPriority = job.priority.compareTo(other.job.priority);
+            return byPriority != 0 ? byPriority : Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package com.heroku.java.config;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.sforce.soap.partner.sobject.SObject;
+import com.sforce.ws.ConnectionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Runs a SOQL query as a Bulk API 2.0 query job, for row scans too large to page through 2,000 records at a time.
+ * The job runs asynchronously in the org; once it completes, its CSV results are downloaded in pages of
+ * {@code salesforce.bulk.page-size} records and parsed as they stream in, so no page is held in memory.
+ * <p>
+ * Bulk queries do not support aggregate functions or subqueries, so this is only used for plain field scans.
+ * <p>
+ * Unlike the other reads, jobs do not go through {@link SalesforceCallGuard}. They are bounded by
+ * {@code salesforce.bulk.timeout} rather than the much shorter per-call deadline. They are not retried, because
+ * records already passed to the handler cannot be taken back. They are not hedged either, since a duplicate job
+ * would double the org's bulk usage. The guarded query that decides to start a job still fails fast while the
+ * org's calls are suspended.
+ */
+@Component
+public class BulkQueryClient {
+
+    private static final Logger logger = LoggerFactory.getLogger(BulkQueryClient.class);
+
+    private static final Duration MAX_POLL_INTERVAL = Duration.ofSeconds(5);
+
+    private final SalesforceHttpClient http;
+    private final Duration pollInterval;
+    private final Duration timeout;
+    private final int pageSize;
+
+    public BulkQueryClient(SalesforceHttpClient http,
+                           @Value("${salesforce.bulk.poll-interval:PT0.5S}") Duration pollInterval,
+                           @Value("${salesforce.bulk.timeout:PT2M}") Duration timeout,
+                           @Value("${salesforce.bulk.page-size:50000}") int pageSize) {
+        this.http = http;
+        this.pollInterval = pollInterval;
+        this.timeout = timeout;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Runs the query as a bulk job and passes every record to the handler, returning the number of records read.
+     */
+    public long scan(SalesforceUserContext userContext, String soql, Consumer<SObject> handler) throws ConnectionException {
+        String sobjectType = TimedPartnerConnection.sobjectOf(soql);
+        String jobsPath = http.dataPath(userContext) + "/jobs/query";
+        long start = System.nanoTime();
+        String jobId = null;
+        boolean completed = false;
+        try {
+            jobId = http.sendJson(userContext, "POST", jobsPath,
+                    Map.of("operation", "query", "query", soql, "contentType", "CSV", "columnDelimiter", "COMMA", "lineEnding", "LF"))
+                    .path("id").asText();
+            awaitCompletion(userContext, jobsPath + "/" + jobId, start);
+            completed = true;
+
+            long records = 0;
+            String locator = null;
+            do {
+                String resultsPath = jobsPath + "/" + jobId + "/results?maxRecords=" + pageSize + (locator != null ? "&locator=" + locator : "");
+                SalesforceHttpClient.Response response = http.send(userContext, "GET", resultsPath, null, "text/csv");
+                try (Reader csv = new InputStreamReader(response.body(), StandardCharsets.UTF_8)) {
+                    records += readRecords(csv, sobjectType, handler);
+                } catch (IOException e) {
+                    throw new ConnectionException("Could not read bulk query results: " + e, e);
+                }
+                locator = response.headers().firstValue("Sforce-Locator").filter(value -> !value.equals("null")).orElse(null);
+            } while (locator != null);
+            logger.debug("Bulk query job {} returned {} {} records", jobId, records, sobjectType);
+            return records;
+        } finally {
+            if (jobId != null && !completed) {
+                abort(userContext, jobsPath + "/" + jobId);
+            }
+            RequestTimings timings = RequestTimings.current();
+            if (timings != null) {
+                timings.recordQuery(sobjectType, System.nanoTime() - start);
+            }
+        }
+    }
+
+    private void awaitCompletion(SalesforceUserContext userContext, String jobPath, long start) throws ConnectionException {
+        long deadline = start + timeout.toNanos();
+        long sleepMillis = pollInterval.toMillis();
+        while (true) {
+            JsonNode job = http.getJson(userContext, jobPath);
+            String state = job.path("state").asText();
+            switch (state) {
+                case "JobComplete":
+                    return;
+                case "Failed":
+                case "Aborted":
+                    throw SalesforceHttpClient.fault(true, null, "Bulk query job " + state.toLowerCase() + ": " + job.path("errorMessage").asText(""));
+                default:
+                    // UploadComplete or InProgress
+            }
+            if (System.nanoTime() + sleepMillis * 1_000_000 > deadline) {
+                throw new ConnectionException("Bulk query job did not complete within " + timeout);
+            }
+            try {
+                Thread.sleep(sleepMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ConnectionException("Interrupted while waiting for a bulk query job", e);
+            }
+            sleepMillis = Math.min(sleepMillis * 3 / 2, MAX_POLL_INTERVAL.toMillis());
+        }
+    }
+
+    // Best effort, so the job stops using the org's bulk limits once nobody is waiting for it
+    private void abort(SalesforceUserContext userContext, String jobPath) {
+        try {
+            http.sendJson(userContext, "PATCH", jobPath, Map.of("state", "Aborted"));
+        } catch (ConnectionException e) {
+            logger.debug("Could not abort bulk query job {}", jobPath, e);
+        }
+    }
+
+    /**
+     * Parses RFC 4180 CSV with a header row into records of the given type. Bulk API results write null values as
+     * empty fields, so empty fields become null.
+     */
+    static long readRecords(Reader csv, String sobjectType, Consumer<SObject> handler) throws IOException {
+        CsvReader reader = new CsvReader(csv);
+        List<String> header = reader.readRow();
+        if (header == null) {
+            return 0;
+        }
+        long records = 0;
+        for (List<String> row = reader.readRow(); row != null; row = reader.readRow()) {
+            SObject record = new SObject();
+            record.setType(sobjectType);
+            for (int i = 0; i < header.size(); i++) {
+                String value = i < row.size() ? row.get(i) : "";
+                String name = header.get(i);
+                if (name.equals("Id") && !value.isEmpty()) {
+                    record.setId(value);
+                } else {
+                    record.setField(name, value.isEmpty() ? null : value);
+                }
+            }
+            handler.accept(record);
+            records++;
+        }
+        return records;
+    }
+
+    private static final class CsvReader {
+
+        private final Reader reader;
+        private final char[] buffer = new char[8192];
+        private final StringBuilder field = new StringBuilder();
+        private int position;
+        private int limit;
+
+        CsvReader(Reader reader) {
+            this.reader = reader;
+        }
+
+        /**
+         * The next row's fields, or null at the end of the input. Quoted fields may contain commas, doubled quotes
+         * and line breaks.
+         */
+        List<String> readRow() throws IOException {
+            int c = read();
+            if (c == -1) {
+                return null;
+            }
+            List<String> row = new ArrayList<>();
+            boolean quoted = false;
+            field.setLength(0);
+            while (true) {
+                if (quoted) {
+                    if (c == -1) {
+                        throw new IOException("Unterminated quoted field in bulk query results");
+                    } else if (c == '"') {
+                        int next = read();
+                        if (next == '"') {
+                            field.append('"');
+                        } else {
+                            quoted = false;
+                            c = next;
+                            continue;
+                        }
+                    } else {
+                        field.append((char) c);
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == ',') {
+                    row.add(field.toString());
+                    field.setLength(0);
+                } else if (c == '\n' || c == -1) {
+                    row.add(field.toString());
+                    return row;
+                } else if (c != '\r') {
+                    field.append((char) c);
+                }
+                c = read();
+            }
+        }
+
+        private int read() throws IOException {
+            if (position == limit) {
+                limit = reader.read(buffer, 0, buffer.length);
+                position = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    return -1;
+                }
+            }
+            return buffer[position++];
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.heroku.java.config;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.Base64;
+import java.util.Map;
+
+/**
+ * Decodes the base64 x-client-context header into a {@link SalesforceUserContext}. The decoded bytes are streamed
+ * through a shared Jackson parser straight into the context fields, no intermediate String or JsonNode tree is built.
+ * Agentforce sends the same header many times within a session, so recently decoded headers are kept in a small LRU.
+ */
+@Component
+public class ClientContextDecoder {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final int cacheSize;
+    private final Map<String, SalesforceUserContext> recentContexts;
+
+    @Autowired
+    public ClientContextDecoder(@Value("${salesforce.client-context.cache-size:128}") int cacheSize) {
+        this.cacheSize = cacheSize;
+        this.recentContexts = new LruMap<>(cacheSize);
+    }
+
+    /**
+     * Returns the user context for the given raw header value.
+     *
+     * @throws IllegalArgumentException if the header is not valid base64 or misses a required field
+     * @throws IOException if the decoded header is not valid JSON
+     */
+    public SalesforceUserContext decode(String encodedClientContext) throws IOException {
+        if (cacheSize <= 0) {
+            return parse(encodedClientContext);
+        }
+        SalesforceUserContext userContext;
+        synchronized (recentContexts) {
+            userContext = recentContexts.get(encodedClientContext);
+        }
+        if (userContext == null) {
+            userContext = parse(encodedClientContext);
+            synchronized (recentContexts) {
+                recentContexts.put(encodedClientContext, userContext);
+            }
+        }
+        return userContext;
+    }
+
+    private static SalesforceUserContext parse(String encodedClientContext) throws IOException {
+        byte[] json = Base64.getDecoder().decode(encodedClientContext);
+        String accessToken = null, apiVersion = null, requestId = null, namespace = null;
+        String orgId = null, orgDomainUrl = null, userId = null, username = null;
+        try (JsonParser parser = JSON_FACTORY.createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IllegalArgumentException("Client context is not a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if ("userContext".equals(field) && value == JsonToken.START_OBJECT) {
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String userField = parser.currentName();
+                        parser.nextToken();
+                        switch (userField) {
+                            case "userId" -> userId = parser.getValueAsString();
+                            case "username" -> username = parser.getValueAsString();
+                            default -> parser.skipChildren();
+                        }
+                    }
+                    continue;
+                }
+                switch (field) {
+                    case "accessToken" -> accessToken = parser.getValueAsString();
+                    case "apiVersion" -> apiVersion = parser.getValueAsString();
+                    case "requestId" -> requestId = parser.getValueAsString();
+                    case "namespace" -> namespace = parser.getValueAsString();
+                    case "orgId" -> orgId = parser.getValueAsString();
+                    case "orgDomainUrl" -> orgDomainUrl = parser.getValueAsString();
+                    default -> parser.skipChildren();
+                }
+            }
+        }
+        if (accessToken == null || apiVersion == null || orgId == null || orgDomainUrl == null || userId == null || username == null) {
+            throw new IllegalArgumentException("Missing required fields in client context");
+        }
+        return new SalesforceUserContext(accessToken, apiVersion, requestId, namespace, orgId, orgDomainUrl, userId, username);
+    }
+}
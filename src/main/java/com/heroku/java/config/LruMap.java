@@ -0,0 +1,53 @@
+package com.heroku.java.config;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * A map of at most maxSize entries that forgets the least recently used ones first, reads counting as use. Entries
+ * the evictable test refuses are kept however long ago they were used, and every entry removed to make room is
+ * handed to onEvict. Not thread safe, callers guard it with their own lock.
+ */
+final class LruMap<K, V> extends LinkedHashMap<K, V> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int maxSize;
+    private final transient Predicate<? super V> evictable;
+    private final transient Consumer<? super V> onEvict;
+
+    LruMap(int maxSize) {
+        this(maxSize, value -> true, value -> { });
+    }
+
+    LruMap(int maxSize, Consumer<? super V> onEvict) {
+        this(maxSize, value -> true, onEvict);
+    }
+
+    LruMap(int maxSize, Predicate<? super V> evictable, Consumer<? super V> onEvict) {
+        // Access ordered so the eldest entry is always the least recently used one
+        super(16, 0.75f, true);
+        this.maxSize = maxSize;
+        this.evictable = evictable;
+        this.onEvict = onEvict;
+    }
+
+    // Runs after every insertion. Entries are removed here rather than through the return value so ones that may not
+    // be evicted can be skipped; the entry just inserted is the most recently used and never a candidate.
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+        int candidates = size() - 1;
+        Iterator<V> values = values().iterator();
+        while (size() > maxSize && candidates-- > 0) {
+            V value = values.next();
+            if (evictable.test(value)) {
+                values.remove();
+                onEvict.accept(value);
+            }
+        }
+        return false;
+    }
+}
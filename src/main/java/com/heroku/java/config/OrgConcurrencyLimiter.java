@@ -0,0 +1,273 @@
+package com.heroku.java.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Per-org bulkheads in front of the action endpoints, so one busy org cannot hold every request thread on slow SOQL
+ * calls and starve the others. Each org gets a concurrency limit that adapts to its observed SOQL latency with a
+ * gradient limiter: while the recent average query time stays close to the long term average the limit grows by
+ * about its square root, and as queries slow down (Salesforce, or the connections to it, queueing work) the limit
+ * shrinks in proportion. A global cap on requests in flight across all orgs backs the per-org limits.
+ * <p>
+ * Requests over their org's limit are rejected with 429, requests over the global cap with 503, both straight away
+ * rather than queued. Requests that ran no SOQL, such as record cache hits, leave the limit unchanged.
+ */
+@Component
+public class OrgConcurrencyLimiter {
+
+    public enum Rejection {
+        ORG_LIMIT(HttpStatus.TOO_MANY_REQUESTS, "org-limit", "Too many concurrent requests for this org."),
+        CAPACITY(HttpStatus.SERVICE_UNAVAILABLE, "capacity", "Too many concurrent requests.");
+
+        private final HttpStatus status;
+        private final String tagValue;
+        private final String message;
+
+        Rejection(HttpStatus status, String tagValue, String message) {
+            this.status = status;
+            this.tagValue = tagValue;
+            this.message = message;
+        }
+
+        public HttpStatus status() {
+            return status;
+        }
+
+        public String message() {
+            return message;
+        }
+    }
+
+    // Averaging windows of the recent and long term SOQL latency, in requests
+    private static final int SHORT_WINDOW = 10;
+    private static final int LONG_WINDOW = 600;
+
+    private final MeterRegistry registry;
+    private final Meter.MeterProvider<Counter> rejectedCounter;
+    private final boolean tagOrgId;
+    private final boolean enabled;
+    private final int maxInFlight;
+    private final int initialLimit;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double rttTolerance;
+    private final double smoothing;
+    private final Duration retryAfter;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    // Least recently seen orgs are forgotten first, but never one with requests still holding its slots
+    private final LruMap<String, OrgLimit> orgLimits;
+
+    public OrgConcurrencyLimiter(MeterRegistry registry,
+                                 @Value("${action.metrics.tag-org-id:true}") boolean tagOrgId,
+                                 @Value("${action.concurrency.enabled:true}") boolean enabled,
+                                 @Value("${action.concurrency.max-in-flight:200}") int maxInFlight,
+                                 @Value("${action.concurrency.initial-limit:20}") int initialLimit,
+                                 @Value("${action.concurrency.min-limit:4}") int minLimit,
+                                 @Value("${action.concurrency.max-limit:100}") int maxLimit,
+                                 @Value("${action.concurrency.rtt-tolerance:1.5}") double rttTolerance,
+                                 @Value("${action.concurrency.smoothing:0.2}") double smoothing,
+                                 @Value("${action.concurrency.max-orgs:256}") int maxOrgs,
+                                 @Value("${action.concurrency.retry-after:PT1S}") Duration retryAfter) {
+        this.registry = registry;
+        this.rejectedCounter = Counter.builder("action.concurrency.rejected")
+                .description("Requests shed because their org or the app was at its concurrency limit")
+                .withRegistry(registry);
+        this.tagOrgId = tagOrgId;
+        this.enabled = enabled;
+        this.maxInFlight = maxInFlight;
+        this.initialLimit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.rttTolerance = rttTolerance;
+        this.smoothing = smoothing;
+        this.retryAfter = retryAfter;
+        this.orgLimits = new LruMap<>(maxOrgs, orgLimit -> orgLimit.inFlight.get() == 0,
+                orgLimit -> orgLimit.meters.forEach(registry::remove));
+        Gauge.builder("action.concurrency.in-flight", inFlight, AtomicInteger::get)
+                .description("Action requests in flight across all orgs")
+                .register(registry);
+    }
+
+    /**
+     * Takes a slot for a request of the given org, or reports why there is none. Granted permits must be released
+     * once the request completes.
+     */
+    public Permit tryAcquire(String orgId) {
+        if (!enabled) {
+            return Permit.UNLIMITED;
+        }
+        if (inFlight.incrementAndGet() > maxInFlight) {
+            inFlight.decrementAndGet();
+            return reject(Rejection.CAPACITY, orgId);
+        }
+        OrgLimit orgLimit = acquireOrgSlot(orgId);
+        if (orgLimit == null) {
+            inFlight.decrementAndGet();
+            return reject(Rejection.ORG_LIMIT, orgId);
+        }
+        return new Permit(this, orgLimit, null);
+    }
+
+    /**
+     * Seconds a rejected client should wait before retrying, for the {@code Retry-After} header.
+     */
+    public long getRetryAfterSeconds() {
+        return Math.max(1, (retryAfter.toMillis() + 999) / 1000);
+    }
+
+    private Permit reject(Rejection rejection, String orgId) {
+        Tags tags = Tags.of("reason", rejection.tagValue);
+        if (tagOrgId) {
+            tags = tags.and("orgId", orgId);
+        }
+        rejectedCounter.withTags(tags).increment();
+        return new Permit(this, null, rejection);
+    }
+
+    // The org's limit with one of its slots taken, or null if none is free. The slot is taken under the lock, as an
+    // org that was only looked up could otherwise be evicted as idle before its request counts as in flight.
+    private OrgLimit acquireOrgSlot(String orgId) {
+        synchronized (orgLimits) {
+            OrgLimit orgLimit = orgLimits.get(orgId);
+            if (orgLimit == null) {
+                orgLimit = new OrgLimit(initialLimit);
+                if (tagOrgId) {
+                    orgLimit.meters = List.of(
+                            Gauge.builder("action.concurrency.limit", orgLimit, limit -> limit.currentLimit)
+                                    .description("Current adaptive concurrency limit of the org")
+                                    .tag("orgId", orgId)
+                                    .register(registry),
+                            Gauge.builder("action.concurrency.org.in-flight", orgLimit, limit -> limit.inFlight.get())
+                                    .description("Action requests of the org in flight")
+                                    .tag("orgId", orgId)
+                                    .register(registry));
+                }
+                orgLimits.put(orgId, orgLimit);
+            }
+            return orgLimit.tryAcquire() ? orgLimit : null;
+        }
+    }
+
+    // Average time of the SOQL calls the request made, or 0 if it made none
+    private static long averageQueryNanos(RequestTimings timings) {
+        if (timings == null) {
+            return 0;
+        }
+        long total = 0;
+        int count = 0;
+        for (RequestTimings.Sample sample : timings.samples()) {
+            if (sample.stage() == RequestTimings.Stage.SOQL) {
+                total += sample.nanos();
+                count++;
+            }
+        }
+        return count > 0 ? total / count : 0;
+    }
+
+    /**
+     * A slot taken by one request, or the reason it was refused.
+     */
+    public static final class Permit {
+
+        private static final Permit UNLIMITED = new Permit(null, null, null);
+
+        private final OrgConcurrencyLimiter limiter;
+        private final OrgLimit orgLimit;
+        private final Rejection rejection;
+
+        private Permit(OrgConcurrencyLimiter limiter, OrgLimit orgLimit, Rejection rejection) {
+            this.limiter = limiter;
+            this.orgLimit = orgLimit;
+            this.rejection = rejection;
+        }
+
+        public boolean isGranted() {
+            return rejection == null;
+        }
+
+        /**
+         * Why the request was refused, or null if it was granted.
+         */
+        public Rejection getRejection() {
+            return rejection;
+        }
+
+        /**
+         * Frees the slot and feeds the SOQL latency the request observed into its org's limit.
+         */
+        public void release(RequestTimings timings) {
+            if (orgLimit == null) {
+                return;
+            }
+            limiter.inFlight.decrementAndGet();
+            int orgInFlight = orgLimit.inFlight.getAndDecrement();
+            long queryNanos = averageQueryNanos(timings);
+            if (queryNanos > 0) {
+                orgLimit.update(queryNanos, orgInFlight, limiter);
+            }
+        }
+    }
+
+    private static final class OrgLimit {
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private volatile int currentLimit;
+        private List<Meter> meters = List.of();
+        // Guarded by this
+        private double limit;
+        private double shortRttNanos;
+        private double longRttNanos;
+        private long samples;
+
+        private OrgLimit(int initialLimit) {
+            this.limit = initialLimit;
+            this.currentLimit = initialLimit;
+        }
+
+        private boolean tryAcquire() {
+            while (true) {
+                int current = inFlight.get();
+                if (current >= currentLimit) {
+                    return false;
+                }
+                if (inFlight.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        private synchronized void update(long rttNanos, int inFlightAtCompletion, OrgConcurrencyLimiter limiter) {
+            samples++;
+            if (samples == 1) {
+                shortRttNanos = rttNanos;
+                longRttNanos = rttNanos;
+                return;
+            }
+            shortRttNanos += (rttNanos - shortRttNanos) / Math.min(samples, SHORT_WINDOW);
+            longRttNanos += (rttNanos - longRttNanos) / Math.min(samples, LONG_WINDOW);
+            // Once a slow spell is over, pull the long term average down quickly rather than over hundreds of samples
+            if (longRttNanos > 2 * shortRttNanos) {
+                longRttNanos *= 0.95;
+            }
+            // An org using less than half its limit says nothing about whether it could use more
+            if (inFlightAtCompletion < limit / 2) {
+                return;
+            }
+            double gradient = Math.max(0.5, Math.min(1.0, limiter.rttTolerance * longRttNanos / shortRttNanos));
+            double target = limit * gradient + Math.sqrt(limit);
+            limit = Math.max(limiter.minLimit, Math.min(limiter.maxLimit, limit * (1 - limiter.smoothing) + target * limiter.smoothing));
+            currentLimit = (int) limit;
+        }
+    }
+}
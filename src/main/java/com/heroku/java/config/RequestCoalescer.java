@@ -0,0 +1,93 @@
+package com.heroku.java.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Single-flight execution of identical concurrent action invocations, such as an agent retrying a call that is still
+ * running. The first request runs; requests that arrive while it is in flight with the same normalized arguments
+ * wait for it and return the same response, or rethrow the same exception, without querying Salesforce again. Once
+ * the first request completes the next identical one runs afresh, so nothing is cached.
+ * <p>
+ * Requests are only shared within one user's session, for the same reason as {@link SalesforceRecordCache}: the
+ * client context header is only vouched for by Salesforce when a query runs. Shared requests are counted by the
+ * {@code action.request.coalesced} metric, and their wait is reported as blocked time rather than compute.
+ */
+@Component
+public class RequestCoalescer {
+
+    private final Meter.MeterProvider<Counter> coalescedCounter;
+    private final boolean enabled;
+    private final ConcurrentHashMap<Key, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+
+    private record Key(String endpoint, String orgId, String userId, String accessToken, String arguments) {
+    }
+
+    public RequestCoalescer(MeterRegistry registry, @Value("${action.coalescing.enabled:true}") boolean enabled) {
+        this.coalescedCounter = Counter.builder("action.request.coalesced")
+                .description("Requests answered by an identical request already in flight")
+                .withRegistry(registry);
+        this.enabled = enabled;
+    }
+
+    /**
+     * Runs the call, or waits for the identical call already running for the same session and endpoint. The
+     * arguments must identify everything the response depends on.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(String endpoint, SalesforceUserContext userContext, String arguments, Supplier<T> call) {
+        if (!enabled) {
+            return call.get();
+        }
+        Key key = new Key(endpoint, userContext.getOrgId(), userContext.getUserId(), userContext.getAccessToken(), arguments);
+        CompletableFuture<Object> execution = new CompletableFuture<>();
+        CompletableFuture<Object> running = inFlight.putIfAbsent(key, execution);
+        if (running != null) {
+            coalescedCounter.withTags("endpoint", endpoint).increment();
+            return (T) await(running);
+        }
+        try {
+            T result = call.get();
+            execution.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            execution.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, execution);
+        }
+    }
+
+    // No timeout of its own: the running request is bounded by the Salesforce query timeout
+    private static Object await(CompletableFuture<Object> running) {
+        long waitStart = System.nanoTime();
+        try {
+            return running.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            } else if (e.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Interrupted while waiting for an identical request.", e);
+        } finally {
+            RequestTimings timings = RequestTimings.current();
+            if (timings != null) {
+                timings.addBlocked(System.nanoTime() - waitStart);
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.heroku.java.config;
+
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records {@link RequestTimings} as the {@code action.request.stage} timer, tagged by stage, endpoint, orgId and
+ * SOQL object, and renders them as a {@code Server-Timing} header when that is enabled for debugging. Histogram
+ * buckets are configured through {@code management.metrics.distribution.*} like any other Micrometer timer.
+ * <p>
+ * Timers tagged with an orgId are kept for the {@code action.metrics.max-orgs} most recently seen orgs only, the
+ * series of the least recently seen org are removed from the registry when another org arrives, so the scrape stays
+ * bounded however many orgs call the app.
+ */
+@Component
+public class RequestStageMetrics {
+
+    static final String METER_NAME = "action.request.stage";
+
+    private static final String NONE = "none";
+
+    private final Meter.MeterProvider<Timer> stageTimer;
+    private final boolean tagOrgId;
+    private final boolean serverTimingHeader;
+
+    // The timers of the least recently seen org are removed from the registry as it is forgotten
+    private final LruMap<String, Set<Timer>> timersByOrg;
+
+    public RequestStageMetrics(MeterRegistry registry,
+                               @Value("${action.metrics.tag-org-id:true}") boolean tagOrgId,
+                               @Value("${action.metrics.max-orgs:256}") int maxOrgs,
+                               @Value("${action.metrics.server-timing-header:false}") boolean serverTimingHeader) {
+        this.stageTimer = Timer.builder(METER_NAME)
+                .description("Time spent in each stage of an action request")
+                .withRegistry(registry);
+        this.tagOrgId = tagOrgId;
+        this.timersByOrg = new LruMap<>(maxOrgs, timers -> timers.forEach(registry::remove));
+        this.serverTimingHeader = serverTimingHeader;
+    }
+
+    public RequestTimings begin() {
+        return RequestTimings.begin();
+    }
+
+    /**
+     * Records every buffered stage under the endpoint the request was mapped to and unbinds the timings.
+     */
+    public void end(RequestTimings timings, HttpServletRequest request) {
+        timings.end();
+        Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        Tags tags = Tags.of("endpoint", pattern != null ? pattern.toString() : "UNKNOWN");
+        List<RequestTimings.Sample> samples = timings.samples();
+        if (!tagOrgId) {
+            for (RequestTimings.Sample sample : samples) {
+                timer(tags, sample).record(sample.nanos(), TimeUnit.NANOSECONDS);
+            }
+            return;
+        }
+        String orgId = timings.getOrgId() != null ? timings.getOrgId() : NONE;
+        tags = tags.and("orgId", orgId);
+        List<Timer> timers = new ArrayList<>(samples.size());
+        // Timers are looked up under the lock, one created for an org that is evicted at the same time would never
+        // be removed. A sample recorded while its org is evicted is lost with the org's other series.
+        synchronized (timersByOrg) {
+            Set<Timer> orgTimers = timersByOrg.get(orgId);
+            if (orgTimers == null) {
+                orgTimers = new HashSet<>();
+                timersByOrg.put(orgId, orgTimers);
+            }
+            for (RequestTimings.Sample sample : samples) {
+                Timer timer = timer(tags, sample);
+                orgTimers.add(timer);
+                timers.add(timer);
+            }
+        }
+        for (int i = 0; i < samples.size(); i++) {
+            timers.get(i).record(samples.get(i).nanos(), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private Timer timer(Tags tags, RequestTimings.Sample sample) {
+        return stageTimer.withTags(tags.and("stage", sample.stage().tagValue(),
+                "sobject", sample.sobject() != null ? sample.sobject() : NONE));
+    }
+
+    public boolean isServerTimingHeaderEnabled() {
+        return serverTimingHeader;
+    }
+
+    /**
+     * Stages recorded so far in Server-Timing syntax, summed per stage and SOQL object, in milliseconds.
+     */
+    public String serverTiming(RequestTimings timings) {
+        Map<String, Long> totals = new LinkedHashMap<>();
+        for (RequestTimings.Sample sample : timings.samples()) {
+            String name = sample.stage().tagValue() + (sample.sobject() != null ? ";desc=\"" + sample.sobject() + "\"" : "");
+            totals.merge(name, sample.nanos(), Long::sum);
+        }
+        StringBuilder header = new StringBuilder();
+        totals.forEach((name, nanos) -> {
+            if (header.length() > 0) {
+                header.append(", ");
+            }
+            header.append(name).append(";dur=").append(String.format(Locale.ROOT, "%.3f", nanos / 1e6));
+        });
+        return header.toString();
+    }
+}
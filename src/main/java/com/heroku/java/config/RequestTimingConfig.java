@@ -0,0 +1,72 @@
+package com.heroku.java.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+
+/**
+ * Closes the compute and serialization stages of {@link RequestTimings}: an interceptor marks when the controller
+ * starts and finishes, and the JSON converter (replacing Spring Boot's default one) times writing the response and
+ * adds the debug Server-Timing header just before it does.
+ */
+@Configuration
+public class RequestTimingConfig implements WebMvcConfigurer {
+
+    private static final String SERVER_TIMING_HEADER = "Server-Timing";
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new HandlerInterceptor() {
+            @Override
+            public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+                RequestTimings timings = RequestTimings.current();
+                if (timings != null) {
+                    timings.handlerStarted();
+                }
+                return true;
+            }
+
+            @Override
+            public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+                RequestTimings timings = RequestTimings.current();
+                if (timings != null) {
+                    timings.handlerFinished();
+                }
+            }
+        }).addPathPatterns("/api/**");
+    }
+
+    @Bean
+    MappingJackson2HttpMessageConverter mappingJackson2HttpMessageConverter(ObjectMapper objectMapper, RequestStageMetrics stageMetrics) {
+        return new MappingJackson2HttpMessageConverter(objectMapper) {
+            @Override
+            protected void writeInternal(Object object, Type type, HttpOutputMessage outputMessage) throws IOException {
+                RequestTimings timings = RequestTimings.current();
+                if (timings == null) {
+                    super.writeInternal(object, type, outputMessage);
+                    return;
+                }
+                timings.handlerFinished();
+                if (stageMetrics.isServerTimingHeaderEnabled()) {
+                    outputMessage.getHeaders().add(SERVER_TIMING_HEADER, stageMetrics.serverTiming(timings));
+                }
+                long start = System.nanoTime();
+                try {
+                    super.writeInternal(object, type, outputMessage);
+                } finally {
+                    timings.record(RequestTimings.Stage.SERIALIZATION, null, System.nanoTime() - start);
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,130 @@
+package com.heroku.java.config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Stage durations of one request: client context decoding, connection lookup, each SOQL call, the controller's own
+ * compute and response serialization. Bound to the request thread by {@link SalesforceClientContextFilter} and
+ * carried onto query threads by {@link SalesforceQueryExecutor}, so concurrent SOQL calls are attributed to the
+ * request that issued them. Samples are buffered here and recorded by {@link RequestStageMetrics} once the
+ * request completes and its endpoint is known.
+ */
+public final class RequestTimings {
+
+    public enum Stage {
+        DECODE("decode"),
+        CONNECTION("connection"),
+        SOQL("soql"),
+        COMPUTE("compute"),
+        SERIALIZATION("serialization");
+
+        private final String tagValue;
+
+        Stage(String tagValue) {
+            this.tagValue = tagValue;
+        }
+
+        public String tagValue() {
+            return tagValue;
+        }
+    }
+
+    record Sample(Stage stage, String sobject, long nanos) {
+    }
+
+    private static final ThreadLocal<RequestTimings> CURRENT = new ThreadLocal<>();
+
+    private final Thread requestThread = Thread.currentThread();
+    private final List<Sample> samples = new ArrayList<>();
+    private String orgId;
+    private long handlerStartNanos;
+    private long blockedNanos;
+
+    /**
+     * The timings of the request being handled by the current thread, or null outside a timed request.
+     */
+    public static RequestTimings current() {
+        return CURRENT.get();
+    }
+
+    static RequestTimings begin() {
+        RequestTimings timings = new RequestTimings();
+        CURRENT.set(timings);
+        return timings;
+    }
+
+    void end() {
+        CURRENT.remove();
+    }
+
+    /**
+     * Runs a call on another thread on behalf of the given request, or plainly if there is none.
+     */
+    static <T> T callFor(RequestTimings timings, Callable<T> call) throws Exception {
+        if (timings == null) {
+            return call.call();
+        }
+        RequestTimings previous = CURRENT.get();
+        CURRENT.set(timings);
+        try {
+            return call.call();
+        } finally {
+            CURRENT.set(previous);
+        }
+    }
+
+    public void record(Stage stage, String sobject, long nanos) {
+        synchronized (samples) {
+            samples.add(new Sample(stage, sobject, nanos));
+        }
+    }
+
+    /**
+     * Records a SOQL call; if it ran on the request thread, that time is not counted as compute.
+     */
+    public void recordQuery(String sobject, long nanos) {
+        record(Stage.SOQL, sobject, nanos);
+        addBlocked(nanos);
+    }
+
+    /**
+     * Time the request thread spent waiting on Salesforce rather than computing.
+     */
+    void addBlocked(long nanos) {
+        if (Thread.currentThread() == requestThread) {
+            blockedNanos += nanos;
+        }
+    }
+
+    void handlerStarted() {
+        handlerStartNanos = System.nanoTime();
+        blockedNanos = 0;
+    }
+
+    /**
+     * Closes the compute stage; called when the response starts being serialized, or when the handler completes
+     * for endpoints that write their own response. Only the first call counts.
+     */
+    void handlerFinished() {
+        if (handlerStartNanos != 0) {
+            record(Stage.COMPUTE, null, Math.max(0, System.nanoTime() - handlerStartNanos - blockedNanos));
+            handlerStartNanos = 0;
+        }
+    }
+
+    void setOrgId(String orgId) {
+        this.orgId = orgId;
+    }
+
+    String getOrgId() {
+        return orgId;
+    }
+
+    List<Sample> samples() {
+        synchronized (samples) {
+            return new ArrayList<>(samples);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.heroku.java.config;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.sforce.soap.partner.PartnerConnection;
+import com.sforce.soap.partner.QueryResult;
+import com.sforce.soap.partner.sobject.SObject;
+import com.sforce.ws.ConnectionException;
+import org.springframework.stereotype.Component;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+/**
+ * Reads through the REST API's query resource, and sends batches through the Composite Batch resource, which runs up
+ * to 25 subrequests in one round-trip. Larger batches are split and the round-trips made concurrently.
+ * <p>
+ * Records are converted into the same {@link SObject}s the Partner API returns, with every scalar as a string, so
+ * callers cannot tell which protocol read them. The query locator of a REST page is its {@code nextRecordsUrl}.
+ */
+@Component
+public class RestSalesforceApi implements SalesforceApi {
+
+    static final int MAX_BATCH_SUBREQUESTS = 25;
+
+    private final SalesforceHttpClient http;
+    private final SalesforceQueryExecutor queryExecutor;
+
+    public RestSalesforceApi(SalesforceHttpClient http, SalesforceQueryExecutor queryExecutor) {
+        this.http = http;
+        this.queryExecutor = queryExecutor;
+    }
+
+    @Override
+    public QueryResult query(SalesforceUserContext userContext, PartnerConnection connection, String soql) throws ConnectionException {
+        long start = System.nanoTime();
+        try {
+            return queryResult(http.getJson(userContext, http.dataPath(userContext) + "/query?q=" + encode(soql)));
+        } finally {
+            recordQuery(TimedPartnerConnection.sobjectOf(soql), start);
+        }
+    }
+
+    @Override
+    public QueryResult queryMore(SalesforceUserContext userContext, PartnerConnection connection, String queryLocator) throws ConnectionException {
+        long start = System.nanoTime();
+        QueryResult result = null;
+        try {
+            result = queryResult(http.getJson(userContext, queryLocator));
+            return result;
+        } finally {
+            recordQuery(result != null && result.getSize() > 0 ? result.getRecords()[0].getType() : "unknown", start);
+        }
+    }
+
+    @Override
+    public List<QueryResult> queryBatch(SalesforceUserContext userContext, PartnerConnection connection, List<String> soqls) throws ConnectionException {
+        if (soqls.size() == 1) {
+            return List.of(query(userContext, connection, soqls.get(0)));
+        }
+        if (soqls.size() <= MAX_BATCH_SUBREQUESTS) {
+            return compositeBatch(userContext, soqls);
+        }
+        try (SalesforceQueryExecutor.Fanout fanout = queryExecutor.fanout()) {
+            List<Future<List<QueryResult>>> chunks = new ArrayList<>();
+            for (int from = 0; from < soqls.size(); from += MAX_BATCH_SUBREQUESTS) {
+                List<String> chunk = soqls.subList(from, Math.min(from + MAX_BATCH_SUBREQUESTS, soqls.size()));
+                chunks.add(fanout.submit(() -> compositeBatch(userContext, chunk)));
+            }
+            List<QueryResult> results = new ArrayList<>(soqls.size());
+            for (Future<List<QueryResult>> chunk : chunks) {
+                results.addAll(fanout.await(chunk));
+            }
+            return results;
+        }
+    }
+
+    private List<QueryResult> compositeBatch(SalesforceUserContext userContext, List<String> soqls) throws ConnectionException {
+        String version = "v" + userContext.getApiVersion();
+        List<Map<String, String>> batchRequests = new ArrayList<>(soqls.size());
+        for (String soql : soqls) {
+            batchRequests.add(Map.of("method", "GET", "url", version + "/query?q=" + encode(soql)));
+        }
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("batchRequests", batchRequests);
+        body.put("haltOnError", false);
+
+        long start = System.nanoTime();
+        JsonNode response;
+        try {
+            response = http.sendJson(userContext, "POST", http.dataPath(userContext) + "/composite/batch", body);
+        } finally {
+            recordQuery("composite", start);
+        }
+        JsonNode subresponses = response.path("results");
+        if (subresponses.size() != soqls.size()) {
+            throw new ConnectionException("Composite batch returned " + subresponses.size() + " results for " + soqls.size() + " queries");
+        }
+        List<QueryResult> results = new ArrayList<>(soqls.size());
+        for (JsonNode subresponse : subresponses) {
+            int statusCode = subresponse.path("statusCode").asInt();
+            if (statusCode >= 400) {
+                JsonNode error = subresponse.path("result").path(0);
+                if (statusCode >= 500) {
+                    throw new ConnectionException("Salesforce returned HTTP " + statusCode + " for a batched query: " + error.path("message").asText());
+                }
+                throw SalesforceHttpClient.fault(statusCode == 400, error.path("errorCode").asText(null), error.path("message").asText("HTTP " + statusCode));
+            }
+            results.add(queryResult(subresponse.path("result")));
+        }
+        return results;
+    }
+
+    static QueryResult queryResult(JsonNode page) {
+        JsonNode records = page.path("records");
+        SObject[] sobjects = new SObject[records.size()];
+        for (int i = 0; i < sobjects.length; i++) {
+            sobjects[i] = sobject(records.get(i));
+        }
+        QueryResult result = new QueryResult();
+        result.setRecords(sobjects);
+        result.setSize(page.path("totalSize").asInt(sobjects.length));
+        result.setDone(page.path("done").asBoolean(true));
+        result.setQueryLocator(page.path("nextRecordsUrl").asText(null));
+        return result;
+    }
+
+    private static SObject sobject(JsonNode record) {
+        SObject sobject = new SObject();
+        sobject.setType(record.path("attributes").path("type").asText(null));
+        for (Iterator<Map.Entry<String, JsonNode>> fields = record.fields(); fields.hasNext(); ) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            String name = field.getKey();
+            JsonNode value = field.getValue();
+            if (name.equals("attributes")) {
+                continue;
+            }
+            if (name.equals("Id") && value.isTextual()) {
+                sobject.setId(value.asText());
+            } else if (value.isNull()) {
+                sobject.setField(name, null);
+            } else if (value.isObject() && value.has("records")) {
+                sobject.setField(name, queryResult(value));
+            } else if (value.isObject()) {
+                sobject.setField(name, sobject(value));
+            } else {
+                // The Partner API returns every scalar as text, so callers parse numbers and booleans themselves
+                sobject.setField(name, value.asText());
+            }
+        }
+        return sobject;
+    }
+
+    private static String encode(String soql) {
+        return URLEncoder.encode(soql, StandardCharsets.UTF_8);
+    }
+
+    private static void recordQuery(String sobject, long start) {
+        RequestTimings timings = RequestTimings.current();
+        if (timings != null) {
+            timings.recordQuery(sobject, System.nanoTime() - start);
+        }
+    }
+}
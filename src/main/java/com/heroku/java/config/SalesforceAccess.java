@@ -0,0 +1,36 @@
+package com.heroku.java.config;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares how much of Salesforce an endpoint uses, on a controller class or, overriding it, on a handler method.
+ * {@link SalesforceAccessInterceptor} only requires and decodes the {@code x-client-context} header, and only counts
+ * the request against its org's concurrency limit, for endpoints that need them. Endpoints without the annotation
+ * are treated as {@link Level#CONNECTION}.
+ */
+@Target({ ElementType.TYPE, ElementType.METHOD })
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface SalesforceAccess {
+
+    Level value();
+
+    enum Level {
+        /**
+         * Pure compute: no client context, no connection and no org concurrency limit.
+         */
+        NONE,
+        /**
+         * The calling org and user from the client context, but no connection to query with.
+         */
+        CONTEXT,
+        /**
+         * The client context and a {@code PartnerConnection}, built the first time the handler asks for it.
+         */
+        CONNECTION
+    }
+}
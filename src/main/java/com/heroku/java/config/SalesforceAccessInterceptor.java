@@ -0,0 +1,77 @@
+package com.heroku.java.config;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.util.WebUtils;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Applies each endpoint's {@link SalesforceAccess} level once the request is mapped to its handler. Endpoints that
+ * use Salesforce must send a valid {@code x-client-context} header, and are counted against their org's
+ * concurrency limit (see {@link OrgConcurrencyLimiter}): requests over it are shed with 429, or 503 when the app as a
+ * whole is full, and a {@code Retry-After} header. Endpoints that do not are left alone, with no header decoded and
+ * no limit applied.
+ */
+public class SalesforceAccessInterceptor implements HandlerInterceptor {
+
+    private static final Logger logger = LoggerFactory.getLogger(SalesforceAccessInterceptor.class);
+
+    private static final String PERMIT_ATTRIBUTE = SalesforceAccessInterceptor.class.getName() + ".permit";
+
+    private final OrgConcurrencyLimiter limiter;
+    // Resolved once per handler method from its own and its controller's annotations
+    private final ConcurrentHashMap<Method, SalesforceAccess.Level> levels = new ConcurrentHashMap<>();
+
+    public SalesforceAccessInterceptor(OrgConcurrencyLimiter limiter) {
+        this.limiter = limiter;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        SalesforceClientContextFilter.SalesforceRequest salesforceRequest =
+                WebUtils.getNativeRequest(request, SalesforceClientContextFilter.SalesforceRequest.class);
+        if (!(handler instanceof HandlerMethod handlerMethod) || salesforceRequest == null) {
+            return true;
+        }
+        SalesforceAccess.Level level = levels.computeIfAbsent(handlerMethod.getMethod(), method -> level(handlerMethod));
+        salesforceRequest.setLevel(level);
+        if (level == SalesforceAccess.Level.NONE) {
+            return true;
+        }
+
+        SalesforceUserContext userContext = salesforceRequest.userContext();
+        OrgConcurrencyLimiter.Permit permit = limiter.tryAcquire(userContext.getOrgId());
+        if (!permit.isGranted()) {
+            OrgConcurrencyLimiter.Rejection rejection = permit.getRejection();
+            logger.debug("Rejected request for org {}: {}", userContext.getOrgId(), rejection);
+            response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(limiter.getRetryAfterSeconds()));
+            response.sendError(rejection.status().value(), rejection.message());
+            return false;
+        }
+        request.setAttribute(PERMIT_ATTRIBUTE, permit);
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        if (request.getAttribute(PERMIT_ATTRIBUTE) instanceof OrgConcurrencyLimiter.Permit permit) {
+            permit.release(RequestTimings.current());
+        }
+    }
+
+    private static SalesforceAccess.Level level(HandlerMethod handlerMethod) {
+        SalesforceAccess access = handlerMethod.getMethodAnnotation(SalesforceAccess.class);
+        if (access == null) {
+            access = AnnotatedElementUtils.findMergedAnnotation(handlerMethod.getBeanType(), SalesforceAccess.class);
+        }
+        return access != null ? access.value() : SalesforceAccess.Level.CONNECTION;
+    }
+}
@@ -0,0 +1,25 @@
+package com.heroku.java.config;
+
+import com.sforce.soap.partner.PartnerConnection;
+import com.sforce.soap.partner.QueryResult;
+import com.sforce.ws.ConnectionException;
+
+import java.util.List;
+
+/**
+ * A wire protocol for reading SOQL results from the invoking org. Every implementation returns WSC
+ * {@link QueryResult} pages of {@code SObject}s, whatever the format on the wire, and reports failures the way
+ * the Partner API does: {@code ApiQueryFault} for rejected queries, other {@code ApiFault}s for errors such as an
+ * invalid session, and plain {@link ConnectionException}s for transport failures.
+ */
+public interface SalesforceApi {
+
+    QueryResult query(SalesforceUserContext userContext, PartnerConnection connection, String soql) throws ConnectionException;
+
+    QueryResult queryMore(SalesforceUserContext userContext, PartnerConnection connection, String queryLocator) throws ConnectionException;
+
+    /**
+     * Runs independent queries, returning their first pages in the same order.
+     */
+    List<QueryResult> queryBatch(SalesforceUserContext userContext, PartnerConnection connection, List<String> soqls) throws ConnectionException;
+}
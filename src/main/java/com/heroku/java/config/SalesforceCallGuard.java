@@ -0,0 +1,455 @@
+package com.heroku.java.config;
+
+import com.sforce.soap.partner.PartnerConnection;
+import com.sforce.soap.partner.QueryResult;
+import com.sforce.soap.partner.fault.ApiFault;
+import com.sforce.soap.partner.fault.ExceptionCode;
+import com.sforce.ws.ConnectionException;
+import com.sforce.ws.SoapFaultException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Keeps slow or failing Salesforce calls from holding requests, wrapping each read of a {@link SalesforceApi}:
+ * <ul>
+ *   <li>Every call, retries included, must finish within {@code salesforce.client.deadline}.</li>
+ *   <li>Transient failures (transport errors, timeouts, 5xx responses and {@code SERVER_UNAVAILABLE} faults) are
+ *       retried up to {@code salesforce.client.max-attempts} times with full jitter exponential backoff. Queries
+ *       only read, so repeating them is safe.</li>
+ *   <li>Once a call has taken longer than the org's 95th percentile ({@code hedge.percentile}) for that kind of
+ *       call, a duplicate is sent and whichever answers first is used. Hedges are capped at a share of all calls
+ *       ({@code hedge.max-ratio}) so a slow org does not get twice the load.</li>
+ *   <li>After {@code failure-threshold} consecutive failed calls to an org, calls to it fail straight away for
+ *       {@code open-duration}, then a single call probes whether it has recovered.</li>
+ * </ul>
+ * Faults Salesforce answers with, such as a malformed query or an expired session, are neither retried nor held
+ * against the org.
+ */
+@Component
+public class SalesforceCallGuard implements MeterBinder, DisposableBean {
+
+    enum Operation {
+        QUERY, QUERY_MORE, QUERY_BATCH
+    }
+
+    // Latency samples kept per org and operation, and how many are needed before hedging
+    private static final int LATENCY_WINDOW = 200;
+    private static final int MIN_LATENCY_SAMPLES = 20;
+
+    private final long deadlineNanos;
+    private final int maxAttempts;
+    private final long backoffNanos;
+    private final long maxBackoffNanos;
+    private final boolean hedgingEnabled;
+    private final double hedgePercentile;
+    private final long minHedgeDelayNanos;
+    private final double maxHedgeRatio;
+    private final int failureThreshold;
+    private final long openNanos;
+    // System.nanoTime outside of tests
+    private final LongSupplier nanoClock;
+
+    // Calls run off the request thread; on virtual threads so nested fan-outs never wait on a bounded pool
+    private final ExecutorService attempts = Executors.newVirtualThreadPerTaskExecutor();
+    private final LruMap<String, OrgState> orgs;
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong hedges = new AtomicLong();
+
+    private final Counter retryCounter;
+    private final Counter hedgeSentCounter;
+    private final Counter hedgeWonCounter;
+    private final Counter circuitOpenedCounter;
+    private final Counter circuitRejectedCounter;
+
+    @Autowired
+    public SalesforceCallGuard(MeterRegistry registry,
+                               @Value("${salesforce.client.deadline:PT15S}") Duration deadline,
+                               @Value("${salesforce.client.max-attempts:3}") int maxAttempts,
+                               @Value("${salesforce.client.backoff:PT0.1S}") Duration backoff,
+                               @Value("${salesforce.client.max-backoff:PT1S}") Duration maxBackoff,
+                               @Value("${salesforce.client.hedge.enabled:true}") boolean hedgingEnabled,
+                               @Value("${salesforce.client.hedge.percentile:0.95}") double hedgePercentile,
+                               @Value("${salesforce.client.hedge.min-delay:PT0.05S}") Duration minHedgeDelay,
+                               @Value("${salesforce.client.hedge.max-ratio:0.1}") double maxHedgeRatio,
+                               @Value("${salesforce.client.circuit-breaker.failure-threshold:5}") int failureThreshold,
+                               @Value("${salesforce.client.circuit-breaker.open-duration:PT30S}") Duration openDuration,
+                               @Value("${salesforce.client.max-orgs:256}") int maxOrgs) {
+        this(registry, deadline, maxAttempts, backoff, maxBackoff, hedgingEnabled, hedgePercentile, minHedgeDelay, maxHedgeRatio,
+                failureThreshold, openDuration, maxOrgs, System::nanoTime);
+    }
+
+    SalesforceCallGuard(MeterRegistry registry, Duration deadline, int maxAttempts, Duration backoff, Duration maxBackoff,
+                        boolean hedgingEnabled, double hedgePercentile, Duration minHedgeDelay, double maxHedgeRatio,
+                        int failureThreshold, Duration openDuration, int maxOrgs, LongSupplier nanoClock) {
+        this.deadlineNanos = deadline.toNanos();
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.backoffNanos = backoff.toNanos();
+        this.maxBackoffNanos = maxBackoff.toNanos();
+        this.hedgingEnabled = hedgingEnabled;
+        this.hedgePercentile = hedgePercentile;
+        this.minHedgeDelayNanos = minHedgeDelay.toNanos();
+        this.maxHedgeRatio = maxHedgeRatio;
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openDuration.toNanos();
+        this.orgs = new LruMap<>(maxOrgs);
+        this.nanoClock = nanoClock;
+        this.retryCounter = Counter.builder("salesforce.client.retries")
+                .description("Salesforce calls repeated after a transient failure")
+                .register(registry);
+        this.hedgeSentCounter = Counter.builder("salesforce.client.hedges")
+                .tag("result", "sent")
+                .description("Duplicate Salesforce calls sent because the first was slower than usual")
+                .register(registry);
+        this.hedgeWonCounter = Counter.builder("salesforce.client.hedges")
+                .tag("result", "won")
+                .description("Duplicate Salesforce calls that answered before the first one")
+                .register(registry);
+        this.circuitOpenedCounter = Counter.builder("salesforce.client.circuit.opened")
+                .description("Times calls to an org were suspended after repeated failures")
+                .register(registry);
+        this.circuitRejectedCounter = Counter.builder("salesforce.client.circuit.rejected")
+                .description("Salesforce calls failed straight away because their org's calls were suspended")
+                .register(registry);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("salesforce.client.circuit.open", this, SalesforceCallGuard::openCircuitCount)
+                .description("Orgs whose calls are currently suspended")
+                .register(registry);
+    }
+
+    /**
+     * The given API with every call guarded.
+     */
+    public SalesforceApi guard(SalesforceApi api) {
+        return new GuardedApi(api);
+    }
+
+    @Override
+    public void destroy() {
+        attempts.shutdownNow();
+    }
+
+    <T> T call(SalesforceUserContext userContext, Operation operation, SalesforceQueryExecutor.SalesforceCall<T> call) throws ConnectionException {
+        OrgState org = orgState(userContext.getOrgId());
+        if (!org.tryAcquire()) {
+            circuitRejectedCounter.increment();
+            throw new ConnectionException("Salesforce calls for org " + userContext.getOrgId() + " are suspended after repeated failures");
+        }
+        calls.incrementAndGet();
+        long deadline = nanoClock.getAsLong() + deadlineNanos;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                T result = attempt(org.latencies.get(operation), call, deadline);
+                org.succeeded();
+                return result;
+            } catch (ConnectionException | RuntimeException e) {
+                if (Thread.currentThread().isInterrupted()) {
+                    // The request gave up on the call, which says nothing about the org
+                    org.abandoned();
+                    throw e;
+                }
+                if (!isTransient(e)) {
+                    org.succeeded();
+                    throw e;
+                }
+                long backoff = ThreadLocalRandom.current().nextLong(Math.min(maxBackoffNanos, backoffNanos << Math.min(attempt - 1, 20)) + 1);
+                if (attempt >= maxAttempts || nanoClock.getAsLong() + backoff >= deadline) {
+                    if (org.failed()) {
+                        circuitOpenedCounter.increment();
+                    }
+                    throw e;
+                }
+                retryCounter.increment();
+                sleep(backoff);
+            }
+        }
+    }
+
+    // Runs the call off the request thread so the deadline holds even while a socket read hangs, sending a duplicate
+    // once it takes longer than usual
+    private <T> T attempt(Latencies latencies, SalesforceQueryExecutor.SalesforceCall<T> call, long deadline) throws ConnectionException {
+        long waitStart = nanoClock.getAsLong();
+        CompletableFuture<T> first = start(call, latencies);
+        CompletableFuture<T> hedge = null;
+        try {
+            long hedgeDelay = latencies.percentile(hedgePercentile);
+            if (hedgingEnabled && hedgeDelay >= 0 && hedges.get() < calls.get() * maxHedgeRatio) {
+                try {
+                    return await(first, Math.min(deadline, waitStart + Math.max(minHedgeDelayNanos, hedgeDelay)));
+                } catch (TimeoutException e) {
+                    // Slower than usual, race a duplicate against it
+                }
+                hedges.incrementAndGet();
+                hedgeSentCounter.increment();
+                hedge = start(call, latencies);
+                CompletableFuture<T> winner = new CompletableFuture<>();
+                AtomicInteger failures = new AtomicInteger();
+                first.whenComplete((result, failure) -> settle(winner, result, failure, failures, null));
+                hedge.whenComplete((result, failure) -> settle(winner, result, failure, failures, hedgeWonCounter));
+                return awaitDeadline(winner, deadline);
+            }
+            return awaitDeadline(first, deadline);
+        } finally {
+            first.cancel(true);
+            if (hedge != null) {
+                hedge.cancel(true);
+            }
+            RequestTimings timings = RequestTimings.current();
+            if (timings != null) {
+                timings.addBlocked(nanoClock.getAsLong() - waitStart);
+            }
+        }
+    }
+
+    // The first attempt to succeed wins, the race fails only once both attempts have
+    private static <T> void settle(CompletableFuture<T> winner, T result, Throwable failure, AtomicInteger failures, Counter wonCounter) {
+        if (failure == null) {
+            if (winner.complete(result) && wonCounter != null) {
+                wonCounter.increment();
+            }
+        } else if (failures.incrementAndGet() == 2) {
+            winner.completeExceptionally(failure);
+        }
+    }
+
+    private <T> CompletableFuture<T> start(SalesforceQueryExecutor.SalesforceCall<T> call, Latencies latencies) {
+        // Attribute the call's SOQL time to the request that made it
+        RequestTimings timings = RequestTimings.current();
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Future<?> task = attempts.submit(() -> {
+            long start = nanoClock.getAsLong();
+            try {
+                T value = RequestTimings.callFor(timings, call::call);
+                latencies.record(nanoClock.getAsLong() - start);
+                result.complete(value);
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            }
+        });
+        result.whenComplete((value, failure) -> {
+            if (result.isCancelled()) {
+                task.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    private <T> T awaitDeadline(CompletableFuture<T> future, long deadline) throws ConnectionException {
+        try {
+            return await(future, deadline);
+        } catch (TimeoutException e) {
+            throw new ConnectionException("Salesforce call did not complete within " + Duration.ofNanos(deadlineNanos), e);
+        }
+    }
+
+    private <T> T await(CompletableFuture<T> future, long until) throws ConnectionException, TimeoutException {
+        try {
+            return future.get(Math.max(0, until - nanoClock.getAsLong()), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConnectionException("Interrupted while waiting for Salesforce", e);
+        } catch (CancellationException e) {
+            throw new ConnectionException("Salesforce call was cancelled", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ConnectionException connectionException) {
+                throw connectionException;
+            } else if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            } else if (cause instanceof Error error) {
+                throw error;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private static void sleep(long nanos) throws ConnectionException {
+        long sleepStart = System.nanoTime();
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConnectionException("Interrupted while waiting to retry Salesforce", e);
+        } finally {
+            RequestTimings timings = RequestTimings.current();
+            if (timings != null) {
+                timings.addBlocked(System.nanoTime() - sleepStart);
+            }
+        }
+    }
+
+    // Transport failures, timeouts and 5xx responses, or faults Salesforce sends when it is briefly unavailable
+    private static boolean isTransient(Exception e) {
+        if (e instanceof ApiFault fault) {
+            return fault.getExceptionCode() == ExceptionCode.SERVER_UNAVAILABLE
+                    || fault.getExceptionCode() == ExceptionCode.FUNCTIONALITY_TEMPORARILY_UNAVAILABLE;
+        }
+        return e instanceof ConnectionException && !(e instanceof SoapFaultException);
+    }
+
+    private OrgState orgState(String orgId) {
+        synchronized (orgs) {
+            OrgState org = orgs.get(orgId);
+            if (org == null) {
+                org = new OrgState();
+                orgs.put(orgId, org);
+            }
+            return org;
+        }
+    }
+
+    private int openCircuitCount() {
+        long now = nanoClock.getAsLong();
+        synchronized (orgs) {
+            int open = 0;
+            for (OrgState org : orgs.values()) {
+                if (org.isOpen(now)) {
+                    open++;
+                }
+            }
+            return open;
+        }
+    }
+
+    private enum CircuitState {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final class OrgState {
+        private final Map<Operation, Latencies> latencies = new EnumMap<>(Operation.class);
+        // Guarded by this
+        private CircuitState state = CircuitState.CLOSED;
+        private int consecutiveFailures;
+        private long openUntilNanos;
+        private boolean probing;
+
+        private OrgState() {
+            for (Operation operation : Operation.values()) {
+                latencies.put(operation, new Latencies());
+            }
+        }
+
+        private synchronized boolean tryAcquire() {
+            if (state == CircuitState.OPEN && nanoClock.getAsLong() - openUntilNanos >= 0) {
+                state = CircuitState.HALF_OPEN;
+            }
+            if (state == CircuitState.HALF_OPEN && !probing) {
+                probing = true;
+                return true;
+            }
+            return state == CircuitState.CLOSED;
+        }
+
+        private synchronized void succeeded() {
+            state = CircuitState.CLOSED;
+            consecutiveFailures = 0;
+            probing = false;
+        }
+
+        /**
+         * @return true if this failure suspended calls to the org
+         */
+        private synchronized boolean failed() {
+            probing = false;
+            consecutiveFailures++;
+            if (state == CircuitState.HALF_OPEN || (state == CircuitState.CLOSED && consecutiveFailures >= failureThreshold)) {
+                state = CircuitState.OPEN;
+                openUntilNanos = nanoClock.getAsLong() + openNanos;
+                return true;
+            }
+            return false;
+        }
+
+        private synchronized void abandoned() {
+            probing = false;
+        }
+
+        private synchronized boolean isOpen(long now) {
+            return state == CircuitState.OPEN && now - openUntilNanos < 0;
+        }
+    }
+
+    // The most recent successful call durations, with a cached percentile refreshed as samples arrive
+    private static final class Latencies {
+        private final long[] samples = new long[LATENCY_WINDOW];
+        private int count;
+        private int next;
+        private double cachedPercentile = -1;
+        private long cachedNanos = -1;
+
+        private synchronized void record(long nanos) {
+            samples[next] = nanos;
+            next = (next + 1) % samples.length;
+            count++;
+            if (count % 10 == 0) {
+                cachedPercentile = -1;
+            }
+        }
+
+        /**
+         * The given percentile of recent call durations, or -1 until there are enough samples.
+         */
+        private synchronized long percentile(double percentile) {
+            if (count < MIN_LATENCY_SAMPLES) {
+                return -1;
+            }
+            if (cachedPercentile != percentile) {
+                long[] sorted = Arrays.copyOf(samples, Math.min(count, samples.length));
+                Arrays.sort(sorted);
+                cachedNanos = sorted[Math.min(sorted.length - 1, (int) Math.ceil(percentile * sorted.length) - 1)];
+                cachedPercentile = percentile;
+            }
+            return cachedNanos;
+        }
+    }
+
+    private final class GuardedApi implements SalesforceApi {
+
+        private final SalesforceApi api;
+
+        private GuardedApi(SalesforceApi api) {
+            this.api = api;
+        }
+
+        @Override
+        public QueryResult query(SalesforceUserContext userContext, PartnerConnection connection, String soql) throws ConnectionException {
+            return call(userContext, Operation.QUERY, () -> api.query(userContext, connection, soql));
+        }
+
+        @Override
+        public QueryResult queryMore(SalesforceUserContext userContext, PartnerConnection connection, String queryLocator) throws ConnectionException {
+            return call(userContext, Operation.QUERY_MORE, () -> api.queryMore(userContext, connection, queryLocator));
+        }
+
+        @Override
+        public List<QueryResult> queryBatch(SalesforceUserContext userContext, PartnerConnection connection, List<String> soqls) throws ConnectionException {
+            return call(userContext, Operation.QUERY_BATCH, () -> api.queryBatch(userContext, connection, soqls));
+        }
+    }
+}
@@ -1,73 +1,152 @@
 package com.heroku.java.config;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.sforce.soap.partner.PartnerConnection;
 import com.sforce.ws.ConnectionException;
-import com.sforce.ws.ConnectorConfig;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
 import jakarta.servlet.http.HttpServletResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
 import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.DispatcherServlet;
 
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.util.Base64;
 
+/**
+ * Times action requests and makes the caller's {@link SalesforceUserContext} and {@link PartnerConnection} available
+ * as the {@code salesforceUserContext} and {@code salesforcePartnerConnection} request attributes. Both are resolved
+ * on first read: the {@code x-client-context} header is decoded when {@link SalesforceAccessInterceptor} or the
+ * handler first asks for the context, and the connection is only looked up when the handler first asks for it, so
+ * endpoints that never use Salesforce pay for neither.
+ */
 public class SalesforceClientContextFilter extends OncePerRequestFilter {
 
     private static final Logger logger = LoggerFactory.getLogger(SalesforceClientContextFilter.class);
 
     private static final String X_CLIENT_CONTEXT_HEADER = "x-client-context";
+    private static final String USER_CONTEXT_ATTRIBUTE = "salesforceUserContext";
+    private static final String CONNECTION_ATTRIBUTE = "salesforcePartnerConnection";
+
+    private final ClientContextDecoder clientContextDecoder;
+    private final SalesforceConnectionCache connectionCache;
+    private final RequestStageMetrics stageMetrics;
+
+    public SalesforceClientContextFilter(ClientContextDecoder clientContextDecoder, SalesforceConnectionCache connectionCache,
+                                         RequestStageMetrics stageMetrics) {
+        this.clientContextDecoder = clientContextDecoder;
+        this.connectionCache = connectionCache;
+        this.stageMetrics = stageMetrics;
+    }
 
     @Override
     protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
             throws ServletException, IOException {
-        logger.info("Filter called");
-        String encodedClientContext = request.getHeader(X_CLIENT_CONTEXT_HEADER);
-        if (encodedClientContext == null)
-            throw new ServletException("Required " + X_CLIENT_CONTEXT_HEADER + " header not found");
+        logger.debug("Filter called");
+        RequestTimings timings = stageMetrics.begin();
+        SalesforceRequest salesforceRequest = new SalesforceRequest(request, timings);
         try {
-            // Decode the base64 header value and parse the JSON
-            String decodedClientContext = new String(Base64.getDecoder().decode(encodedClientContext), StandardCharsets.UTF_8);
-            ObjectMapper objectMapper = new ObjectMapper();
-            JsonNode clientContextNode = objectMapper.readTree(decodedClientContext);
-            // Extract fields to hydrate a UserContext and WSC PartnerConnection on the request
-            String accessToken = clientContextNode.get("accessToken").asText();
-            String apiVersion = clientContextNode.get("apiVersion").asText();
-            String requestId = clientContextNode.get("requestId").asText();
-            String namespace = clientContextNode.get("namespace").asText();
-            String orgId = clientContextNode.get("orgId").asText();
-            String orgDomainUrl = clientContextNode.get("orgDomainUrl").asText();
-            logger.info("Got info accessToken:{} also orgDomainURL: {}", accessToken, orgDomainUrl);
-            JsonNode userContextNode = clientContextNode.get("userContext");
-            String userId = userContextNode.get("userId").asText();
-            String username = userContextNode.get("username").asText();
-            // Validate required fields
-            if (accessToken == null || apiVersion == null || orgDomainUrl == null || userId == null || username == null)
-                throw new ServletException("Missing required fields in " + X_CLIENT_CONTEXT_HEADER);
-            // Create the SalesforceUserContext object
-            SalesforceUserContext userContext = new SalesforceUserContext(accessToken, apiVersion, requestId, namespace, orgId, orgDomainUrl, userId, username);
-            // Initialize the PartnerConnection
-            PartnerConnection partnerConnection = initializePartnerConnection(accessToken, apiVersion, orgDomainUrl, username);
-            // Make the SalesforceUserContext and PartnerConnection available in the request context
-            request.setAttribute("salesforceUserContext", userContext);
-            request.setAttribute("salesforcePartnerConnection", partnerConnection);
-            logger.info("Set request attributes");
-        } catch (Exception e) {
-            throw new ServletException("Error processing " + X_CLIENT_CONTEXT_HEADER + " header", e);
+            filterChain.doFilter(salesforceRequest, response);
+            // Controllers turn Salesforce faults into error responses, so check what they resolved for an expired session
+            Object failure = request.getAttribute(DispatcherServlet.EXCEPTION_ATTRIBUTE);
+            if (salesforceRequest.connection != null && failure instanceof Throwable throwable) {
+                connectionCache.invalidateIfSessionInvalid(salesforceRequest.userContext, throwable);
+            }
+        } finally {
+            stageMetrics.end(timings, request);
         }
-        filterChain.doFilter(request, response);
     }
 
-    private PartnerConnection initializePartnerConnection(String accessToken, String apiVersion, String orgDomainUrl, String username) throws ConnectionException {
-        ConnectorConfig config = new ConnectorConfig();
-        config.setUsername(username);
-        config.setSessionId(accessToken);
-        config.setServiceEndpoint(orgDomainUrl + "/services/Soap/u/" + apiVersion);
-        return new PartnerConnection(config);
+    /**
+     * The request as handlers see it, resolving the Salesforce attributes on first read. Not thread-safe; read them
+     * on the request thread.
+     */
+    final class SalesforceRequest extends HttpServletRequestWrapper {
+
+        private final RequestTimings timings;
+        // Until the interceptor says otherwise, as for endpoints without a SalesforceAccess annotation
+        private SalesforceAccess.Level level = SalesforceAccess.Level.CONNECTION;
+        private SalesforceUserContext userContext;
+        private PartnerConnection connection;
+
+        private SalesforceRequest(HttpServletRequest request, RequestTimings timings) {
+            super(request);
+            this.timings = timings;
+        }
+
+        @Override
+        public Object getAttribute(String name) {
+            if (USER_CONTEXT_ATTRIBUTE.equals(name)) {
+                return level != SalesforceAccess.Level.NONE ? userContextIfPresent() : null;
+            } else if (CONNECTION_ATTRIBUTE.equals(name)) {
+                return level == SalesforceAccess.Level.CONNECTION ? connection() : null;
+            }
+            return super.getAttribute(name);
+        }
+
+        void setLevel(SalesforceAccess.Level level) {
+            this.level = level;
+        }
+
+        /**
+         * The decoded client context, decoding the header the first time.
+         *
+         * @throws ServletException if the header is missing or cannot be decoded
+         */
+        SalesforceUserContext userContext() throws ServletException {
+            if (userContext != null) {
+                return userContext;
+            }
+            String encodedClientContext = getHeader(X_CLIENT_CONTEXT_HEADER);
+            if (encodedClientContext == null)
+                throw new ServletException("Required " + X_CLIENT_CONTEXT_HEADER + " header not found");
+            try {
+                // Decode the base64 header value into a UserContext, identical headers are served from the decoder's LRU
+                long start = System.nanoTime();
+                userContext = clientContextDecoder.decode(encodedClientContext);
+                long elapsed = System.nanoTime() - start;
+                timings.record(RequestTimings.Stage.DECODE, null, elapsed);
+                timings.addBlocked(elapsed);
+                timings.setOrgId(userContext.getOrgId());
+                logger.debug("Got client context for org {} at {}", userContext.getOrgId(), userContext.getOrgDomainUrl());
+                return userContext;
+            } catch (Exception e) {
+                throw new ServletException("Error processing " + X_CLIENT_CONTEXT_HEADER + " header", e);
+            }
+        }
+
+        // Handlers report a missing context as the Salesforce connection not being available
+        private SalesforceUserContext userContextIfPresent() {
+            try {
+                return userContext();
+            } catch (ServletException e) {
+                logger.debug("No client context for {}: {}", getRequestURI(), e.getMessage());
+                return null;
+            }
+        }
+
+        private PartnerConnection connection() {
+            if (connection != null) {
+                return connection;
+            }
+            SalesforceUserContext context = userContextIfPresent();
+            if (context == null) {
+                return null;
+            }
+            try {
+                // Reuse the cached PartnerConnection for this session or initialize a new one
+                long start = System.nanoTime();
+                connection = connectionCache.getConnection(context);
+                long elapsed = System.nanoTime() - start;
+                timings.record(RequestTimings.Stage.CONNECTION, null, elapsed);
+                timings.addBlocked(elapsed);
+                return connection;
+            } catch (ConnectionException e) {
+                throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Failed to connect to Salesforce.", e);
+            }
+        }
     }
 }
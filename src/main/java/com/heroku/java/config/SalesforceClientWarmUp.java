@@ -0,0 +1,131 @@
+package com.heroku.java.config;
+
+import com.sforce.soap.partner.PartnerConnection;
+import com.sforce.soap.partner.QueryResult;
+import com.sforce.soap.partner.sobject.SObject;
+import com.sforce.ws.ConnectorConfig;
+import com.sforce.ws.transport.Transport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+
+/**
+ * WSC loads the Partner API stub and the type mappings behind it on the first {@link PartnerConnection}, which
+ * makes the first action that reads Salesforce noticeably slower than the rest. Startup does not touch WSC, so by
+ * default (mode {@code none}) that cost stays with the first Salesforce call. {@code salesforce.client.warm-up}
+ * moves it:
+ * <ul>
+ *   <li>{@code background}: once the app is ready to serve, on a separate thread, so neither startup nor the first
+ *       action waits for it.</li>
+ *   <li>{@code startup}: once the singletons are created, before the context finishes refreshing. Meant for the CDS
+ *       training run of the {@code fast-start} build, which exits on refresh, so the classes end up in the archive
+ *       and load from it from then on.</li>
+ * </ul>
+ * Warming up runs one query on a connection whose transport replays a canned response, so nothing leaves the app.
+ */
+@Component
+public class SalesforceClientWarmUp implements SmartInitializingSingleton {
+
+    private static final Logger logger = LoggerFactory.getLogger(SalesforceClientWarmUp.class);
+
+    public enum Mode {
+        NONE, BACKGROUND, STARTUP
+    }
+
+    private final Mode mode;
+
+    public SalesforceClientWarmUp(@Value("${salesforce.client.warm-up:none}") String mode) {
+        this.mode = Mode.valueOf(mode.trim().toUpperCase(Locale.ROOT));
+    }
+
+    // Lazy initialization leaves SmartInitializingSingletons eager, so this runs in the fast-start profile too
+    @Override
+    public void afterSingletonsInstantiated() {
+        if (mode == Mode.STARTUP) {
+            warmUp();
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onReady() {
+        if (mode == Mode.BACKGROUND) {
+            Thread.ofVirtual().name("salesforce-warm-up").start(this::warmUp);
+        }
+    }
+
+    /**
+     * Builds a connection and reads a query result through it, loading the classes a real query needs.
+     */
+    public void warmUp() {
+        long start = System.nanoTime();
+        try {
+            ConnectorConfig config = new ConnectorConfig();
+            config.setManualLogin(true);
+            config.setSessionId("warm-up");
+            config.setServiceEndpoint("https://warm-up.invalid/services/Soap/u/62.0");
+            config.setTransport(CannedQueryTransport.class);
+            QueryResult result = new TimedPartnerConnection(config).query("SELECT Id, Name FROM Account");
+            for (SObject record : result.getRecords()) {
+                record.getField("Name");
+            }
+            logger.info("Warmed up the Salesforce client in {} ms", (System.nanoTime() - start) / 1_000_000);
+        } catch (Exception e) {
+            // Only a head start, the first real call loads whatever is missing
+            logger.warn("Could not warm up the Salesforce client", e);
+        }
+    }
+
+    /**
+     * Answers every call with the same one-record query response.
+     */
+    public static class CannedQueryTransport implements Transport {
+
+        private static final byte[] QUERY_RESPONSE = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+                + "<soapenv:Envelope xmlns:soapenv=\"http://schemas.xmlsoap.org/soap/envelope/\" xmlns=\"urn:partner.soap.sforce.com\""
+                + " xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" xmlns:sf=\"urn:sobject.partner.soap.sforce.com\">"
+                + "<soapenv:Body><queryResponse><result xsi:type=\"QueryResult\"><done>true</done><queryLocator xsi:nil=\"true\"/>"
+                + "<records xsi:type=\"sf:sObject\"><sf:type>Account</sf:type><sf:Id>001000000000000AAA</sf:Id>"
+                + "<sf:Id>001000000000000AAA</sf:Id><sf:Name>Warm-up</sf:Name></records>"
+                + "<size>1</size></result></queryResponse></soapenv:Body></soapenv:Envelope>").getBytes(StandardCharsets.UTF_8);
+
+        @Override
+        public void setConfig(ConnectorConfig config) {
+        }
+
+        @Override
+        public OutputStream connect(String url, String soapAction) {
+            return OutputStream.nullOutputStream();
+        }
+
+        @Override
+        public OutputStream connect(String endpoint, HashMap<String, String> headers) {
+            return OutputStream.nullOutputStream();
+        }
+
+        @Override
+        public OutputStream connect(String endpoint, HashMap<String, String> headers, boolean enableCompression) {
+            return OutputStream.nullOutputStream();
+        }
+
+        @Override
+        public InputStream getContent() {
+            return new ByteArrayInputStream(QUERY_RESPONSE);
+        }
+
+        @Override
+        public boolean isSuccessful() {
+            return true;
+        }
+    }
+}
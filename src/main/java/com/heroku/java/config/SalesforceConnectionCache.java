@@ -0,0 +1,223 @@
+package com.heroku.java.config;
+
+import com.sforce.soap.partner.PartnerConnection;
+import com.sforce.soap.partner.fault.ApiFault;
+import com.sforce.soap.partner.fault.ExceptionCode;
+import com.sforce.ws.ConnectionException;
+import com.sforce.ws.ConnectorConfig;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches WSC {@link PartnerConnection} instances per org session so repeated Agentforce invocations reuse the
+ * same SOAP stub and the JDK keep-alive HTTP connections behind it instead of paying for a new handshake each time.
+ * Entries are keyed by orgId, accessToken and apiVersion, bounded in size (least recently used goes first) and
+ * expire after an idle period or an absolute time to live, whichever comes first.
+ */
+@Component
+public class SalesforceConnectionCache implements MeterBinder {
+
+    private static final Logger logger = LoggerFactory.getLogger(SalesforceConnectionCache.class);
+
+    private final long idleTimeoutNanos;
+    private final long timeToLiveNanos;
+    private final ConnectionFactory connectionFactory;
+    private final int connectTimeoutMillis;
+    private final int readTimeoutMillis;
+
+    private final LruMap<ConnectionKey, CachedConnection> connections;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    @Autowired
+    public SalesforceConnectionCache(
+            @Value("${salesforce.connection-cache.max-size:256}") int maxSize,
+            @Value("${salesforce.connection-cache.idle-timeout:PT10M}") Duration idleTimeout,
+            @Value("${salesforce.connection-cache.time-to-live:PT1H}") Duration timeToLive,
+            @Value("${salesforce.connection-cache.max-keep-alive-connections:32}") int maxKeepAliveConnections,
+            @Value("${salesforce.client.connect-timeout:PT3S}") Duration connectTimeout,
+            @Value("${salesforce.client.read-timeout:PT10S}") Duration readTimeout) {
+        this(maxSize, idleTimeout, timeToLive, connectTimeout, readTimeout, TimedPartnerConnection::new);
+        // WSC sends SOAP calls through HttpURLConnection, whose keep-alive pool only holds 5 idle sockets per
+        // destination by default. Raise it (unless set explicitly) so concurrent calls to one org stay warm.
+        if (System.getProperty("http.maxConnections") == null) {
+            System.setProperty("http.maxConnections", Integer.toString(maxKeepAliveConnections));
+        }
+    }
+
+    public SalesforceConnectionCache(int maxSize, Duration idleTimeout, Duration timeToLive, Duration connectTimeout, Duration readTimeout,
+                                     ConnectionFactory connectionFactory) {
+        this.idleTimeoutNanos = idleTimeout.toNanos();
+        this.timeToLiveNanos = timeToLive.toNanos();
+        this.connectTimeoutMillis = (int) connectTimeout.toMillis();
+        this.readTimeoutMillis = (int) readTimeout.toMillis();
+        this.connectionFactory = connectionFactory;
+        this.connections = new LruMap<>(maxSize, evicted -> evictions.incrementAndGet());
+    }
+
+    /**
+     * Returns the cached connection for the session described by the given user context, creating one on a miss.
+     */
+    public PartnerConnection getConnection(SalesforceUserContext userContext) throws ConnectionException {
+        ConnectionKey key = ConnectionKey.of(userContext);
+        long now = System.nanoTime();
+        synchronized (connections) {
+            CachedConnection cached = connections.get(key);
+            if (cached != null) {
+                if (!cached.isExpired(now, idleTimeoutNanos, timeToLiveNanos)) {
+                    cached.lastAccessNanos = now;
+                    hits.incrementAndGet();
+                    return cached.connection;
+                }
+                connections.remove(key);
+                evictions.incrementAndGet();
+            }
+        }
+        misses.incrementAndGet();
+        // Build outside the lock, a slow connection setup for one org must not block lookups for the others
+        PartnerConnection connection = connectionFactory.create(createConnectorConfig(userContext));
+        synchronized (connections) {
+            connections.put(key, new CachedConnection(connection, now));
+        }
+        return connection;
+    }
+
+    /**
+     * Drops the cached connection for the given session.
+     */
+    public void invalidate(SalesforceUserContext userContext) {
+        synchronized (connections) {
+            if (connections.remove(ConnectionKey.of(userContext)) != null) {
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Drops the cached connection if the given failure (or one of its causes) reports that the session is no
+     * longer valid, so the next call with a refreshed token does not keep hitting a dead stub.
+     *
+     * @return true if the failure was caused by an invalid session
+     */
+    public boolean invalidateIfSessionInvalid(SalesforceUserContext userContext, Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ApiFault fault && fault.getExceptionCode() == ExceptionCode.INVALID_SESSION_ID) {
+                logger.info("Evicting Salesforce connection for org {} after invalid session", userContext.getOrgId());
+                invalidate(userContext);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Scheduled(fixedDelayString = "${salesforce.connection-cache.sweep-interval:PT1M}")
+    public void evictExpired() {
+        long now = System.nanoTime();
+        int evicted = 0;
+        synchronized (connections) {
+            Iterator<CachedConnection> iterator = connections.values().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().isExpired(now, idleTimeoutNanos, timeToLiveNanos)) {
+                    iterator.remove();
+                    evicted++;
+                }
+            }
+        }
+        if (evicted > 0) {
+            evictions.addAndGet(evicted);
+            logger.debug("Evicted {} expired Salesforce connections", evicted);
+        }
+    }
+
+    public int size() {
+        synchronized (connections) {
+            return connections.size();
+        }
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("salesforce.connection.cache.requests", hits, AtomicLong::get)
+                .tag("result", "hit")
+                .description("PartnerConnection lookups served from the cache")
+                .register(registry);
+        FunctionCounter.builder("salesforce.connection.cache.requests", misses, AtomicLong::get)
+                .tag("result", "miss")
+                .description("PartnerConnection lookups that had to build a new connection")
+                .register(registry);
+        FunctionCounter.builder("salesforce.connection.cache.evictions", evictions, AtomicLong::get)
+                .description("PartnerConnections removed for size, idle time, time to live or invalid sessions")
+                .register(registry);
+        Gauge.builder("salesforce.connection.cache.size", this, SalesforceConnectionCache::size)
+                .description("PartnerConnections currently cached")
+                .register(registry);
+    }
+
+    private ConnectorConfig createConnectorConfig(SalesforceUserContext userContext) {
+        ConnectorConfig config = new ConnectorConfig();
+        config.setUsername(userContext.getUsername());
+        config.setSessionId(userContext.getAccessToken());
+        config.setServiceEndpoint(userContext.getOrgDomainUrl() + "/services/Soap/u/" + userContext.getApiVersion());
+        config.setCompression(true);
+        // WSC otherwise waits up to a minute to connect and indefinitely for a response
+        config.setConnectionTimeout(connectTimeoutMillis);
+        config.setReadTimeout(readTimeoutMillis);
+        return config;
+    }
+
+    /**
+     * Creates a connection from a prepared config; lets benchmarks and local runs plug in a stubbed connection.
+     */
+    @FunctionalInterface
+    public interface ConnectionFactory {
+        PartnerConnection create(ConnectorConfig config) throws ConnectionException;
+    }
+
+    private record ConnectionKey(String orgId, String accessToken, String apiVersion) {
+        static ConnectionKey of(SalesforceUserContext userContext) {
+            return new ConnectionKey(userContext.getOrgId(), userContext.getAccessToken(), userContext.getApiVersion());
+        }
+    }
+
+    private static final class CachedConnection {
+        private final PartnerConnection connection;
+        private final long createdNanos;
+        private volatile long lastAccessNanos;
+
+        private CachedConnection(PartnerConnection connection, long now) {
+            this.connection = connection;
+            this.createdNanos = now;
+            this.lastAccessNanos = now;
+        }
+
+        private boolean isExpired(long now, long idleTimeoutNanos, long timeToLiveNanos) {
+            return now - lastAccessNanos > idleTimeoutNanos || now - createdNanos > timeToLiveNanos;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.heroku.java.config;
+
+import com.sforce.soap.partner.PartnerConnection;
+import com.sforce.soap.partner.QueryResult;
+import com.sforce.soap.partner.sobject.SObject;
+import com.sforce.ws.ConnectionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Consumer;
+
+/**
+ * The one way the services read Salesforce, routing each call to the protocol chosen by
+ * {@code salesforce.data-access.mode}:
+ * <ul>
+ *   <li>{@code soap} (the default): the Partner SOAP API on the request's {@link PartnerConnection}.</li>
+ *   <li>{@code rest}: the REST query resource, with batches sent through Composite Batch.</li>
+ *   <li>{@code auto}: as {@code rest}, but a row {@link #scan} whose first page reports at least
+ *       {@code salesforce.data-access.bulk-threshold} records is rerun as a Bulk API 2.0 job.</li>
+ * </ul>
+ * Query calls of either protocol go through the {@link SalesforceCallGuard}'s deadlines, retries, hedging and
+ * circuit breaking.
+ */
+@Component
+public class SalesforceDataAccess {
+
+    private static final Logger logger = LoggerFactory.getLogger(SalesforceDataAccess.class);
+
+    public enum Mode {
+        SOAP, REST, AUTO
+    }
+
+    private final SalesforceApi soap;
+    private final SalesforceApi rest;
+    private final BulkQueryClient bulk;
+    private final Mode mode;
+    private final int bulkThreshold;
+
+    @Autowired
+    public SalesforceDataAccess(SoapSalesforceApi soap, RestSalesforceApi rest, BulkQueryClient bulk, SalesforceCallGuard callGuard,
+                                @Value("${salesforce.data-access.mode:soap}") String mode,
+                                @Value("${salesforce.data-access.bulk-threshold:50000}") int bulkThreshold) {
+        this(callGuard.guard(soap), callGuard.guard(rest), bulk, Mode.valueOf(mode.trim().toUpperCase(Locale.ROOT)), bulkThreshold);
+    }
+
+    public SalesforceDataAccess(SalesforceApi soap, SalesforceApi rest, BulkQueryClient bulk, Mode mode, int bulkThreshold) {
+        this.soap = soap;
+        this.rest = rest;
+        this.bulk = bulk;
+        this.mode = mode;
+        this.bulkThreshold = bulkThreshold;
+    }
+
+    public Mode mode() {
+        return mode;
+    }
+
+    public QueryResult query(SalesforceUserContext userContext, PartnerConnection connection, String soql) throws ConnectionException {
+        return api().query(userContext, connection, soql);
+    }
+
+    public QueryResult queryMore(SalesforceUserContext userContext, PartnerConnection connection, String queryLocator) throws ConnectionException {
+        // REST locators are the next page's URL path, SOAP locators a cursor ID
+        SalesforceApi api = queryLocator.startsWith("/") ? rest : soap;
+        return api.queryMore(userContext, connection, queryLocator);
+    }
+
+    /**
+     * Runs independent queries in as few round-trips as the protocol allows, returning their first pages in order.
+     */
+    public List<QueryResult> queryBatch(SalesforceUserContext userContext, PartnerConnection connection, List<String> soqls) throws ConnectionException {
+        return api().queryBatch(userContext, connection, soqls);
+    }
+
+    /**
+     * Passes every record of a query to the handler, paging through the results or, for large results in
+     * {@code auto} mode, reading them from a bulk query job. Returns the number of records read.
+     */
+    public long scan(SalesforceUserContext userContext, PartnerConnection connection, String soql, Consumer<SObject> handler) throws ConnectionException {
+        QueryResult page = query(userContext, connection, soql);
+        if (mode == Mode.AUTO && !page.isDone() && page.getSize() >= bulkThreshold) {
+            // The first page is discarded; one bulk job is still far fewer round-trips than paging. The job itself
+            // is not guarded, see BulkQueryClient
+            logger.debug("Scanning {} records with a bulk query job", page.getSize());
+            return bulk.scan(userContext, soql, handler);
+        }
+        long records = 0;
+        while (true) {
+            for (SObject record : page.getRecords()) {
+                handler.accept(record);
+                records++;
+            }
+            if (page.isDone()) {
+                return records;
+            }
+            page = queryMore(userContext, connection, page.getQueryLocator());
+        }
+    }
+
+    private SalesforceApi api() {
+        return mode == Mode.SOAP ? soap : rest;
+    }
+}
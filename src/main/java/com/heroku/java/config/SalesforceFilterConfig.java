@@ -3,16 +3,35 @@ package com.heroku.java.config;
 import org.springframework.boot.web.servlet.FilterRegistrationBean;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
 @Configuration
-public class SalesforceFilterConfig {
+public class SalesforceFilterConfig implements WebMvcConfigurer {
+
+    private final OrgConcurrencyLimiter limiter;
+
+    public SalesforceFilterConfig(OrgConcurrencyLimiter limiter) {
+        this.limiter = limiter;
+    }
 
     @Bean
-    FilterRegistrationBean<SalesforceClientContextFilter> salesforceFilterRegistration() {
+    FilterRegistrationBean<SalesforceClientContextFilter> salesforceFilterRegistration(ClientContextDecoder clientContextDecoder,
+                                                                                       SalesforceConnectionCache connectionCache,
+                                                                                       RequestStageMetrics stageMetrics) {
         FilterRegistrationBean<SalesforceClientContextFilter> registrationBean = new FilterRegistrationBean<>();
-        SalesforceClientContextFilter filter = new SalesforceClientContextFilter();
+        SalesforceClientContextFilter filter = new SalesforceClientContextFilter(clientContextDecoder, connectionCache, stageMetrics);
         registrationBean.setFilter(filter);
         registrationBean.addUrlPatterns("/api/*");
         return registrationBean;
     }
+
+    // Ahead of the request timing interceptor, so decoding and rejected requests are not counted as compute
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new SalesforceAccessInterceptor(limiter))
+                .addPathPatterns("/api/**")
+                .order(Ordered.HIGHEST_PRECEDENCE);
+    }
 }
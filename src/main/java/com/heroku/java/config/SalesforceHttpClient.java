@@ -0,0 +1,161 @@
+package com.heroku.java.config;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sforce.soap.partner.fault.ApiFault;
+import com.sforce.soap.partner.fault.ApiQueryFault;
+import com.sforce.soap.partner.fault.ExceptionCode;
+import com.sforce.ws.ConnectionException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * HTTP plumbing shared by the REST and Bulk API clients: one JDK {@link HttpClient} (and so one pool of keep-alive
+ * connections) for all orgs, OAuth bearer authentication with the session from the client context, gzip responses,
+ * and Salesforce error bodies turned into the same faults the Partner API throws.
+ * <p>
+ * Requests go to the org's domain from the client context unless {@code salesforce.data-access.base-url} is set,
+ * which points every org at one server, such as a local stub.
+ */
+@Component
+public class SalesforceHttpClient {
+
+    private final HttpClient httpClient;
+    private final ObjectMapper objectMapper;
+    private final String baseUrl;
+    private final Duration requestTimeout;
+
+    @Autowired
+    public SalesforceHttpClient(ObjectMapper objectMapper,
+                                @Value("${salesforce.data-access.base-url:}") String baseUrl,
+                                @Value("${salesforce.client.connect-timeout:PT3S}") Duration connectTimeout,
+                                @Value("${salesforce.client.read-timeout:PT10S}") Duration requestTimeout) {
+        this(HttpClient.newBuilder().connectTimeout(connectTimeout).build(), objectMapper, baseUrl, requestTimeout);
+    }
+
+    public SalesforceHttpClient(HttpClient httpClient, ObjectMapper objectMapper, String baseUrl, Duration requestTimeout) {
+        this.httpClient = httpClient;
+        this.objectMapper = objectMapper;
+        this.baseUrl = baseUrl == null || baseUrl.isBlank() ? null : stripTrailingSlash(baseUrl.trim());
+        this.requestTimeout = requestTimeout;
+    }
+
+    /**
+     * A response whose body has already been checked for errors and decompressed. The caller must close the body.
+     */
+    public record Response(HttpHeaders headers, InputStream body) {
+    }
+
+    /**
+     * Path of the versioned REST API, e.g. {@code /services/data/v62.0}.
+     */
+    public String dataPath(SalesforceUserContext userContext) {
+        return "/services/data/v" + userContext.getApiVersion();
+    }
+
+    public JsonNode getJson(SalesforceUserContext userContext, String path) throws ConnectionException {
+        return readJson(send(userContext, "GET", path, null, "application/json"));
+    }
+
+    public JsonNode sendJson(SalesforceUserContext userContext, String method, String path, Object body) throws ConnectionException {
+        return readJson(send(userContext, method, path, body, "application/json"));
+    }
+
+    /**
+     * Sends a request with an optional JSON body. Transport failures and 5xx responses become plain
+     * ConnectionExceptions, 400 responses ApiQueryFaults, and other 4xx responses ApiFaults.
+     */
+    public Response send(SalesforceUserContext userContext, String method, String path, Object body, String accept) throws ConnectionException {
+        String root = baseUrl != null ? baseUrl : stripTrailingSlash(userContext.getOrgDomainUrl());
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(root + path))
+                .timeout(requestTimeout)
+                .header("Authorization", "Bearer " + userContext.getAccessToken())
+                .header("Accept", accept)
+                .header("Accept-Encoding", "gzip");
+        try {
+            if (body != null) {
+                request.header("Content-Type", "application/json")
+                        .method(method, HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(body)));
+            } else {
+                request.method(method, HttpRequest.BodyPublishers.noBody());
+            }
+            HttpResponse<InputStream> response = httpClient.send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+            InputStream responseBody = response.body();
+            if (response.headers().firstValue("Content-Encoding").filter("gzip"::equalsIgnoreCase).isPresent()) {
+                responseBody = new GZIPInputStream(responseBody);
+            }
+            if (response.statusCode() >= 400) {
+                try (InputStream errorBody = responseBody) {
+                    throw fault(response.statusCode(), errorBody.readAllBytes());
+                }
+            }
+            return new Response(response.headers(), responseBody);
+        } catch (IOException e) {
+            throw new ConnectionException("Salesforce " + method + " " + path.split("\\?", 2)[0] + " failed: " + e, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConnectionException("Interrupted while calling Salesforce", e);
+        }
+    }
+
+    /**
+     * The fault for a Salesforce error response, whose body is a list of {@code {"errorCode", "message"}} objects.
+     */
+    public ConnectionException fault(int statusCode, byte[] body) {
+        String errorCode = null;
+        String message = null;
+        try {
+            JsonNode error = objectMapper.readTree(body);
+            error = error.isArray() ? error.path(0) : error;
+            errorCode = error.path("errorCode").asText(null);
+            message = error.path("message").asText(null);
+        } catch (IOException e) {
+            // Not a Salesforce error body, e.g. a proxy's HTML page
+        }
+        if (statusCode >= 500) {
+            return new ConnectionException("Salesforce returned HTTP " + statusCode + (message != null ? ": " + message : ""));
+        }
+        return fault(statusCode == 400, errorCode, message != null ? message : "HTTP " + statusCode);
+    }
+
+    static ApiFault fault(boolean queryFault, String errorCode, String message) {
+        ApiFault fault = queryFault ? new ApiQueryFault() : new ApiFault();
+        fault.setExceptionCode(exceptionCode(errorCode));
+        fault.setExceptionMessage(message);
+        return fault;
+    }
+
+    private static ExceptionCode exceptionCode(String errorCode) {
+        if (errorCode != null) {
+            try {
+                return ExceptionCode.valueOf(errorCode);
+            } catch (IllegalArgumentException e) {
+                // A REST-only error code
+            }
+        }
+        return ExceptionCode.UNKNOWN_EXCEPTION;
+    }
+
+    private JsonNode readJson(Response response) throws ConnectionException {
+        try (InputStream body = response.body()) {
+            return objectMapper.readTree(body);
+        } catch (IOException e) {
+            throw new ConnectionException("Could not read Salesforce response: " + e, e);
+        }
+    }
+
+    private static String stripTrailingSlash(String url) {
+        return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    }
+}
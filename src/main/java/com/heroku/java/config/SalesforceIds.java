@@ -0,0 +1,25 @@
+package com.heroku.java.config;
+
+/**
+ * Salesforce record IDs as callers send them, in either their 15 or 18 character form.
+ */
+public final class SalesforceIds {
+
+    private SalesforceIds() {
+    }
+
+    /**
+     * The ID in its 15 character form, so both forms of one record compare equal. Salesforce returns 18 character
+     * IDs, callers may send the 15 character form. The ID must not be null.
+     */
+    public static String key(String id) {
+        return id.length() > 15 ? id.substring(0, 15) : id;
+    }
+
+    /**
+     * The ID escaped for a quoted SOQL string literal, so a caller's ID cannot end the literal early.
+     */
+    public static String soqlEscape(String id) {
+        return id.replace("\\", "\\\\").replace("'", "\\'");
+    }
+}
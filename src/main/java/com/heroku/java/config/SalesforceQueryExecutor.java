@@ -0,0 +1,158 @@
+package com.heroku.java.config;
+
+import com.sforce.ws.ConnectionException;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs independent Salesforce calls (queries, queryMore pages, lookups) concurrently so a request pays for its
+ * slowest round-trip rather than the sum of them. Calls are grouped in a {@link Fanout} that shares one deadline:
+ * waiting past it, or any call failing, cancels whatever is still in flight, as does closing the fan-out early.
+ * <p>
+ * Calls run on virtual threads when {@code spring.threads.virtual.enabled} is set, otherwise on a bounded pool of
+ * platform threads. Cancellation interrupts the thread running the call; a SOAP read blocked on a platform thread may only
+ * notice once the socket times out, but the request itself stops waiting at the deadline either way.
+ */
+@Component
+public class SalesforceQueryExecutor implements DisposableBean {
+
+    private final ExecutorService executor;
+    private final Duration timeout;
+
+    @Autowired
+    public SalesforceQueryExecutor(@Value("${salesforce.query.timeout:PT20S}") Duration timeout,
+                                   @Value("${salesforce.query.max-concurrency:64}") int maxConcurrency,
+                                   @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        this(timeout, virtualThreads ? Executors.newVirtualThreadPerTaskExecutor() : platformPool(maxConcurrency));
+    }
+
+    public SalesforceQueryExecutor(Duration timeout, ExecutorService executor) {
+        this.timeout = timeout;
+        this.executor = executor;
+    }
+
+    /**
+     * Starts a fan-out whose calls must all complete within the configured query timeout.
+     */
+    public Fanout fanout() {
+        return fanout(timeout);
+    }
+
+    public Fanout fanout(Duration timeout) {
+        return new Fanout(timeout);
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    private static ExecutorService platformPool(int maxConcurrency) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(maxConcurrency, maxConcurrency, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "soql-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * A Salesforce call that can run on another thread.
+     */
+    @FunctionalInterface
+    public interface SalesforceCall<T> {
+        T call() throws ConnectionException;
+    }
+
+    /**
+     * A group of concurrent calls sharing one deadline. Not thread-safe; use it from the request thread only.
+     */
+    public class Fanout implements AutoCloseable {
+
+        private final Duration timeout;
+        private final long deadlineNanos;
+        private final List<Future<?>> calls = new ArrayList<>();
+
+        private Fanout(Duration timeout) {
+            this.timeout = timeout;
+            this.deadlineNanos = System.nanoTime() + timeout.toNanos();
+        }
+
+        public <T> Future<T> submit(SalesforceCall<T> call) {
+            // Attribute the call's SOQL time to the request that submitted it
+            RequestTimings timings = RequestTimings.current();
+            Future<T> future = executor.submit(() -> RequestTimings.callFor(timings, call::call));
+            calls.add(future);
+            return future;
+        }
+
+        /**
+         * Waits for a call submitted to this fan-out, rethrowing its own exception. On timeout or failure every
+         * call still running is cancelled.
+         */
+        public <T> T await(Future<T> future) throws ConnectionException {
+            long waitStart = System.nanoTime();
+            try {
+                return future.get(Math.max(0, deadlineNanos - waitStart), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                cancelAll();
+                throw new ConnectionException("Salesforce call did not complete within " + timeout, e);
+            } catch (InterruptedException e) {
+                cancelAll();
+                Thread.currentThread().interrupt();
+                throw new ConnectionException("Interrupted while waiting for Salesforce", e);
+            } catch (CancellationException e) {
+                throw new ConnectionException("Salesforce call was cancelled", e);
+            } catch (ExecutionException e) {
+                cancelAll();
+                Throwable cause = e.getCause();
+                if (cause instanceof ConnectionException connectionException) {
+                    throw connectionException;
+                } else if (cause instanceof RuntimeException runtimeException) {
+                    throw runtimeException;
+                } else if (cause instanceof Error error) {
+                    throw error;
+                }
+                throw new IllegalStateException(cause);
+            } finally {
+                RequestTimings timings = RequestTimings.current();
+                if (timings != null) {
+                    timings.addBlocked(System.nanoTime() - waitStart);
+                }
+            }
+        }
+
+        /**
+         * Cancels calls nobody waited for, e.g. when the request failed before reaching them.
+         */
+        @Override
+        public void close() {
+            cancelAll();
+        }
+
+        private void cancelAll() {
+            for (Future<?> call : calls) {
+                call.cancel(true);
+            }
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.heroku.java.config;
+
+import com.sforce.soap.partner.PartnerConnection;
+import com.sforce.soap.partner.QueryResult;
+import com.sforce.soap.partner.fault.ApiFault;
+import com.sforce.soap.partner.sobject.SObject;
+import com.sforce.ws.ConnectionException;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read-through cache for single-record lookups of rarely changing SObjects such as Vehicle_Model__c prices and
+ * Flight__c routes. Records are held per org, each org bounded in size (least recently used goes first) and the
+ * number of orgs bounded the same way. Entries are keyed by the user and session that read them, because the
+ * client context header is only vouched for by Salesforce when a query runs: a record is never served to another
+ * user, or to a session that has not itself read it successfully.
+ * <p>
+ * Entries are fresh for the configured time to live. An expired entry is served once more (a stale read) only if
+ * refreshing it fails with a transport error, never for API faults such as an invalid session.
+ */
+@Component
+public class SalesforceRecordCache implements MeterBinder {
+
+    private static final Logger logger = LoggerFactory.getLogger(SalesforceRecordCache.class);
+
+    private final SalesforceDataAccess dataAccess;
+    private final int maxRecordsPerOrg;
+    private final long timeToLiveNanos;
+    private final long staleIfErrorNanos;
+
+    // Least recently used orgs, and records within an org, are forgotten first
+    private final LruMap<String, LruMap<RecordKey, CachedRecord>> recordsByOrg;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong staleReads = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public SalesforceRecordCache(
+            SalesforceDataAccess dataAccess,
+            @Value("${salesforce.record-cache.max-orgs:256}") int maxOrgs,
+            @Value("${salesforce.record-cache.max-records-per-org:1000}") int maxRecordsPerOrg,
+            @Value("${salesforce.record-cache.time-to-live:PT5M}") Duration timeToLive,
+            @Value("${salesforce.record-cache.stale-if-error:PT30M}") Duration staleIfError) {
+        this.dataAccess = dataAccess;
+        this.maxRecordsPerOrg = maxRecordsPerOrg;
+        this.timeToLiveNanos = timeToLive.toNanos();
+        this.staleIfErrorNanos = staleIfError.toNanos();
+        this.recordsByOrg = new LruMap<>(maxOrgs, records -> evictions.addAndGet(records.size()));
+    }
+
+    /**
+     * Returns the record with the given ID, querying {@code SELECT fields FROM sobjectType} on a miss, or null if
+     * the org has no such record. Missing records are not cached. The returned SObject is shared and must not be
+     * modified.
+     */
+    public SObject getRecord(SalesforceUserContext userContext, PartnerConnection connection,
+                             String sobjectType, String fields, String recordId) throws ConnectionException {
+        RecordKey key = new RecordKey(userContext.getUserId(), userContext.getAccessToken(), sobjectType, fields, SalesforceIds.key(recordId));
+        long now = System.nanoTime();
+        CachedRecord cached;
+        synchronized (recordsByOrg) {
+            LruMap<RecordKey, CachedRecord> records = recordsByOrg.get(userContext.getOrgId());
+            cached = records != null ? records.get(key) : null;
+        }
+        if (cached != null && now - cached.loadedNanos <= timeToLiveNanos) {
+            hits.incrementAndGet();
+            return cached.record;
+        }
+        misses.incrementAndGet();
+
+        SObject record;
+        try {
+            QueryResult result = dataAccess.query(userContext, connection, "SELECT " + fields + " FROM " + sobjectType
+                    + " WHERE Id = '" + SalesforceIds.soqlEscape(recordId) + "'");
+            record = result.getSize() > 0 ? result.getRecords()[0] : null;
+        } catch (ApiFault e) {
+            throw e;
+        } catch (ConnectionException e) {
+            if (cached != null && now - cached.loadedNanos <= timeToLiveNanos + staleIfErrorNanos) {
+                staleReads.incrementAndGet();
+                logger.warn("Serving stale {} {} for org {} after refresh failed: {}", sobjectType, recordId, userContext.getOrgId(), e.toString());
+                return cached.record;
+            }
+            throw e;
+        }
+
+        synchronized (recordsByOrg) {
+            LruMap<RecordKey, CachedRecord> records = recordsByOrg.get(userContext.getOrgId());
+            if (record == null) {
+                if (records != null) {
+                    records.remove(key);
+                }
+                return null;
+            }
+            if (records == null) {
+                records = new LruMap<>(maxRecordsPerOrg, evicted -> evictions.incrementAndGet());
+                recordsByOrg.put(userContext.getOrgId(), records);
+            }
+            records.put(key, new CachedRecord(record, now));
+        }
+        return record;
+    }
+
+    /**
+     * Drops cached records of one org for every user. A null sobjectType matches all types, null or empty
+     * recordIds all records.
+     *
+     * @return the number of records dropped
+     */
+    public int invalidate(String orgId, String sobjectType, Collection<String> recordIds) {
+        Set<String> keys = null;
+        if (recordIds != null && !recordIds.isEmpty()) {
+            keys = new HashSet<>();
+            for (String recordId : recordIds) {
+                if (recordId != null) {
+                    keys.add(SalesforceIds.key(recordId));
+                }
+            }
+        }
+        int removed = 0;
+        synchronized (recordsByOrg) {
+            LruMap<RecordKey, CachedRecord> records = recordsByOrg.get(orgId);
+            if (records == null) {
+                return 0;
+            }
+            Iterator<RecordKey> iterator = records.keySet().iterator();
+            while (iterator.hasNext()) {
+                RecordKey key = iterator.next();
+                if ((sobjectType == null || sobjectType.equalsIgnoreCase(key.sobjectType))
+                        && (keys == null || keys.contains(key.recordId))) {
+                    iterator.remove();
+                    removed++;
+                }
+            }
+            if (records.isEmpty()) {
+                recordsByOrg.remove(orgId);
+            }
+        }
+        evictions.addAndGet(removed);
+        return removed;
+    }
+
+    public int size() {
+        synchronized (recordsByOrg) {
+            int size = 0;
+            for (LruMap<RecordKey, CachedRecord> records : recordsByOrg.values()) {
+                size += records.size();
+            }
+            return size;
+        }
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getStaleReadCount() {
+        return staleReads.get();
+    }
+
+    public double getHitRatio() {
+        long hitCount = hits.get();
+        long total = hitCount + misses.get();
+        return total == 0 ? 0.0 : (double) hitCount / total;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("salesforce.record.cache.requests", hits, AtomicLong::get)
+                .tag("result", "hit")
+                .description("SObject lookups served from the cache")
+                .register(registry);
+        FunctionCounter.builder("salesforce.record.cache.requests", misses, AtomicLong::get)
+                .tag("result", "miss")
+                .description("SObject lookups that queried Salesforce")
+                .register(registry);
+        FunctionCounter.builder("salesforce.record.cache.stale.reads", staleReads, AtomicLong::get)
+                .description("Expired SObjects served because refreshing them from Salesforce failed")
+                .register(registry);
+        FunctionCounter.builder("salesforce.record.cache.evictions", evictions, AtomicLong::get)
+                .description("SObjects removed for size or by explicit invalidation")
+                .register(registry);
+        Gauge.builder("salesforce.record.cache.hit.ratio", this, SalesforceRecordCache::getHitRatio)
+                .description("Share of SObject lookups served from the cache")
+                .register(registry);
+        Gauge.builder("salesforce.record.cache.size", this, SalesforceRecordCache::size)
+                .description("SObjects currently cached across all orgs")
+                .register(registry);
+    }
+
+    private record RecordKey(String userId, String accessToken, String sobjectType, String fields, String recordId) {
+    }
+
+    private record CachedRecord(SObject record, long loadedNanos) {
+    }
+}
@@ -0,0 +1,52 @@
+package com.heroku.java.config;
+
+import com.sforce.soap.partner.PartnerConnection;
+import com.sforce.soap.partner.QueryResult;
+import com.sforce.ws.ConnectionException;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+/**
+ * Reads through the Partner SOAP API on the request's cached {@link PartnerConnection}. SOAP has no batch call, so
+ * a batch runs its queries concurrently on the {@link SalesforceQueryExecutor} instead.
+ */
+@Component
+public class SoapSalesforceApi implements SalesforceApi {
+
+    private final SalesforceQueryExecutor queryExecutor;
+
+    public SoapSalesforceApi(SalesforceQueryExecutor queryExecutor) {
+        this.queryExecutor = queryExecutor;
+    }
+
+    @Override
+    public QueryResult query(SalesforceUserContext userContext, PartnerConnection connection, String soql) throws ConnectionException {
+        return connection.query(soql);
+    }
+
+    @Override
+    public QueryResult queryMore(SalesforceUserContext userContext, PartnerConnection connection, String queryLocator) throws ConnectionException {
+        return connection.queryMore(queryLocator);
+    }
+
+    @Override
+    public List<QueryResult> queryBatch(SalesforceUserContext userContext, PartnerConnection connection, List<String> soqls) throws ConnectionException {
+        if (soqls.size() == 1) {
+            return List.of(connection.query(soqls.get(0)));
+        }
+        try (SalesforceQueryExecutor.Fanout fanout = queryExecutor.fanout()) {
+            List<Future<QueryResult>> queries = new ArrayList<>(soqls.size());
+            for (String soql : soqls) {
+                queries.add(fanout.submit(() -> connection.query(soql)));
+            }
+            List<QueryResult> results = new ArrayList<>(soqls.size());
+            for (Future<QueryResult> query : queries) {
+                results.add(fanout.await(query));
+            }
+            return results;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.heroku.java.config;
+
+import com.sforce.soap.partner.PartnerConnection;
+import com.sforce.soap.partner.QueryResult;
+import com.sforce.ws.ConnectionException;
+import com.sforce.ws.ConnectorConfig;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * PartnerConnection that reports the duration of each query, queryAll and queryMore call to the
+ * {@link RequestTimings} of the request that issued it, tagged with the queried SObject. queryMore calls only
+ * carry a cursor, so the SObject of each open cursor is remembered until its last page has been read.
+ */
+public class TimedPartnerConnection extends PartnerConnection {
+
+    // Cursors abandoned before their last page are dropped wholesale once this many are open
+    private static final int MAX_OPEN_CURSORS = 256;
+
+    private final Map<String, String> sobjectByCursor = new ConcurrentHashMap<>();
+
+    public TimedPartnerConnection(ConnectorConfig config) throws ConnectionException {
+        super(config);
+    }
+
+    @Override
+    public QueryResult query(String queryString) throws ConnectionException {
+        long start = System.nanoTime();
+        String sobject = sobjectOf(queryString);
+        try {
+            return track(super.query(queryString), sobject);
+        } finally {
+            recordQuery(sobject, start);
+        }
+    }
+
+    @Override
+    public QueryResult queryAll(String queryString) throws ConnectionException {
+        long start = System.nanoTime();
+        String sobject = sobjectOf(queryString);
+        try {
+            return track(super.queryAll(queryString), sobject);
+        } finally {
+            recordQuery(sobject, start);
+        }
+    }
+
+    @Override
+    public QueryResult queryMore(String queryLocator) throws ConnectionException {
+        long start = System.nanoTime();
+        String cursor = cursorOf(queryLocator);
+        String sobject = sobjectByCursor.getOrDefault(cursor, "unknown");
+        try {
+            QueryResult result = super.queryMore(queryLocator);
+            if (result.isDone()) {
+                sobjectByCursor.remove(cursor);
+            }
+            return result;
+        } finally {
+            recordQuery(sobject, start);
+        }
+    }
+
+    private QueryResult track(QueryResult result, String sobject) {
+        if (!result.isDone() && result.getQueryLocator() != null) {
+            if (sobjectByCursor.size() >= MAX_OPEN_CURSORS) {
+                sobjectByCursor.clear();
+            }
+            sobjectByCursor.put(cursorOf(result.getQueryLocator()), sobject);
+        }
+        return result;
+    }
+
+    private static void recordQuery(String sobject, long start) {
+        RequestTimings timings = RequestTimings.current();
+        if (timings != null) {
+            timings.recordQuery(sobject, System.nanoTime() - start);
+        }
+    }
+
+    // Query locators look like "01gD0000002HU6KIAW-2000": the cursor ID, then the offset of the next page
+    private static String cursorOf(String queryLocator) {
+        int dash = queryLocator.lastIndexOf('-');
+        return dash > 0 ? queryLocator.substring(0, dash) : queryLocator;
+    }
+
+    // The first identifier after FROM, which for the SOQL this app issues is the queried SObject
+    static String sobjectOf(String soql) {
+        int length = soql.length();
+        for (int i = soql.indexOf(' '); i >= 0 && i + 6 <= length; i = soql.indexOf(' ', i + 1)) {
+            if (soql.regionMatches(true, i, " FROM ", 0, 6)) {
+                int start = i + 6;
+                while (start < length && soql.charAt(start) == ' ') {
+                    start++;
+                }
+                int end = start;
+                while (end < length && (Character.isLetterOrDigit(soql.charAt(end)) || soql.charAt(end) == '_')) {
+                    end++;
+                }
+                if (end > start) {
+                    return soql.substring(start, end);
+                }
+            }
+        }
+        return "unknown";
+    }
+}
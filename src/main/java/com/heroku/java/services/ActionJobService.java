@@ -0,0 +1,190 @@
+package com.heroku.java.services;
+
+import com.heroku.java.config.ActionJobQueue;
+import com.heroku.java.config.SalesforceAccess;
+import com.heroku.java.config.SalesforceUserContext;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.sforce.soap.partner.PartnerConnection;
+
+import com.fasterxml.jackson.annotation.JsonRawValue;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletRequest;
+
+import java.time.Instant;
+import java.util.function.BiFunction;
+
+@Tag(name = "Action Jobs", description = "Runs carbon footprint and finance calculations in the background for results that take longer than an action invocation allows, then returns them by job ID.")
+@RestController
+@SalesforceAccess(SalesforceAccess.Level.CONNECTION)
+@RequestMapping("/api/jobs/")
+public class ActionJobService {
+
+    private final ActionJobQueue jobQueue;
+    private final CarbonFootprintService carbonFootprintService;
+    private final FinanceAgreementService financeAgreementService;
+    private final ObjectMapper objectMapper;
+
+    public ActionJobService(ActionJobQueue jobQueue, CarbonFootprintService carbonFootprintService,
+                            FinanceAgreementService financeAgreementService, ObjectMapper objectMapper) {
+        this.jobQueue = jobQueue;
+        this.carbonFootprintService = carbonFootprintService;
+        this.financeAgreementService = financeAgreementService;
+        this.objectMapper = objectMapper;
+    }
+
+    @Operation(summary = "Submit Carbon Footprint Job", description = "Starts calculating the carbon footprint of a flight in the background and returns a job ID to check for the result with Get Action Job.")
+    @ApiResponse(responseCode = "202", description = "The job was queued.")
+    @PostMapping("/calculateCarbonFootprint")
+    public ResponseEntity<ActionJobResponse> submitCarbonFootprint(
+            @RequestBody CarbonFootprintService.CarbonFootprintRequest request,
+            @Parameter(description = "high, normal (default) or low.") @RequestParam(required = false) String priority,
+            HttpServletRequest httpServletRequest) {
+        CarbonFootprintService.checkFlightId(request.flightId);
+        return submit("calculateCarbonFootprint", priority, httpServletRequest, (userContext, connection) ->
+                result -> objectMapper.writeValue(result, carbonFootprintService.carbonFootprint(userContext, connection, request.flightId)));
+    }
+
+    @Operation(summary = "Submit Carbon Footprints Job", description = "Starts calculating the carbon footprint of several flights, with totals across all of them, in the background and returns a job ID to check for the result with Get Action Job.")
+    @ApiResponse(responseCode = "202", description = "The job was queued.")
+    @PostMapping("/calculateCarbonFootprints")
+    public ResponseEntity<ActionJobResponse> submitCarbonFootprints(
+            @RequestBody CarbonFootprintService.CarbonFootprintBatchRequest request,
+            @Parameter(description = "high, normal (default) or low.") @RequestParam(required = false) String priority,
+            HttpServletRequest httpServletRequest) {
+        CarbonFootprintService.checkFlightIds(request.flightIds);
+        return submit("calculateCarbonFootprints", priority, httpServletRequest, (userContext, connection) ->
+                result -> carbonFootprintService.writeCarbonFootprints(userContext, connection, request.flightIds, false, () -> result));
+    }
+
+    @Operation(summary = "Submit Finance Agreement Job", description = "Starts calculating a finance agreement for a car purchase in the background and returns a job ID to check for the result with Get Action Job.")
+    @ApiResponse(responseCode = "202", description = "The job was queued.")
+    @PostMapping("/calculateFinanceAgreement")
+    public ResponseEntity<ActionJobResponse> submitFinanceAgreement(
+            @RequestBody FinanceAgreementService.FinanceCalculationRequest request,
+            @Parameter(description = "high, normal (default) or low.") @RequestParam(required = false) String priority,
+            HttpServletRequest httpServletRequest) {
+        FinanceAgreementService.checkVehicleId(request.vehicleId);
+        return submit("calculateFinanceAgreement", priority, httpServletRequest, (userContext, connection) ->
+                result -> objectMapper.writeValue(result, financeAgreementService.financeAgreement(userContext, connection, request)));
+    }
+
+    @Operation(summary = "Submit Finance Scenarios Job", description = "Starts comparing finance offers for a car purchase across loan terms, interest rates and down payments in the background and returns a job ID to check for the result with Get Action Job.")
+    @ApiResponse(responseCode = "202", description = "The job was queued.")
+    @PostMapping("/calculateFinanceScenarios")
+    public ResponseEntity<ActionJobResponse> submitFinanceScenarios(
+            @RequestBody FinanceAgreementService.FinanceScenarioRequest request,
+            @Parameter(description = "high, normal (default) or low.") @RequestParam(required = false) String priority,
+            HttpServletRequest httpServletRequest) {
+        // Invalid or too large grids are refused now rather than failing the job later
+        FinanceAgreementService.ScenarioQuery query = FinanceAgreementService.scenarioQuery(request);
+        return submit("calculateFinanceScenarios", priority, httpServletRequest, (userContext, connection) ->
+                result -> objectMapper.writeValue(result, financeAgreementService.financeScenarios(userContext, connection, request, query)));
+    }
+
+    @Operation(summary = "Get Action Job", description = "Returns the status of a background job. Once the status is SUCCEEDED the result holds the calculation; if it is FAILED the error says why. Finished jobs are kept for an hour by default.")
+    @ApiResponse(responseCode = "404", description = "No such job for this user, or it has expired.")
+    @SalesforceAccess(SalesforceAccess.Level.CONTEXT)
+    @PostMapping("/getJob")
+    public ActionJobResponse getJob(@RequestBody GetJobRequest request, HttpServletRequest httpServletRequest) {
+        SalesforceUserContext userContext = (SalesforceUserContext) httpServletRequest.getAttribute("salesforceUserContext");
+        if (userContext == null) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Salesforce connection is not available.");
+        }
+        ActionJobQueue.Job job = jobQueue.get(String.valueOf(request.jobId), userContext);
+        if (job == null) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Job not found.");
+        }
+        return jobResponse(job);
+    }
+
+    private ResponseEntity<ActionJobResponse> submit(String action, String priority, HttpServletRequest httpServletRequest,
+                                                     BiFunction<SalesforceUserContext, PartnerConnection, ActionJobQueue.JobBody> body) {
+        ActionJobQueue.Priority jobPriority = ActionJobQueue.Priority.of(priority);
+
+        // The job keeps the request's connection, so it queries Salesforce as the same user and session
+        PartnerConnection connection = (PartnerConnection) httpServletRequest.getAttribute("salesforcePartnerConnection");
+        SalesforceUserContext userContext = (SalesforceUserContext) httpServletRequest.getAttribute("salesforceUserContext");
+        if (connection == null || userContext == null) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Salesforce connection is not available.");
+        }
+
+        ActionJobQueue.Job job = jobQueue.submit(action, userContext, jobPriority, body.apply(userContext, connection));
+        return ResponseEntity.accepted().body(jobResponse(job));
+    }
+
+    private ActionJobResponse jobResponse(ActionJobQueue.Job job) {
+        ActionJobResponse response = new ActionJobResponse();
+        response.jobId = job.getId();
+        response.action = job.getAction();
+        response.priority = job.getPriority().name();
+        // Read the status first: once it says the job finished, the outcome below is final
+        ActionJobQueue.Status status = job.getStatus();
+        response.status = status.name();
+        response.submittedAt = timestamp(job.getSubmittedAt());
+        response.startedAt = timestamp(job.getStartedAt());
+        response.completedAt = timestamp(job.getCompletedAt());
+        if (status.isDone()) {
+            response.expiresAt = timestamp(jobQueue.expiresAt(job));
+        }
+        if (status == ActionJobQueue.Status.SUCCEEDED) {
+            response.result = job.getResult();
+        } else if (status == ActionJobQueue.Status.FAILED) {
+            response.error = new JobError();
+            response.error.status = job.getErrorStatus();
+            response.error.message = job.getErrorMessage();
+        }
+        return response;
+    }
+
+    private static String timestamp(Instant instant) {
+        return instant != null ? instant.toString() : null;
+    }
+
+    @Schema(description = "Request to check on a background job.")
+    public static class GetJobRequest {
+        @Schema(example = "3f2b8c1e-7d4a-4f0e-9c2b-1a5d6e7f8091", description = "The job ID returned when the job was submitted.")
+        public String jobId;
+    }
+
+    @Schema(description = "Status of a background calculation. Check it again until the status is SUCCEEDED or FAILED, then describe the result or the error in natural language text to the user.")
+    public static class ActionJobResponse {
+        @Schema(example = "3f2b8c1e-7d4a-4f0e-9c2b-1a5d6e7f8091", description = "The ID to check the job with.")
+        public String jobId;
+        @Schema(example = "calculateCarbonFootprints", description = "The calculation the job runs.")
+        public String action;
+        @Schema(example = "RUNNING", description = "QUEUED, RUNNING, SUCCEEDED or FAILED.")
+        public String status;
+        public String priority;
+        public String submittedAt;
+        public String startedAt;
+        public String completedAt;
+        @Schema(description = "When a finished job will no longer be available.")
+        public String expiresAt;
+        @JsonRawValue
+        @Schema(type = "object", description = "The response of the calculation, as its own endpoint returns it, once the job has succeeded.")
+        public String result;
+        public JobError error;
+    }
+
+    @Schema(description = "Why a job failed.")
+    public static class JobError {
+        @Schema(example = "404", description = "The HTTP status the calculation would have returned.")
+        public int status;
+        @Schema(example = "Flight not found in Salesforce.")
+        public String message;
+    }
+}
@@ -0,0 +1,170 @@
+package com.heroku.java.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * In-memory airport coordinate index for great-circle (haversine) distances, loaded once at startup from a bundled
+ * IATA dataset. Three-letter codes are packed into an int (26^3 values) that directly addresses a slot table, and
+ * coordinates live in parallel primitive arrays, so a lookup is a couple of array reads and never allocates.
+ * Computed route distances are memoized in a fixed-size, direct-mapped cache.
+ */
+@Component
+public final class AirportIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(AirportIndex.class);
+
+    private static final int CODE_SPACE = 26 * 26 * 26;
+    private static final double EARTH_RADIUS_KM = 6371.0088;
+    private static final int ROUTE_CACHE_SIZE = 4096; // power of two
+    private static final long EMPTY = -1L;
+
+    // Packed IATA code -> airport slot + 1 (0 means unknown)
+    private final short[] slotByCode = new short[CODE_SPACE];
+    private final double[] latitudeRadians;
+    private final double[] longitudeRadians;
+    private final double[] cosLatitude;
+    private final int size;
+
+    // Each entry holds (packed route << 32 | distance km) so a racing reader never sees a key with another's value
+    private final AtomicLongArray routeCache = new AtomicLongArray(ROUTE_CACHE_SIZE);
+
+    @Autowired
+    public AirportIndex(@Value("${carbon.airports.resource:classpath:airports/airports.csv}") Resource airports) throws IOException {
+        this(airports.getInputStream());
+        logger.info("Loaded {} airports from {} into a {} byte index", size, airports.getDescription(), footprintBytes());
+    }
+
+    public AirportIndex(InputStream csv) throws IOException {
+        int capacity = 1024;
+        int count = 0;
+        double[] latitudes = new double[capacity];
+        double[] longitudes = new double[capacity];
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(csv, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.charAt(0) == '#' || line.startsWith("iata,")) {
+                    continue;
+                }
+                String[] columns = line.split(",", 4);
+                int code = packCode(columns[0]);
+                if (code < 0 || columns.length < 3) {
+                    continue;
+                }
+                if (slotByCode[code] != 0) {
+                    continue; // first occurrence wins
+                }
+                if (count == Short.MAX_VALUE) {
+                    throw new IllegalStateException("Airport index is limited to " + Short.MAX_VALUE + " airports");
+                }
+                if (count == capacity) {
+                    capacity *= 2;
+                    latitudes = Arrays.copyOf(latitudes, capacity);
+                    longitudes = Arrays.copyOf(longitudes, capacity);
+                }
+                latitudes[count] = Math.toRadians(Double.parseDouble(columns[1]));
+                longitudes[count] = Math.toRadians(Double.parseDouble(columns[2]));
+                slotByCode[code] = (short) (++count);
+            }
+        }
+        this.size = count;
+        this.latitudeRadians = Arrays.copyOf(latitudes, count);
+        this.longitudeRadians = Arrays.copyOf(longitudes, count);
+        this.cosLatitude = new double[count];
+        for (int i = 0; i < count; i++) {
+            cosLatitude[i] = Math.cos(latitudeRadians[i]);
+        }
+        for (int i = 0; i < ROUTE_CACHE_SIZE; i++) {
+            routeCache.set(i, EMPTY);
+        }
+    }
+
+    /**
+     * Great-circle distance between two airports in whole kilometres, or -1 if either code is unknown.
+     */
+    public int distanceKm(String origin, String destination) {
+        int from = packCode(origin);
+        int to = packCode(destination);
+        if (from < 0 || to < 0) {
+            return -1;
+        }
+        // Distances are symmetric, so both directions share one cache entry
+        long route = from < to ? (long) from * CODE_SPACE + to : (long) to * CODE_SPACE + from;
+        int bucket = (int) (route ^ (route >>> 12)) & (ROUTE_CACHE_SIZE - 1);
+        long cached = routeCache.get(bucket);
+        if (cached != EMPTY && (cached >>> 32) == route) {
+            return (int) cached;
+        }
+        int fromSlot = slotByCode[from] - 1;
+        int toSlot = slotByCode[to] - 1;
+        if (fromSlot < 0 || toSlot < 0) {
+            return -1;
+        }
+        int distanceKm = (int) Math.round(haversineKm(fromSlot, toSlot));
+        routeCache.set(bucket, route << 32 | distanceKm);
+        return distanceKm;
+    }
+
+    public boolean contains(String code) {
+        int packed = packCode(code);
+        return packed >= 0 && slotByCode[packed] != 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Approximate retained heap of the index arrays (payload plus 16 byte array headers).
+     */
+    public long footprintBytes() {
+        return (16L + 2L * CODE_SPACE) + 3 * (16L + 8L * size) + (16L + 8L * ROUTE_CACHE_SIZE);
+    }
+
+    private double haversineKm(int from, int to) {
+        double sinHalfLatitude = Math.sin((latitudeRadians[to] - latitudeRadians[from]) / 2);
+        double sinHalfLongitude = Math.sin((longitudeRadians[to] - longitudeRadians[from]) / 2);
+        double a = sinHalfLatitude * sinHalfLatitude
+                + cosLatitude[from] * cosLatitude[to] * sinHalfLongitude * sinHalfLongitude;
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1.0, Math.sqrt(a)));
+    }
+
+    // Packs a three-letter IATA code (case-insensitive) into 0..26^3-1, or -1 if it isn't one
+    private static int packCode(String code) {
+        if (code == null) {
+            return -1;
+        }
+        int length = code.length();
+        int start = 0;
+        while (start < length && code.charAt(start) == ' ') {
+            start++;
+        }
+        while (length > start && code.charAt(length - 1) == ' ') {
+            length--;
+        }
+        if (length - start != 3) {
+            return -1;
+        }
+        int packed = 0;
+        for (int i = start; i < length; i++) {
+            int letter = (code.charAt(i) | 0x20) - 'a';
+            if (letter < 0 || letter >= 26) {
+                return -1;
+            }
+            packed = packed * 26 + letter;
+        }
+        return packed;
+    }
+}
@@ -1,8 +1,17 @@
 package com.heroku.java.services;
 
+import com.heroku.java.config.RequestCoalescer;
+import com.heroku.java.config.SalesforceAccess;
+import com.heroku.java.config.SalesforceDataAccess;
+import com.heroku.java.config.SalesforceIds;
+import com.heroku.java.config.SalesforceQueryExecutor;
+import com.heroku.java.config.SalesforceRecordCache;
+import com.heroku.java.config.SalesforceUserContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -11,29 +20,70 @@ import org.springframework.web.server.ResponseStatusException;
 
 import com.sforce.soap.partner.PartnerConnection;
 import com.sforce.soap.partner.QueryResult;
+import com.sforce.soap.partner.fault.ApiQueryFault;
 import com.sforce.soap.partner.sobject.SObject;
 import com.sforce.ws.ConnectionException;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.time.Instant;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Future;
 
 @Tag(name = "Carbon Footprint Calculation", description = "Calculates the carbon footprint for a given flight based on real-time Salesforce data, including checked-in passengers.")
 @RestController
+@SalesforceAccess(SalesforceAccess.Level.CONNECTION)
 @RequestMapping("/api/")
 public class CarbonFootprintService {
 
     private static final Logger logger = LoggerFactory.getLogger(CarbonFootprintService.class);
 
-    // Constants for Seat Classes
-    private static final String ECONOMY = "Economy";
-    private static final String BUSINESS = "Business";
-    private static final String FIRST_CLASS = "FirstClass";
+    // Keeps the flight and booking aggregate queries within a single result batch
+    private static final int MAX_BATCH_FLIGHTS = 500;
+
+    private static final int DEFAULT_DISTANCE_KM = 500;
+
+    private static final SerializedString NDJSON_SEPARATOR = new SerializedString("\n");
+
+    // Per-class passenger counters are indexed by seat class ordinal
+    private static final int SEAT_CLASS_COUNT = EmissionFactorModel.SeatClass.values().length;
+
+    private static final double FUEL_TO_CO2_RATIO = 3.16;
+
+    private final AirportIndex airportIndex;
+    private final EmissionFactorModel emissionFactorModel;
+    private final SalesforceDataAccess dataAccess;
+    private final SalesforceQueryExecutor queryExecutor;
+    private final SalesforceRecordCache recordCache;
+    private final RequestCoalescer requestCoalescer;
+    private final ObjectMapper objectMapper;
+
+    public CarbonFootprintService(AirportIndex airportIndex, EmissionFactorModel emissionFactorModel, SalesforceDataAccess dataAccess,
+                                  SalesforceQueryExecutor queryExecutor, SalesforceRecordCache recordCache, RequestCoalescer requestCoalescer,
+                                  ObjectMapper objectMapper) {
+        this.airportIndex = airportIndex;
+        this.emissionFactorModel = emissionFactorModel;
+        this.dataAccess = dataAccess;
+        this.queryExecutor = queryExecutor;
+        this.recordCache = recordCache;
+        this.requestCoalescer = requestCoalescer;
+        this.objectMapper = objectMapper;
+    }
 
     @Operation(summary = "Calculate Carbon Footprint", description = "Calculates the carbon footprint for a given flight using real DEFRA 2023 factors and live Salesforce passenger data.")
     @PostMapping("/calculateCarbonFootprint")
@@ -41,23 +91,32 @@ public class CarbonFootprintService {
             @RequestBody CarbonFootprintRequest request, HttpServletRequest httpServletRequest) {
 
         logger.info("Processing carbon footprint calculation for Flight ID: {}", request.flightId);
+        checkFlightId(request.flightId);
 
         // Obtain Salesforce connection
         PartnerConnection connection = (PartnerConnection) httpServletRequest.getAttribute("salesforcePartnerConnection");
-        if (connection == null) {
+        SalesforceUserContext userContext = (SalesforceUserContext) httpServletRequest.getAttribute("salesforceUserContext");
+        if (connection == null || userContext == null) {
             throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Salesforce connection is not available.");
         }
 
-        try {
-            // Query Flight details from Salesforce
-            String flightSoql = String.format(
-                "SELECT Airline__c, Origin_Airport_Code__c, Destination_Airport_Code__c " +
-                "FROM Flight__c WHERE Id = '%s'", request.flightId);
-            QueryResult flightResult = connection.query(flightSoql);
-            if (flightResult.getSize() == 0) {
+        // Agents retry calls that are still running, identical ones share the running calculation. The flight ID is
+        // echoed in the flight number, so only the exact same ID is shared.
+        return requestCoalescer.execute("/api/calculateCarbonFootprint", userContext, request.flightId,
+                () -> carbonFootprint(userContext, connection, request.flightId));
+    }
+
+    CarbonFootprintResponse carbonFootprint(SalesforceUserContext userContext, PartnerConnection connection, String flightId) {
+        try (SalesforceQueryExecutor.Fanout fanout = queryExecutor.fanout()) {
+            // Look up the Flight route (rarely changes, so cached) and count checked-in passengers per class from
+            // Booking__c concurrently
+            Future<SObject> flightLookup = fanout.submit(() -> recordCache.getRecord(userContext, connection, "Flight__c",
+                "Airline__c, Origin_Airport_Code__c, Destination_Airport_Code__c", flightId));
+            Future<int[]> bookingCounts = fanout.submit(() -> countBookingsByClass(userContext, connection, flightId));
+            SObject flight = fanout.await(flightLookup);
+            if (flight == null) {
                 throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Flight not found in Salesforce.");
             }
-            SObject flight = flightResult.getRecords()[0];
             String airline = (String) flight.getField("Airline__c");
             String originAirport = (String) flight.getField("Origin_Airport_Code__c");
             String destinationAirport = (String) flight.getField("Destination_Airport_Code__c");
@@ -65,82 +124,294 @@ public class CarbonFootprintService {
             // Calculate distance
             int distanceKm = estimateDistance(originAirport, destinationAirport);
 
-            // Query checked-in passengers from Booking__c
-            String bookingSoql = String.format(
-                "SELECT Class__c FROM Booking__c WHERE Flight__c = '%s'", 
-                request.flightId);
-            QueryResult bookingResult = connection.query(bookingSoql);
-            int checkedInEconomy = 0, checkedInBusiness = 0, checkedInFirstClass = 0;
-            for (SObject booking : bookingResult.getRecords()) {
-                String seatClass = (String) booking.getField("Class__c");
-                if (ECONOMY.equalsIgnoreCase(seatClass)) {
-                    checkedInEconomy++;
-                } else if (BUSINESS.equalsIgnoreCase(seatClass)) {
-                    checkedInBusiness++;
-                } else if (FIRST_CLASS.equalsIgnoreCase(seatClass)) {
-                    checkedInFirstClass++;
-                }
-            }
-
-            // Use DEFRA 2023 factors to calculate emissions
-            int totalCheckedInPassengers = checkedInEconomy + checkedInBusiness + checkedInFirstClass;
-            double totalCo2Kg = (checkedInEconomy * getEmissionFactorPerKm(ECONOMY, distanceKm) * distanceKm) +
-                                (checkedInBusiness * getEmissionFactorPerKm(BUSINESS, distanceKm) * distanceKm) +
-                                (checkedInFirstClass * getEmissionFactorPerKm(FIRST_CLASS, distanceKm) * distanceKm);
-            double co2PerPassengerKg = totalCheckedInPassengers > 0 ? totalCo2Kg / totalCheckedInPassengers : totalCo2Kg;
-            double co2PerKmKg = totalCo2Kg / distanceKm;
+            int[] classCounts = fanout.await(bookingCounts);
+            int totalCheckedInPassengers = passengerCount(classCounts);
 
-            // Build response
+            // Build response, using the configured emission factors to calculate emissions
             CarbonFootprintResponse response = new CarbonFootprintResponse();
             response.flight = new FlightInfo();
-            response.flight.flightNumber = airline + "-" + request.flightId;
+            response.flight.flightNumber = airline + "-" + flightId;
             response.flight.departureAirport = originAirport;
             response.flight.arrivalAirport = destinationAirport;
             response.flight.distanceKm = distanceKm;
             response.flight.passengerCount = totalCheckedInPassengers;
-            response.emissions = new EmissionsData();
-            response.emissions.totalCo2Kg = totalCo2Kg;
-            response.emissions.co2PerPassengerKg = co2PerPassengerKg;
-            response.emissions.co2PerKmKg = co2PerKmKg;
-            response.methodology = new Methodology();
-            response.methodology.calculationBasis = "DEFRA 2023 emission factors per passenger-km";
-            response.methodology.fuelToCo2Ratio = 3.16;
-            response.methodology.radiativeForcingMultiplier = 1.9;
-            response.methodology.dataSource = "DEFRA & ICAO Aviation Emissions Guidelines";
+            response.emissions = calculateEmissions(distanceKm, classCounts);
+            response.methodology = methodology();
             response.timestamp = Instant.now().toString();
-            response.units = new HashMap<>();
-            response.units.put("distance", "km");
-            response.units.put("emissions", "kg CO2e");
+            response.units = emissionUnits();
             return response;
 
         } catch (ConnectionException e) {
             throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Failed to connect to Salesforce.", e);
+        } catch (ResponseStatusException e) {
+            throw e;
         } catch (Exception e) {
             throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "An unexpected error occurred.", e);
         }
     }
 
-    // Distance estimation based on your dataset
-    private int estimateDistance(String origin, String destination) {
-        Map<String, Integer> sampleDistances = new HashMap<>();
-        sampleDistances.put("LAX-SFO", 543);
-        sampleDistances.put("SFO-LAX", 543);
-        sampleDistances.put("JFK-SFO", 4162);
-        sampleDistances.put("SFO-JFK", 4162);
-        return sampleDistances.getOrDefault(origin + "-" + destination, 500);
+    @Operation(summary = "Calculate Carbon Footprints", description = "Calculates the carbon footprint for several flights in one call using DEFRA 2023 factors and live Salesforce passenger data, with totals across all the flights.")
+    @ApiResponse(responseCode = "200", description = "OK", content = {
+        @Content(mediaType = MediaType.APPLICATION_JSON_VALUE, schema = @Schema(implementation = CarbonFootprintBatchResponse.class)),
+        @Content(mediaType = MediaType.APPLICATION_NDJSON_VALUE, schema = @Schema(oneOf = { FlightFootprint.class, CarbonFootprintBatchSummary.class },
+            description = "One FlightFootprint per line, then a CarbonFootprintBatchSummary as the last line.")) })
+    @PostMapping(value = "/calculateCarbonFootprints", produces = { MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE })
+    public void calculateCarbonFootprints(
+            @RequestBody CarbonFootprintBatchRequest request, HttpServletRequest httpServletRequest,
+            HttpServletResponse httpServletResponse) throws IOException {
+
+        checkFlightIds(request.flightIds);
+        logger.info("Processing carbon footprint calculation for {} flights", request.flightIds.size());
+
+        // Obtain Salesforce connection
+        PartnerConnection connection = (PartnerConnection) httpServletRequest.getAttribute("salesforcePartnerConnection");
+        SalesforceUserContext userContext = (SalesforceUserContext) httpServletRequest.getAttribute("salesforceUserContext");
+        if (connection == null || userContext == null) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Salesforce connection is not available.");
+        }
+
+        boolean ndjson = acceptsNdjson(httpServletRequest);
+        writeCarbonFootprints(userContext, connection, request.flightIds, ndjson, () -> {
+            httpServletResponse.setContentType(ndjson ? MediaType.APPLICATION_NDJSON_VALUE : MediaType.APPLICATION_JSON_VALUE);
+            return httpServletResponse.getOutputStream();
+        });
+    }
+
+    static void checkFlightId(String flightId) {
+        if (flightId == null || flightId.isBlank()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "A flight ID is required.");
+        }
+    }
+
+    static void checkFlightIds(List<String> flightIds) {
+        if (flightIds == null || flightIds.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "At least one flight ID is required.");
+        }
+        if (flightIds.size() > MAX_BATCH_FLIGHTS) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "At most " + MAX_BATCH_FLIGHTS + " flight IDs are allowed per call.");
+        }
+        for (String flightId : flightIds) {
+            if (flightId == null || flightId.isBlank()) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Flight IDs must not be empty.");
+            }
+        }
+    }
+
+    /**
+     * Writes the footprints of the given flights, as JSON or NDJSON, to the output, which is only opened once the
+     * first flight and booking queries have succeeded.
+     */
+    void writeCarbonFootprints(SalesforceUserContext userContext, PartnerConnection connection, List<String> flightIds,
+                               boolean ndjson, ResponseOutput output) throws IOException {
+        // Requested IDs by their 15 character key, in request order; whatever is left once all flights are read was not found
+        Map<String, String> pendingFlightIds = new LinkedHashMap<>();
+        for (String flightId : flightIds) {
+            pendingFlightIds.putIfAbsent(SalesforceIds.key(flightId), flightId);
+        }
+
+        try {
+            String flightIdList = soqlIdList(flightIds);
+
+            // Query the first page of flights, and count passengers per flight and class in one aggregate, as one batch
+            String flightSoql = "SELECT Id, Airline__c, Origin_Airport_Code__c, Destination_Airport_Code__c " +
+                "FROM Flight__c WHERE Id IN (" + flightIdList + ")";
+            String bookingSoql = "SELECT Flight__c, Class__c, COUNT(Id) passengers FROM Booking__c " +
+                "WHERE Flight__c IN (" + flightIdList + ") GROUP BY Flight__c, Class__c";
+            List<QueryResult> results = dataAccess.queryBatch(userContext, connection, List.of(flightSoql, bookingSoql));
+            QueryResult flightResult = results.get(0);
+            Map<String, int[]> classCountsByFlight = countBookingsByFlightAndClass(results.get(1));
+
+            // Nothing has been written so far, so the failures above still become error responses. From here on each
+            // page of flights is written as soon as it is read, while the next page is being fetched.
+            FleetTotals fleetTotals = new FleetTotals();
+            try (JsonGenerator json = objectMapper.getFactory().createGenerator(output.open())) {
+                if (ndjson) {
+                    json.setRootValueSeparator(NDJSON_SEPARATOR);
+                } else {
+                    json.writeStartObject();
+                    json.writeArrayFieldStart("flights");
+                }
+                while (flightResult != null) {
+                    try (SalesforceQueryExecutor.Fanout fanout = queryExecutor.fanout()) {
+                        QueryResult page = flightResult;
+                        Future<QueryResult> nextPage = page.isDone() ? null : fanout.submit(() -> dataAccess.queryMore(userContext, connection, page.getQueryLocator()));
+                        for (SObject flight : page.getRecords()) {
+                            String flightId = pendingFlightIds.remove(SalesforceIds.key(flight.getId()));
+                            if (flightId == null) {
+                                continue;
+                            }
+                            FlightFootprint footprint = flightFootprint(flight, flightId, classCountsByFlight);
+                            json.writeObject(footprint);
+                            fleetTotals.flightCount++;
+                            fleetTotals.passengerCount += footprint.flight.passengerCount;
+                            fleetTotals.distanceKm += footprint.flight.distanceKm;
+                            fleetTotals.totalCo2Kg += footprint.emissions.totalCo2Kg;
+                        }
+                        json.flush();
+                        flightResult = nextPage != null ? fanout.await(nextPage) : null;
+                    }
+                }
+                fleetTotals.co2PerPassengerKg = fleetTotals.passengerCount > 0
+                    ? fleetTotals.totalCo2Kg / fleetTotals.passengerCount : fleetTotals.totalCo2Kg;
+
+                // Close the flights array and finish the response object, or write the summary as the last NDJSON line
+                if (ndjson) {
+                    json.writeStartObject();
+                } else {
+                    json.writeEndArray();
+                }
+                json.writeObjectField("notFoundFlightIds", pendingFlightIds.values());
+                json.writeObjectField("fleetTotals", fleetTotals);
+                json.writeObjectField("methodology", methodology());
+                json.writeStringField("timestamp", Instant.now().toString());
+                json.writeObjectField("units", emissionUnits());
+                json.writeEndObject();
+                if (ndjson) {
+                    json.writeRaw('\n');
+                }
+            }
+
+        } catch (ConnectionException e) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Failed to connect to Salesforce.", e);
+        } catch (ResponseStatusException | IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "An unexpected error occurred.", e);
+        }
+    }
+
+    private FlightFootprint flightFootprint(SObject flight, String flightId, Map<String, int[]> classCountsByFlight) {
+        String originAirport = (String) flight.getField("Origin_Airport_Code__c");
+        String destinationAirport = (String) flight.getField("Destination_Airport_Code__c");
+        int distanceKm = estimateDistance(originAirport, destinationAirport);
+        int[] classCounts = classCountsByFlight.getOrDefault(SalesforceIds.key(flightId), new int[SEAT_CLASS_COUNT]);
+
+        FlightFootprint footprint = new FlightFootprint();
+        footprint.flight = new FlightInfo();
+        footprint.flight.flightNumber = flight.getField("Airline__c") + "-" + flightId;
+        footprint.flight.departureAirport = originAirport;
+        footprint.flight.arrivalAirport = destinationAirport;
+        footprint.flight.distanceKm = distanceKm;
+        footprint.flight.passengerCount = passengerCount(classCounts);
+        footprint.emissions = calculateEmissions(distanceKm, classCounts);
+        return footprint;
+    }
+
+    // Checked-in passengers per flight (by 15 character ID) and class, from COUNT(Id) ... GROUP BY Flight__c, Class__c rows
+    private static Map<String, int[]> countBookingsByFlightAndClass(QueryResult bookingGroups) {
+        Map<String, int[]> classCountsByFlight = new HashMap<>();
+        for (SObject group : bookingGroups.getRecords()) {
+            int[] classCounts = classCountsByFlight.computeIfAbsent(SalesforceIds.key((String) group.getField("Flight__c")), k -> new int[SEAT_CLASS_COUNT]);
+            int seatClass = seatClassIndex((String) group.getField("Class__c"));
+            if (seatClass >= 0) {
+                classCounts[seatClass] += Integer.parseInt(group.getField("passengers").toString());
+            }
+        }
+        return classCountsByFlight;
+    }
+
+    // NDJSON only when the client asks for it explicitly, a wildcard Accept keeps the documented JSON object
+    private static boolean acceptsNdjson(HttpServletRequest httpServletRequest) {
+        String accept = httpServletRequest.getHeader(HttpHeaders.ACCEPT);
+        if (accept == null) {
+            return false;
+        }
+        for (MediaType mediaType : MediaType.parseMediaTypes(accept)) {
+            if (MediaType.APPLICATION_NDJSON.equalsTypeAndSubtype(mediaType)) {
+                return true;
+            }
+        }
+        return false;
     }
 
-    // Use DEFRA 2023 per-passenger-km factors
-    private double getEmissionFactorPerKm(String seatClass, int distanceKm) {
-        boolean isLongHaul = distanceKm > 1500;
-        if (ECONOMY.equalsIgnoreCase(seatClass)) {
-            return isLongHaul ? 0.102 : 0.158;
-        } else if (BUSINESS.equalsIgnoreCase(seatClass)) {
-            return isLongHaul ? 0.293 : 0.287;
-        } else if (FIRST_CLASS.equalsIgnoreCase(seatClass)) {
-            return isLongHaul ? 0.435 : 0.474;
+    // Checked-in passengers per class, counted by Salesforce with an aggregate query. If the org rejects the query
+    // shape, fall back to scanning Booking__c rows so large flights are still counted in full.
+    private int[] countBookingsByClass(SalesforceUserContext userContext, PartnerConnection connection, String flightId) throws ConnectionException {
+        int[] classCounts = new int[SEAT_CLASS_COUNT];
+        String escapedFlightId = SalesforceIds.soqlEscape(flightId);
+        try {
+            String aggregateSoql = "SELECT Class__c, COUNT(Id) passengers FROM Booking__c " +
+                "WHERE Flight__c = '" + escapedFlightId + "' GROUP BY Class__c";
+            for (SObject group : dataAccess.query(userContext, connection, aggregateSoql).getRecords()) {
+                int seatClass = seatClassIndex((String) group.getField("Class__c"));
+                if (seatClass >= 0) {
+                    classCounts[seatClass] += Integer.parseInt(group.getField("passengers").toString());
+                }
+            }
+            return classCounts;
+        } catch (ApiQueryFault e) {
+            logger.warn("Aggregate booking count failed ({}), scanning Booking__c rows for flight {}", e.getExceptionCode(), flightId);
+        }
+        dataAccess.scan(userContext, connection, "SELECT Class__c FROM Booking__c WHERE Flight__c = '" + escapedFlightId + "'", booking -> {
+            int seatClass = seatClassIndex((String) booking.getField("Class__c"));
+            if (seatClass >= 0) {
+                classCounts[seatClass]++;
+            }
+        });
+        return classCounts;
+    }
+
+    // Counter slot of a Class__c value, or -1 for classes without an emission factor
+    private static int seatClassIndex(String seatClass) {
+        EmissionFactorModel.SeatClass known = EmissionFactorModel.SeatClass.fromPicklistValue(seatClass);
+        return known != null ? known.ordinal() : -1;
+    }
+
+    private static int passengerCount(int[] classCounts) {
+        int passengers = 0;
+        for (int count : classCounts) {
+            passengers += count;
+        }
+        return passengers;
+    }
+
+    // Emissions for one flight from its checked-in passengers per class
+    private EmissionsData calculateEmissions(int distanceKm, int[] classCounts) {
+        int totalPassengers = passengerCount(classCounts);
+        double totalCo2Kg = emissionFactorModel.flightEmissionsKg(distanceKm, classCounts);
+        EmissionsData emissions = new EmissionsData();
+        emissions.totalCo2Kg = totalCo2Kg;
+        emissions.co2PerPassengerKg = totalPassengers > 0 ? totalCo2Kg / totalPassengers : totalCo2Kg;
+        emissions.co2PerKmKg = totalCo2Kg / distanceKm;
+        return emissions;
+    }
+
+    private Methodology methodology() {
+        Methodology methodology = new Methodology();
+        methodology.calculationBasis = emissionFactorModel.version() + " emission factors per passenger-km";
+        methodology.fuelToCo2Ratio = FUEL_TO_CO2_RATIO;
+        methodology.radiativeForcingMultiplier = emissionFactorModel.radiativeForcingMultiplier();
+        methodology.dataSource = "DEFRA & ICAO Aviation Emissions Guidelines";
+        return methodology;
+    }
+
+    private static Map<String, String> emissionUnits() {
+        Map<String, String> units = new HashMap<>();
+        units.put("distance", "km");
+        units.put("emissions", "kg CO2e");
+        return units;
+    }
+
+    // Quoted, escaped ID list for a SOQL IN clause
+    private static String soqlIdList(List<String> ids) {
+        StringBuilder list = new StringBuilder();
+        for (String id : ids) {
+            if (list.length() > 0) {
+                list.append(',');
+            }
+            list.append('\'').append(SalesforceIds.soqlEscape(id)).append('\'');
         }
-        return 0.158; // Default to economy if unknown
+        return list.toString();
+    }
+
+    // Great-circle distance between the airports, with the previous flat estimate for routes the index can't place
+    int estimateDistance(String origin, String destination) {
+        int distanceKm = airportIndex.distanceKm(origin, destination);
+        if (distanceKm < 0) {
+            logger.warn("Unknown airport on route {}-{}, using default distance of {} km", origin, destination, DEFAULT_DISTANCE_KM);
+            return DEFAULT_DISTANCE_KM;
+        }
+        return distanceKm;
     }
 
     @Schema(description = "Request to calculate the carbon footprint of a flight.")
@@ -148,6 +419,20 @@ public class CarbonFootprintService {
         public String flightId;
     }
 
+    /**
+     * Where a batch response is written: the servlet response, or the result of an asynchronous job.
+     */
+    @FunctionalInterface
+    interface ResponseOutput {
+        OutputStream open() throws IOException;
+    }
+
+    @Schema(description = "Request to calculate the carbon footprint of several flights in one call.")
+    public static class CarbonFootprintBatchRequest {
+        @Schema(description = "The Salesforce record IDs of the flights.", example = "[\"a02Hs00001D2QtLIAV\", \"a02Hs00001D2QtMIAV\"]")
+        public List<String> flightIds;
+    }
+
     @Schema(description = "Response containing the calculated carbon footprint for the flight.")
     public static class CarbonFootprintResponse {
         public FlightInfo flight;
@@ -157,6 +442,42 @@ public class CarbonFootprintService {
         public Map<String, String> units;
     }
 
+    // Documents the JSON form of calculateCarbonFootprints, which is streamed field by field rather than built
+    @Schema(description = "Response containing the calculated carbon footprint for each flight and the totals across all of them. Describe the results in natural language text to the user.")
+    public static class CarbonFootprintBatchResponse {
+        public List<FlightFootprint> flights;
+        public List<String> notFoundFlightIds;
+        public FleetTotals fleetTotals;
+        public Methodology methodology;
+        public String timestamp;
+        public Map<String, String> units;
+    }
+
+    // Documents the last line of the NDJSON form of calculateCarbonFootprints, after one line per flight
+    @Schema(description = "Totals across all the flights of a streamed batch, sent after the last flight.")
+    public static class CarbonFootprintBatchSummary {
+        public List<String> notFoundFlightIds;
+        public FleetTotals fleetTotals;
+        public Methodology methodology;
+        public String timestamp;
+        public Map<String, String> units;
+    }
+
+    @Schema(description = "Carbon footprint of a single flight within a batch.")
+    public static class FlightFootprint {
+        public FlightInfo flight;
+        public EmissionsData emissions;
+    }
+
+    @Schema(description = "Totals across all the flights found in a batch.")
+    public static class FleetTotals {
+        public int flightCount;
+        public int passengerCount;
+        public long distanceKm;
+        public double totalCo2Kg;
+        public double co2PerPassengerKg;
+    }
+
     @Schema(description = "Flight information details.")
     public static class FlightInfo {
         public String flightNumber;
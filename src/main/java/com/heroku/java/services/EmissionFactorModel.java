@@ -0,0 +1,288 @@
+package com.heroku.java.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Passenger air travel emission factors per passenger-km by seat class and distance band, loaded once at startup
+ * from a versioned table (DEFRA 2023 by default). Factors live in a flat array indexed by band and
+ * {@link SeatClass} ordinal, with or without the radiative forcing uplift as {@code carbon.emission-factors.radiative-forcing}
+ * selects.
+ * <p>
+ * For bulk work over millions of passenger-legs, such as nightly reports over booking exports, the emissions of a
+ * leg for every whole kilometre up to {@link #MAX_TABLE_KM} are precomputed per class, so {@link #totalEmissionsKg}
+ * and {@link #emissionsKg} read each leg's emissions with a single lookup and no branches on the class or band.
+ * The actions themselves total a flight from its passengers per class with {@link #flightEmissionsKg}, so for now
+ * only the benchmarks in src/jmh call the per-leg methods.
+ */
+@Component
+public class EmissionFactorModel {
+
+    private static final Logger logger = LoggerFactory.getLogger(EmissionFactorModel.class);
+
+    // Just over the longest great-circle distance between two points on Earth
+    static final int MAX_TABLE_KM = 20_100;
+
+    private static final int CLASS_COUNT = SeatClass.VALUES.length;
+    private static final String LAST_BAND = "*";
+
+    /**
+     * Seat classes by their {@code Booking__c.Class__c} picklist value.
+     */
+    public enum SeatClass {
+        ECONOMY("Economy"),
+        BUSINESS("Business"),
+        FIRST_CLASS("FirstClass");
+
+        static final SeatClass[] VALUES = values();
+        private static final Map<String, SeatClass> BY_PICKLIST_VALUE = new HashMap<>();
+
+        static {
+            for (SeatClass seatClass : VALUES) {
+                BY_PICKLIST_VALUE.put(seatClass.picklistValue, seatClass);
+            }
+        }
+
+        private final String picklistValue;
+
+        SeatClass(String picklistValue) {
+            this.picklistValue = picklistValue;
+        }
+
+        public String picklistValue() {
+            return picklistValue;
+        }
+
+        /**
+         * The class of a picklist value, ignoring case, or null if there is none. Salesforce returns the exact
+         * value, so the case-insensitive comparison only runs for values that are not.
+         */
+        public static SeatClass fromPicklistValue(String value) {
+            SeatClass seatClass = BY_PICKLIST_VALUE.get(value);
+            if (seatClass != null || value == null) {
+                return seatClass;
+            }
+            for (SeatClass candidate : VALUES) {
+                if (candidate.picklistValue.equalsIgnoreCase(value)) {
+                    return candidate;
+                }
+            }
+            return null;
+        }
+    }
+
+    private final String version;
+    private final boolean radiativeForcing;
+    private final double radiativeForcingMultiplier;
+
+    // Inclusive upper bound of each distance band, ascending; the last band is unbounded
+    private final int[] bandMaxKm;
+    // kg CO2e per passenger-km as [band * CLASS_COUNT + class]
+    private final double[] factors;
+    // kg CO2e of one passenger-leg as [km * CLASS_COUNT + class], for km up to MAX_TABLE_KM
+    private final double[] legEmissionsKg;
+
+    @Autowired
+    public EmissionFactorModel(@Value("${carbon.emission-factors.resource:classpath:emissions/defra-2023.csv}") Resource table,
+                               @Value("${carbon.emission-factors.version:DEFRA 2023}") String version,
+                               @Value("${carbon.emission-factors.radiative-forcing:true}") boolean radiativeForcing) throws IOException {
+        this(table.getInputStream(), version, radiativeForcing);
+        logger.info("Loaded {} emission factors in {} distance bands from {}, radiative forcing {}",
+                version, bandMaxKm.length, table.getDescription(), radiativeForcing ? "included" : "excluded");
+    }
+
+    public EmissionFactorModel(InputStream csv, String version, boolean radiativeForcing) throws IOException {
+        this.version = version;
+        this.radiativeForcing = radiativeForcing;
+
+        // Bands in the order of their upper bounds, each with a factor with and without radiative forcing per class
+        Map<Integer, double[][]> bands = new HashMap<>();
+        for (String[] row : readRows(csv)) {
+            SeatClass seatClass = SeatClass.fromPicklistValue(row[0]);
+            if (seatClass == null) {
+                throw new IllegalStateException("Unknown seat class in emission factor table: " + row[0]);
+            }
+            int maxKm = LAST_BAND.equals(row[1]) ? Integer.MAX_VALUE : Integer.parseInt(row[1]);
+            double[][] band = bands.computeIfAbsent(maxKm, k -> new double[2][CLASS_COUNT]);
+            band[0][seatClass.ordinal()] = Double.parseDouble(row[2]);
+            band[1][seatClass.ordinal()] = Double.parseDouble(row[3]);
+        }
+        if (!bands.containsKey(Integer.MAX_VALUE)) {
+            throw new IllegalStateException("Emission factor table has no open-ended band with maxKm " + LAST_BAND);
+        }
+        this.bandMaxKm = bands.keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
+        this.factors = new double[bandMaxKm.length * CLASS_COUNT];
+        double withoutRfTotal = 0;
+        double withRfTotal = 0;
+        for (int band = 0; band < bandMaxKm.length; band++) {
+            double[][] bandFactors = bands.get(bandMaxKm[band]);
+            for (int seatClass = 0; seatClass < CLASS_COUNT; seatClass++) {
+                if (bandFactors[0][seatClass] <= 0 || bandFactors[1][seatClass] <= 0) {
+                    throw new IllegalStateException("Emission factor table has no " + SeatClass.VALUES[seatClass].picklistValue()
+                            + " factor for the band up to " + (bandMaxKm[band] == Integer.MAX_VALUE ? LAST_BAND : bandMaxKm[band]) + " km");
+                }
+                factors[band * CLASS_COUNT + seatClass] = bandFactors[radiativeForcing ? 1 : 0][seatClass];
+                withoutRfTotal += bandFactors[0][seatClass];
+                withRfTotal += bandFactors[1][seatClass];
+            }
+        }
+        this.radiativeForcingMultiplier = radiativeForcing ? Math.round(withRfTotal / withoutRfTotal * 100) / 100.0 : 1.0;
+
+        this.legEmissionsKg = new double[(MAX_TABLE_KM + 1) * CLASS_COUNT];
+        for (int km = 0; km <= MAX_TABLE_KM; km++) {
+            int band = band(km);
+            for (int seatClass = 0; seatClass < CLASS_COUNT; seatClass++) {
+                legEmissionsKg[km * CLASS_COUNT + seatClass] = factors[band * CLASS_COUNT + seatClass] * km;
+            }
+        }
+    }
+
+    /**
+     * The table the factors come from, e.g. {@code DEFRA 2023}.
+     */
+    public String version() {
+        return version;
+    }
+
+    public boolean includesRadiativeForcing() {
+        return radiativeForcing;
+    }
+
+    /**
+     * How much the radiative forcing uplift raises the factors on average, or 1 when it is excluded.
+     */
+    public double radiativeForcingMultiplier() {
+        return radiativeForcingMultiplier;
+    }
+
+    /**
+     * kg CO2e per passenger-km for the class over a flight of the given distance.
+     */
+    public double factorPerKm(SeatClass seatClass, int distanceKm) {
+        return factors[band(distanceKm) * CLASS_COUNT + seatClass.ordinal()];
+    }
+
+    /**
+     * kg CO2e of a flight of the given distance for passengers counted per {@link SeatClass} ordinal.
+     */
+    public double flightEmissionsKg(int distanceKm, int[] passengersByClass) {
+        int offset = band(distanceKm) * CLASS_COUNT;
+        double totalKg = 0;
+        for (int seatClass = 0; seatClass < CLASS_COUNT; seatClass++) {
+            totalKg += passengersByClass[seatClass] * factors[offset + seatClass] * distanceKm;
+        }
+        return totalKg;
+    }
+
+    /**
+     * Total kg CO2e of the first count passenger-legs, leg i flying distancesKm[i] in the class whose ordinal is
+     * seatClasses[i]. Each leg gives the same result as {@link #flightEmissionsKg} does for one passenger.
+     *
+     * @throws IllegalArgumentException if a column is shorter than count, a distance is negative or a class is unknown
+     */
+    public double totalEmissionsKg(int[] distancesKm, byte[] seatClasses, int count) {
+        checkColumns(distancesKm, seatClasses, count);
+        // Independent sums keep several additions in flight instead of each waiting on the one before
+        double sum0 = 0;
+        double sum1 = 0;
+        double sum2 = 0;
+        double sum3 = 0;
+        int i = 0;
+        for (; i + 3 < count; i += 4) {
+            sum0 += legEmissionsKg(distancesKm[i], seatClasses[i]);
+            sum1 += legEmissionsKg(distancesKm[i + 1], seatClasses[i + 1]);
+            sum2 += legEmissionsKg(distancesKm[i + 2], seatClasses[i + 2]);
+            sum3 += legEmissionsKg(distancesKm[i + 3], seatClasses[i + 3]);
+        }
+        for (; i < count; i++) {
+            sum0 += legEmissionsKg(distancesKm[i], seatClasses[i]);
+        }
+        return (sum0 + sum1) + (sum2 + sum3);
+    }
+
+    /**
+     * Writes the kg CO2e of each of the first count passenger-legs to emissionsKg, as {@link #totalEmissionsKg}
+     * reads them.
+     *
+     * @throws IllegalArgumentException as {@link #totalEmissionsKg} does, or if emissionsKg is shorter than count
+     */
+    public void emissionsKg(int[] distancesKm, byte[] seatClasses, int count, double[] emissionsKg) {
+        checkColumns(distancesKm, seatClasses, count);
+        if (emissionsKg.length < count) {
+            throw new IllegalArgumentException("Output holds " + emissionsKg.length + " legs, expected " + count);
+        }
+        for (int i = 0; i < count; i++) {
+            emissionsKg[i] = legEmissionsKg(distancesKm[i], seatClasses[i]);
+        }
+    }
+
+    private double legEmissionsKg(int distanceKm, int seatClass) {
+        if (distanceKm <= MAX_TABLE_KM) {
+            return legEmissionsKg[distanceKm * CLASS_COUNT + seatClass];
+        }
+        return factors[(bandMaxKm.length - 1) * CLASS_COUNT + seatClass] * distanceKm;
+    }
+
+    private int band(int distanceKm) {
+        int band = 0;
+        while (distanceKm > bandMaxKm[band]) {
+            band++;
+        }
+        return band;
+    }
+
+    // Checked up front so the summing loops stay free of branches, an unknown class would otherwise read the factor
+    // of the next kilometre
+    private static void checkColumns(int[] distancesKm, byte[] seatClasses, int count) {
+        if (distancesKm.length < count || seatClasses.length < count) {
+            throw new IllegalArgumentException("Columns hold " + Math.min(distancesKm.length, seatClasses.length)
+                    + " legs, expected " + count);
+        }
+        for (int i = 0; i < count; i++) {
+            if (distancesKm[i] < 0) {
+                throw new IllegalArgumentException("Leg " + i + " has a negative distance: " + distancesKm[i] + " km");
+            }
+            if (seatClasses[i] < 0 || seatClasses[i] >= CLASS_COUNT) {
+                throw new IllegalArgumentException("Leg " + i + " has no seat class with ordinal " + seatClasses[i]);
+            }
+        }
+    }
+
+    private static List<String[]> readRows(InputStream csv) throws IOException {
+        List<String[]> rows = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(csv, StandardCharsets.UTF_8))) {
+            String line;
+            boolean header = true;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank() || line.charAt(0) == '#') {
+                    continue;
+                }
+                if (header) {
+                    header = false;
+                    continue;
+                }
+                String[] row = line.split(",", -1);
+                if (row.length < 4) {
+                    throw new IllegalStateException("Expected 4 columns in emission factor table row: " + line);
+                }
+                rows.add(Arrays.stream(row).map(String::trim).toArray(String[]::new));
+            }
+        }
+        return rows;
+    }
+}
@@ -1,5 +1,10 @@
 package com.heroku.java.services;
 
+import com.heroku.java.config.RequestCoalescer;
+import com.heroku.java.config.SalesforceAccess;
+import com.heroku.java.config.SalesforceIds;
+import com.heroku.java.config.SalesforceRecordCache;
+import com.heroku.java.config.SalesforceUserContext;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -7,7 +12,6 @@ import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.server.ResponseStatusException;
 
 import com.sforce.soap.partner.PartnerConnection;
-import com.sforce.soap.partner.QueryResult;
 import com.sforce.soap.partner.sobject.SObject;
 import com.sforce.ws.ConnectionException;
 
@@ -19,16 +23,40 @@ import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.parameters.RequestBody;
 import jakarta.servlet.http.HttpServletRequest;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 @Tag(name = "Finance Agreement Calculation", description = "Calculates finance agreements for car purchases based on valuation, credit status, and business margins.")
 @RestController
+@SalesforceAccess(SalesforceAccess.Level.CONNECTION)
 @RequestMapping("/api/")
 public class FinanceAgreementService {
 
+    // Interest rate cap applied to every offer for the demo
+    private static final double MAX_INTEREST_RATE = 3.5;
+
+    // Bounds the grid so one call stays within a few milliseconds of compute
+    private static final int MAX_SCENARIOS = 10_000;
+    private static final int DEFAULT_RANKED_OFFERS = 10;
+    private static final int MAX_RANKED_OFFERS = 100;
+    // Longer terms are not offered, and keep the term in months well within an int
+    private static final int MAX_LOAN_TERM_YEARS = 30;
+
+    private final SalesforceRecordCache recordCache;
+    private final RequestCoalescer requestCoalescer;
+
+    public FinanceAgreementService(SalesforceRecordCache recordCache, RequestCoalescer requestCoalescer) {
+        this.recordCache = recordCache;
+        this.requestCoalescer = requestCoalescer;
+    }
+
     @Operation(
         summary = "Calculate a Finance Agreement",
         description = "Processes a finance agreement based on car valuation, customer credit profile, business margin constraints, and competitor pricing.",
         responses = { 
             @ApiResponse(responseCode = "200", description = "Response containing the calculated finance agreement."),
+            @ApiResponse(responseCode = "400", description = "No vehicle ID."),
             @ApiResponse(responseCode = "404", description = "Vehicle not found in Salesforce."),
             @ApiResponse(responseCode = "503", description = "Salesforce connection error."),
             @ApiResponse(responseCode = "500", description = "Unexpected server error.")
@@ -41,37 +69,45 @@ public class FinanceAgreementService {
                 content = @Content(schema = @Schema(implementation = FinanceCalculationRequest.class)))
             FinanceCalculationRequest request,
             HttpServletRequest httpServletRequest) {
-            
+
+        checkVehicleId(request.vehicleId);
+
         // Obtain Salesforce connection for Heroku Integration add-on
         PartnerConnection connection = (PartnerConnection) httpServletRequest.getAttribute("salesforcePartnerConnection");
-        if (connection == null) {
+        SalesforceUserContext userContext = (SalesforceUserContext) httpServletRequest.getAttribute("salesforceUserContext");
+        if (connection == null || userContext == null) {
             throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Salesforce connection is not available.");
         }
 
+        // Agents retry calls that are still running, identical ones share the running calculation. A missing customer
+        // ID keys like an empty one, it does not change the result.
+        String arguments = String.join("|", request.customerId != null ? SalesforceIds.key(request.customerId) : "",
+                request.vehicleId != null ? SalesforceIds.key(request.vehicleId) : "",
+                Double.toString(request.maxInterestRate), Double.toString(request.downPayment), Integer.toString(request.years));
+        return requestCoalescer.execute("/api/calculateFinanceAgreement", userContext, arguments,
+                () -> financeAgreement(userContext, connection, request));
+    }
+
+    FinanceCalculationResponse financeAgreement(SalesforceUserContext userContext, PartnerConnection connection, FinanceCalculationRequest request) {
         try {
-            // Query Vehicle information from Salesforce
-            String soql = String.format(
-                "SELECT Id, Price__c FROM Vehicle_Model__c WHERE Id = '%s' ", 
-                request.vehicleId);
-            QueryResult queryResult = connection.query(soql);
+            // Query Vehicle information from Salesforce, agents negotiating terms hit the same vehicle repeatedly
+            SObject vehicle = recordCache.getRecord(userContext, connection, "Vehicle_Model__c", "Id, Price__c", request.vehicleId);
 
             // If no vehicle is found, return 404 error
-            if (queryResult.getSize() == 0) {
+            if (vehicle == null) {
                 throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Vehicle not found in Salesforce.");
             }
 
             // Retrieve vehicle price
-            SObject vehicle = queryResult.getRecords()[0];
             double vehiclePrice = Double.parseDouble(vehicle.getField("Price__c").toString());
 
             // Simple finance calculations
             double loanAmount = vehiclePrice - request.downPayment;
-            double annualInterestRate = Math.min(3.5, request.maxInterestRate); // Cap interest rate at 3.5% for demo
+            double annualInterestRate = Math.min(MAX_INTEREST_RATE, request.maxInterestRate); // Cap interest rate at 3.5% for demo
             int loanTermMonths = request.years * 12;
 
             // Monthly Payment Calculation (Basic Loan Formula)
-            double monthlyInterestRate = (annualInterestRate / 100) / 12;
-            double monthlyPayment = (loanAmount * monthlyInterestRate) / (1 - Math.pow(1 + monthlyInterestRate, -loanTermMonths));            
+            double monthlyPayment = monthlyPayment(loanAmount, annualInterestRate, loanTermMonths);
             double totalFinancingCost = monthlyPayment * loanTermMonths;
 
             // Build response
@@ -87,11 +123,192 @@ public class FinanceAgreementService {
 
         } catch (ConnectionException e) {
             throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Failed to connect to Salesforce.", e);
+        } catch (ResponseStatusException e) {
+            throw e;
         } catch (Exception e) {
             throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "An unexpected error occurred.", e);
         }
     }
 
+    @Operation(
+        summary = "Calculate Finance Scenarios",
+        description = "Compares finance offers for a car purchase across every combination of the given loan terms, interest rates and down payments, ranked by total financing cost or monthly payment, with an optional amortization schedule for the best offer.",
+        responses = {
+            @ApiResponse(responseCode = "200", description = "Response containing the ranked finance offers."),
+            @ApiResponse(responseCode = "400", description = "No vehicle ID, or an invalid or too large scenario grid."),
+            @ApiResponse(responseCode = "404", description = "Vehicle not found in Salesforce."),
+            @ApiResponse(responseCode = "503", description = "Salesforce connection error."),
+            @ApiResponse(responseCode = "500", description = "Unexpected server error.")
+        })
+    @PostMapping("/calculateFinanceScenarios")
+    public FinanceScenarioResponse calculateFinanceScenarios(
+            @org.springframework.web.bind.annotation.RequestBody
+            @RequestBody(
+                description = "Request to compare finance offers for a car purchase across several loan terms, interest rates and down payments.",
+                content = @Content(schema = @Schema(implementation = FinanceScenarioRequest.class)))
+            FinanceScenarioRequest request,
+            HttpServletRequest httpServletRequest) {
+
+        ScenarioQuery query = scenarioQuery(request);
+
+        // Obtain Salesforce connection for Heroku Integration add-on
+        PartnerConnection connection = (PartnerConnection) httpServletRequest.getAttribute("salesforcePartnerConnection");
+        SalesforceUserContext userContext = (SalesforceUserContext) httpServletRequest.getAttribute("salesforceUserContext");
+        if (connection == null || userContext == null) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Salesforce connection is not available.");
+        }
+        return financeScenarios(userContext, connection, request, query);
+    }
+
+    // The validated scenario grid and ranking options of a request
+    record ScenarioQuery(int[] termMonths, double[] interestRates, double[] downPayments, int rankedOffers,
+                         boolean byMonthlyPayment, double maxMonthlyPayment) {
+    }
+
+    static void checkVehicleId(String vehicleId) {
+        if (vehicleId == null || vehicleId.isBlank()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "A vehicle ID is required.");
+        }
+    }
+
+    static ScenarioQuery scenarioQuery(FinanceScenarioRequest request) {
+        checkVehicleId(request.vehicleId);
+        int[] termMonths = termMonths(request.years);
+        double[] interestRates = interestRates(request.interestRates);
+        double[] downPayments = downPayments(request.downPayments);
+        long scenarioCount = (long) termMonths.length * interestRates.length * downPayments.length;
+        if (scenarioCount > MAX_SCENARIOS) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "At most " + MAX_SCENARIOS + " scenarios are allowed per call.");
+        }
+        int rankedOffers = request.maxOffers != null ? request.maxOffers : DEFAULT_RANKED_OFFERS;
+        if (rankedOffers < 1 || rankedOffers > MAX_RANKED_OFFERS) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "maxOffers must be between 1 and " + MAX_RANKED_OFFERS + ".");
+        }
+        boolean byMonthlyPayment = "monthlyPayment".equalsIgnoreCase(request.rankBy);
+        if (!byMonthlyPayment && request.rankBy != null && !"totalFinancingCost".equalsIgnoreCase(request.rankBy)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "rankBy must be totalFinancingCost or monthlyPayment.");
+        }
+        double maxMonthlyPayment = request.maxMonthlyPayment != null ? request.maxMonthlyPayment : Double.POSITIVE_INFINITY;
+        return new ScenarioQuery(termMonths, interestRates, downPayments, rankedOffers, byMonthlyPayment, maxMonthlyPayment);
+    }
+
+    FinanceScenarioResponse financeScenarios(SalesforceUserContext userContext, PartnerConnection connection,
+                                             FinanceScenarioRequest request, ScenarioQuery query) {
+        try {
+            // Query the vehicle price once for the whole grid
+            SObject vehicle = recordCache.getRecord(userContext, connection, "Vehicle_Model__c", "Id, Price__c", request.vehicleId);
+            if (vehicle == null) {
+                throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Vehicle not found in Salesforce.");
+            }
+            double vehiclePrice = Double.parseDouble(vehicle.getField("Price__c").toString());
+
+            FinanceScenarioGrid grid = new FinanceScenarioGrid(vehiclePrice, query.termMonths(), query.interestRates(), query.downPayments()).evaluate();
+
+            // Build response
+            FinanceScenarioResponse response = new FinanceScenarioResponse();
+            response.finalCarPrice = vehiclePrice;
+            response.scenarioCount = grid.size();
+            response.eligibleScenarioCount = grid.eligibleCount(query.maxMonthlyPayment());
+            response.rankedOffers = new ArrayList<>();
+            for (int scenario : grid.rank(query.rankedOffers(), query.byMonthlyPayment(), query.maxMonthlyPayment())) {
+                FinanceScenarioOffer offer = new FinanceScenarioOffer();
+                offer.rank = response.rankedOffers.size() + 1;
+                offer.finalCarPrice = vehiclePrice;
+                offer.downPayment = grid.downPayment(scenario);
+                offer.loanAmount = grid.loanAmount(scenario);
+                offer.adjustedInterestRate = grid.annualInterestRate(scenario);
+                offer.monthlyPayment = grid.monthlyPayment(scenario);
+                offer.loanTermMonths = grid.termMonths(scenario);
+                offer.totalFinancingCost = grid.totalCost(scenario);
+                offer.totalInterest = offer.totalFinancingCost - offer.loanAmount;
+                response.rankedOffers.add(offer);
+            }
+            if (request.includeAmortizationSchedule && !response.rankedOffers.isEmpty()) {
+                FinanceScenarioOffer best = response.rankedOffers.get(0);
+                response.amortizationSchedule = amortizationSchedule(best.loanAmount, best.adjustedInterestRate, best.loanTermMonths, best.monthlyPayment);
+            }
+            return response;
+
+        } catch (ConnectionException e) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Failed to connect to Salesforce.", e);
+        } catch (ResponseStatusException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "An unexpected error occurred.", e);
+        }
+    }
+
+    private static int[] termMonths(List<Integer> years) {
+        if (years == null || years.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "At least one loan term in years is required.");
+        }
+        int[] termMonths = new int[years.size()];
+        for (int i = 0; i < termMonths.length; i++) {
+            Integer term = years.get(i);
+            if (term == null || term < 1 || term > MAX_LOAN_TERM_YEARS) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Loan terms must be between 1 and " + MAX_LOAN_TERM_YEARS + " years.");
+            }
+            termMonths[i] = term * 12;
+        }
+        return termMonths;
+    }
+
+    // Rates above the demo cap are offered at the cap, so they collapse into a single rate
+    private static double[] interestRates(List<Double> rates) {
+        if (rates == null || rates.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "At least one interest rate is required.");
+        }
+        double[] interestRates = new double[rates.size()];
+        for (int i = 0; i < interestRates.length; i++) {
+            Double rate = rates.get(i);
+            if (rate == null || rate < 0) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Interest rates must not be negative.");
+            }
+            interestRates[i] = Math.min(MAX_INTEREST_RATE, rate);
+        }
+        return Arrays.stream(interestRates).distinct().toArray();
+    }
+
+    private static double[] downPayments(List<Double> payments) {
+        if (payments == null || payments.isEmpty()) {
+            return new double[] { 0 };
+        }
+        double[] downPayments = new double[payments.size()];
+        for (int i = 0; i < downPayments.length; i++) {
+            Double payment = payments.get(i);
+            if (payment == null || payment < 0) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Down payments must not be negative.");
+            }
+            downPayments[i] = payment;
+        }
+        return downPayments;
+    }
+
+    // Month by month split of each payment into interest and principal
+    static List<AmortizationPayment> amortizationSchedule(double loanAmount, double annualInterestRate, int loanTermMonths, double monthlyPayment) {
+        double monthlyInterestRate = (annualInterestRate / 100) / 12;
+        List<AmortizationPayment> schedule = new ArrayList<>(loanTermMonths);
+        double balance = loanAmount;
+        for (int month = 1; month <= loanTermMonths; month++) {
+            AmortizationPayment payment = new AmortizationPayment();
+            payment.month = month;
+            payment.interest = balance * monthlyInterestRate;
+            // The last payment settles whatever rounding left on the balance
+            payment.principal = month == loanTermMonths ? balance : monthlyPayment - payment.interest;
+            payment.payment = payment.principal + payment.interest;
+            balance -= payment.principal;
+            payment.remainingBalance = month == loanTermMonths ? 0 : balance;
+            schedule.add(payment);
+        }
+        return schedule;
+    }
+
+    // Basic amortized loan formula, annual rate given as a percentage
+    static double monthlyPayment(double loanAmount, double annualInterestRate, int loanTermMonths) {
+        double monthlyInterestRate = (annualInterestRate / 100) / 12;
+        return (loanAmount * monthlyInterestRate) / (1 - Math.pow(1 + monthlyInterestRate, -loanTermMonths));
+    }
+
     @Schema(description = "Request to compute a finance agreement for a car purchase, including the Salesforce record ID of both the customer applying for financing and the vehicle being financed.")
     public static class FinanceCalculationRequest {
         @Schema(example = "0035g00000XyZbHAZ", description = "The Salesforce record ID of the customer applying for financing.")
@@ -106,6 +323,59 @@ public class FinanceAgreementService {
         public int years;
     }
 
+    @Schema(description = "Request to compare finance offers for a car purchase across every combination of the given loan terms, interest rates and down payments.")
+    public static class FinanceScenarioRequest {
+        @Schema(example = "0035g00000XyZbHAZ", description = "The Salesforce record ID of the customer applying for financing.")
+        public String customerId;
+        @Schema(example = "a0B5g00000LkVnWEAV", description = "The Salesforce record ID of the car being financed.")
+        public String vehicleId;
+        @Schema(example = "[2, 3, 4, 5]", description = "The loan terms in years to compare, from 1 to 30 years.")
+        public List<Integer> years;
+        @Schema(example = "[2.9, 3.2, 3.5]", description = "The interest rates to compare (percentage).")
+        public List<Double> interestRates;
+        @Schema(example = "[0, 1000, 5000]", description = "The down payments to compare. Defaults to no down payment.")
+        public List<Double> downPayments;
+        @Schema(example = "900", description = "The highest monthly payment the user can afford. Offers above it are left out.")
+        public Double maxMonthlyPayment;
+        @Schema(example = "totalFinancingCost", description = "Rank offers by totalFinancingCost (default) or monthlyPayment, lowest first.")
+        public String rankBy;
+        @Schema(example = "10", description = "The number of ranked offers to return, at most 100. Defaults to 10.")
+        public Integer maxOffers;
+        @Schema(example = "false", description = "Whether to include the month by month amortization schedule of the best offer.")
+        public boolean includeAmortizationSchedule;
+    }
+
+    @Schema(description = "Response containing the finance offers ranked across all the requested scenarios. Describe the best offers in natural language text to the user.")
+    public static class FinanceScenarioResponse {
+        public double finalCarPrice;
+        public int scenarioCount;
+        public int eligibleScenarioCount;
+        public List<FinanceScenarioOffer> rankedOffers;
+        public List<AmortizationPayment> amortizationSchedule;
+    }
+
+    @Schema(description = "Finance offer for one combination of loan term, interest rate and down payment.")
+    public static class FinanceScenarioOffer {
+        public int rank;
+        public double finalCarPrice;
+        public double downPayment;
+        public double loanAmount;
+        public double adjustedInterestRate;
+        public double monthlyPayment;
+        public int loanTermMonths;
+        public double totalFinancingCost;
+        public double totalInterest;
+    }
+
+    @Schema(description = "One monthly payment of an amortization schedule.")
+    public static class AmortizationPayment {
+        public int month;
+        public double payment;
+        public double principal;
+        public double interest;
+        public double remainingBalance;
+    }
+
     @Schema(description = "Response containing the calculated finance agreement.")
     public static class FinanceCalculationResponse {
         public FinanceOffer recommendedFinanceOffer;
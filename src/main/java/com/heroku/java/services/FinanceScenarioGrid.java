@@ -0,0 +1,134 @@
+package com.heroku.java.services;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Evaluates every combination of loan term, interest rate and down payment for one vehicle price. The expensive
+ * part of the loan formula only depends on the term and rate, so it is computed once per pair; each down payment
+ * then costs one multiply in a straight loop over primitive arrays, which the JIT compiles to SIMD instructions.
+ * Large grids are split by term and rate pair across the common fork/join pool.
+ * <p>
+ * Results are flattened in [term][rate][down payment] order, so scenario indexes follow the request's lists.
+ */
+final class FinanceScenarioGrid {
+
+    // Below this many scenarios, fork/join overhead outweighs evaluating the grid on the request thread
+    private static final int PARALLEL_THRESHOLD = 4096;
+
+    private final int[] termMonths;
+    private final double[] annualInterestRates;
+    private final double[] downPayments;
+    private final double[] loanAmounts;
+    private final double[] monthlyPayments;
+    private final double[] totalCosts;
+
+    FinanceScenarioGrid(double vehiclePrice, int[] termMonths, double[] annualInterestRates, double[] downPayments) {
+        this.termMonths = termMonths;
+        this.annualInterestRates = annualInterestRates;
+        this.downPayments = downPayments;
+        this.loanAmounts = new double[downPayments.length];
+        for (int d = 0; d < downPayments.length; d++) {
+            loanAmounts[d] = vehiclePrice - downPayments[d];
+        }
+        int size = termMonths.length * annualInterestRates.length * downPayments.length;
+        this.monthlyPayments = new double[size];
+        this.totalCosts = new double[size];
+    }
+
+    FinanceScenarioGrid evaluate() {
+        IntStream rows = IntStream.range(0, termMonths.length * annualInterestRates.length);
+        if (size() >= PARALLEL_THRESHOLD) {
+            rows = rows.parallel();
+        }
+        rows.forEach(this::evaluateRow);
+        return this;
+    }
+
+    private void evaluateRow(int row) {
+        int months = termMonths[row / annualInterestRates.length];
+        double factor = paymentFactor(annualInterestRates[row % annualInterestRates.length], months);
+        int offset = row * loanAmounts.length;
+        for (int d = 0; d < loanAmounts.length; d++) {
+            double payment = loanAmounts[d] * factor;
+            monthlyPayments[offset + d] = payment;
+            totalCosts[offset + d] = payment * months;
+        }
+    }
+
+    /**
+     * Indexes of the best scenarios, lowest total cost (or lowest monthly payment) first. Scenarios where the down
+     * payment covers the price, or whose monthly payment exceeds maxMonthlyPayment, are left out.
+     */
+    int[] rank(int limit, boolean byMonthlyPayment, double maxMonthlyPayment) {
+        double[] scores = byMonthlyPayment ? monthlyPayments : totalCosts;
+        int[] best = new int[limit];
+        int count = 0;
+        for (int i = 0; i < scores.length; i++) {
+            if (loanAmounts[i % loanAmounts.length] <= 0 || monthlyPayments[i] > maxMonthlyPayment) {
+                continue;
+            }
+            if (count == limit && scores[i] >= scores[best[limit - 1]]) {
+                continue;
+            }
+            // Insertion into the short sorted list; equal scores keep grid order
+            int position = count < limit ? count++ : limit - 1;
+            while (position > 0 && scores[best[position - 1]] > scores[i]) {
+                best[position] = best[position - 1];
+                position--;
+            }
+            best[position] = i;
+        }
+        return count == limit ? best : Arrays.copyOf(best, count);
+    }
+
+    /**
+     * Number of scenarios with a loan to finance and a monthly payment within maxMonthlyPayment.
+     */
+    int eligibleCount(double maxMonthlyPayment) {
+        int eligible = 0;
+        for (int i = 0; i < monthlyPayments.length; i++) {
+            if (loanAmounts[i % loanAmounts.length] > 0 && monthlyPayments[i] <= maxMonthlyPayment) {
+                eligible++;
+            }
+        }
+        return eligible;
+    }
+
+    int size() {
+        return monthlyPayments.length;
+    }
+
+    int termMonths(int scenario) {
+        return termMonths[scenario / (annualInterestRates.length * downPayments.length)];
+    }
+
+    double annualInterestRate(int scenario) {
+        return annualInterestRates[(scenario / downPayments.length) % annualInterestRates.length];
+    }
+
+    double downPayment(int scenario) {
+        return downPayments[scenario % downPayments.length];
+    }
+
+    double loanAmount(int scenario) {
+        return loanAmounts[scenario % loanAmounts.length];
+    }
+
+    double monthlyPayment(int scenario) {
+        return monthlyPayments[scenario];
+    }
+
+    double totalCost(int scenario) {
+        return totalCosts[scenario];
+    }
+
+    // Monthly payment per unit of loan for an annual rate given as a percentage
+    static double paymentFactor(double annualInterestRate, int loanTermMonths) {
+        double monthlyInterestRate = (annualInterestRate / 100) / 12;
+        if (monthlyInterestRate == 0) {
+            return 1.0 / loanTermMonths;
+        }
+        return monthlyInterestRate / (1 - Math.pow(1 + monthlyInterestRate, -loanTermMonths));
+    }
+}
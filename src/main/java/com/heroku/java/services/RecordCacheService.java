@@ -0,0 +1,66 @@
+package com.heroku.java.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.heroku.java.config.SalesforceAccess;
+import com.heroku.java.config.SalesforceRecordCache;
+import com.heroku.java.config.SalesforceUserContext;
+
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletRequest;
+
+import java.util.List;
+
+@Tag(name = "Record Cache", description = "Invalidates Salesforce records cached by this app, for example from a flow when a vehicle price or flight route changes.")
+@RestController
+@SalesforceAccess(SalesforceAccess.Level.CONTEXT)
+@RequestMapping("/api/")
+public class RecordCacheService {
+
+    private static final Logger logger = LoggerFactory.getLogger(RecordCacheService.class);
+
+    private final SalesforceRecordCache recordCache;
+
+    public RecordCacheService(SalesforceRecordCache recordCache) {
+        this.recordCache = recordCache;
+    }
+
+    @Operation(summary = "Invalidate Cached Records", description = "Drops cached copies of Salesforce records for the calling org, so the next lookup reads them from Salesforce again.")
+    @PostMapping("/invalidateRecordCache")
+    public InvalidateRecordCacheResponse invalidateRecordCache(
+            @RequestBody InvalidateRecordCacheRequest request, HttpServletRequest httpServletRequest) {
+
+        // Only the org in the caller's own client context can be invalidated
+        SalesforceUserContext userContext = (SalesforceUserContext) httpServletRequest.getAttribute("salesforceUserContext");
+        if (userContext == null) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Salesforce connection is not available.");
+        }
+
+        InvalidateRecordCacheResponse response = new InvalidateRecordCacheResponse();
+        response.invalidatedCount = recordCache.invalidate(userContext.getOrgId(), request.sobjectType, request.recordIds);
+        logger.info("Invalidated {} cached records for org {}", response.invalidatedCount, userContext.getOrgId());
+        return response;
+    }
+
+    @Schema(description = "Request to drop cached Salesforce records of the calling org. Leave both fields empty to drop everything cached for the org.")
+    public static class InvalidateRecordCacheRequest {
+        @Schema(example = "Vehicle_Model__c", description = "The SObject type to invalidate, or empty for all types.")
+        public String sobjectType;
+        @Schema(example = "[\"a04Hs00002EMj9PIAT\"]", description = "The Salesforce record IDs to invalidate, or empty for all records of the type.")
+        public List<String> recordIds;
+    }
+
+    @Schema(description = "Response containing the number of cached records that were dropped.")
+    public static class InvalidateRecordCacheResponse {
+        public int invalidatedCount;
+    }
+}
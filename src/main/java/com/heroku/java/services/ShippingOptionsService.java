@@ -1,84 +1,302 @@
 package com.heroku.java.services;
 
+import com.heroku.java.config.SalesforceAccess;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.servlet.http.HttpServletRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
 
 import java.time.Instant;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 
 @Tag(name = "Shipping Calculation", description = "Calculates the shipping options for a product given external data.")
 @RestController
+@SalesforceAccess(SalesforceAccess.Level.NONE)
 @RequestMapping("/api/")
 public class ShippingOptionsService {
 
     private static final Logger logger = LoggerFactory.getLogger(ShippingOptionsService.class);
 
-    @Operation(summary = "Calculate Shipping Options", description = "Calculates the shipping options for a product given external data.")
+    // Shared by every response, never modified
+    private static final Map<String, String> UNITS = units();
+
+    private static final int MAX_BULK_ITEMS = 1000;
+    private static final int MAX_QUANTITY = 100;
+    // Quotes take about a microsecond each, so only large carts are worth splitting across cores
+    private static final int PARALLEL_THRESHOLD = 256;
+
+    private final ShippingRateEngine rateEngine;
+    private final String defaultDestination;
+
+    public ShippingOptionsService(ShippingRateEngine rateEngine,
+                                  @Value("${shipping.default-destination:60601}") String defaultDestination) {
+        this.rateEngine = rateEngine;
+        this.defaultDestination = defaultDestination;
+    }
+
+    @Operation(summary = "Calculate Shipping Options", description = "Calculates the shipping options for a product given external data.",
+            responses = {
+                @ApiResponse(responseCode = "200", description = "OK"),
+                @ApiResponse(responseCode = "400", description = "Destination is not a served US ZIP code or optimizeFor is not recognized.")
+            })
     @PostMapping("/calculateShippingOptions")
     public CalculateShippingOptionsResponse calculateShippingOptions(
             @RequestBody CalculateShippingOptionsRequest request, HttpServletRequest httpServletRequest) {
         logger.info("Processing shipping options calculation for product: {}", request.productId);
-        // Mocked Response Data
+        String destination = request.destination != null && !request.destination.isBlank() ? request.destination.trim() : defaultDestination;
+        ShippingRateEngine.Policy policy = policy(request.optimizeFor);
+        ShippingRateEngine.Quote quote = rateEngine.quote(request.productId, destination);
+        if (quote == null) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Destination must be a US ZIP code in a served area.");
+        }
+
         CalculateShippingOptionsResponse response = new CalculateShippingOptionsResponse();
-        response.product = new ProductInfo();
-        response.product.productId = request.productId;
-        response.product.name = "Smart Gadget X";
-        response.product.weight = 1.25;
-        response.product.dimensions = new Dimensions();
-        response.product.dimensions.length = 30;
-        response.product.dimensions.width = 20;
-        response.product.dimensions.height = 15;
-        response.product.category = "Electronics";
-        response.product.price = 99.99;
-        response.shippingOptions = new ArrayList<>();
-        ShippingOption option1 = new ShippingOption();
-        option1.carrier = "CodyShipping";
-        option1.service = "Standard Delivery";
-        option1.estimatedDeliveryDays = 5;
-        option1.cost = 9.99;
-        option1.carbonFootprint = 2.2;
-        response.shippingOptions.add(option1);
-        ShippingOption option2 = new ShippingOption();
-        option2.carrier = "AstroShipping";
-        option2.service = "Express Delivery";
-        option2.estimatedDeliveryDays = 2;
-        option2.cost = 19.99;
-        option2.carbonFootprint = 3.5;
-        response.shippingOptions.add(option2);
-        ShippingOption option3 = new ShippingOption();
-        option3.carrier = "AppyShipping";
-        option3.service = "Overnight Shipping";
-        option3.estimatedDeliveryDays = 1;
-        option3.cost = 29.99;
-        option3.carbonFootprint = 4.8;
-        response.shippingOptions.add(option3);
-        response.recommendedOption = option1;
+        response.product = productInfo(quote.product(), request.productId);
+        response.destination = destination;
+        response.zone = quote.zone();
+        response.shippingOptions = new ArrayList<>(quote.options().size());
+        for (ShippingRateEngine.RateQuote rate : quote.options()) {
+            response.shippingOptions.add(shippingOption(rate));
+        }
+        int recommended = rateEngine.recommend(quote.options(), policy);
+        response.recommendedOption = recommended >= 0 ? response.shippingOptions.get(recommended) : null;
+        response.timestamp = Instant.now().toString();
+        response.units = UNITS;
+        return response;
+    }
+
+    @Operation(summary = "Calculate Bulk Shipping Options",
+            description = "Calculates shipping options for every item of a cart or order, which may go to different destinations. "
+                    + "Items for the same ZIP code are consolidated into as few parcels as each service's weight limit allows, "
+                    + "and the cheapest and the greenest combined plans across all shipments are returned.",
+            responses = {
+                @ApiResponse(responseCode = "200", description = "OK"),
+                @ApiResponse(responseCode = "400", description = "No items, too many items, an invalid quantity, an unserved destination or an unrecognized optimizeFor.")
+            })
+    @PostMapping("/calculateBulkShippingOptions")
+    public BulkShippingOptionsResponse calculateBulkShippingOptions(
+            @RequestBody BulkShippingOptionsRequest request, HttpServletRequest httpServletRequest) {
+        if (request.items == null || request.items.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "At least one item is required.");
+        }
+        if (request.items.size() > MAX_BULK_ITEMS) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "At most " + MAX_BULK_ITEMS + " items are allowed per call.");
+        }
+        logger.info("Processing bulk shipping options calculation for {} items", request.items.size());
+        ShippingRateEngine.Policy policy = policy(request.optimizeFor);
+
+        int itemCount = request.items.size();
+        String[] destinations = new String[itemCount];
+        int[] quantities = new int[itemCount];
+        for (int i = 0; i < itemCount; i++) {
+            BulkShippingItem item = request.items.get(i);
+            if (item == null) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Item " + i + " is empty.");
+            }
+            quantities[i] = item.quantity != null ? item.quantity : 1;
+            if (quantities[i] < 1 || quantities[i] > MAX_QUANTITY) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Item " + i + ": quantity must be between 1 and " + MAX_QUANTITY + ".");
+            }
+            // Consolidation is by 5 digit ZIP code, so ZIP+4 codes of one address still ship together
+            String destination = item.destination != null && !item.destination.isBlank() ? item.destination.trim() : defaultDestination;
+            if (rateEngine.zone(destination) < 0) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Item " + i + ": destination must be a US ZIP code in a served area.");
+            }
+            destinations[i] = destination.substring(0, 5);
+        }
+
+        ShippingRateEngine.Product[] products = new ShippingRateEngine.Product[itemCount];
+        BulkShippingItemQuote[] itemQuotes = new BulkShippingItemQuote[itemCount];
+        forEachIndex(itemCount, i -> {
+            String productId = request.items.get(i).productId;
+            products[i] = rateEngine.product(productId);
+            itemQuotes[i] = itemQuote(products[i], productId, quantities[i], destinations[i], policy);
+        });
+
+        Map<String, List<Integer>> itemsByDestination = new LinkedHashMap<>();
+        for (int i = 0; i < itemCount; i++) {
+            itemsByDestination.computeIfAbsent(destinations[i], destination -> new ArrayList<>()).add(i);
+        }
+        List<Map.Entry<String, List<Integer>>> groups = new ArrayList<>(itemsByDestination.entrySet());
+        Shipment[] shipments = new Shipment[groups.size()];
+        forEachIndex(groups.size(), g -> shipments[g] = shipment(groups.get(g).getKey(), groups.get(g).getValue(), products, quantities));
+
+        BulkShippingOptionsResponse response = new BulkShippingOptionsResponse();
+        response.items = Arrays.asList(itemQuotes);
+        response.shipments = Arrays.asList(shipments);
+        response.cheapestPlan = plan(response.shipments, Comparator.comparingDouble((ShipmentOption option) -> option.cost)
+                .thenComparingDouble(option -> option.carbonFootprint));
+        response.greenestPlan = plan(response.shipments, Comparator.comparingDouble((ShipmentOption option) -> option.carbonFootprint)
+                .thenComparingDouble(option -> option.cost));
         response.timestamp = Instant.now().toString();
-        response.units = new HashMap<>();
-        response.units.put("weight", "kg");
-        response.units.put("dimensions", "cm");
-        response.units.put("cost", "USD");
-        response.units.put("carbonFootprint", "kg CO2");
+        response.units = UNITS;
         return response;
     }
 
+    private static void forEachIndex(int count, IntConsumer action) {
+        IntStream indexes = IntStream.range(0, count);
+        (count >= PARALLEL_THRESHOLD ? indexes.parallel() : indexes).forEach(action);
+    }
+
+    private BulkShippingItemQuote itemQuote(ShippingRateEngine.Product product, String productId, int quantity, String destination,
+                                            ShippingRateEngine.Policy policy) {
+        // Single units are priced from the quote cache, larger quantities packed like any other shipment
+        List<ShippingRateEngine.RateQuote> rates = quantity == 1
+                ? rateEngine.quote(productId, destination).options()
+                : rateEngine.quoteShipment(new double[]{product.weightKg()}, new double[]{volumeCm3(product)}, new int[]{quantity}, destination);
+        BulkShippingItemQuote quote = new BulkShippingItemQuote();
+        quote.product = productInfo(product, productId);
+        quote.quantity = quantity;
+        quote.destination = destination;
+        quote.zone = rateEngine.zone(destination);
+        quote.shippingOptions = new ArrayList<>(rates.size());
+        for (ShippingRateEngine.RateQuote rate : rates) {
+            quote.shippingOptions.add(shipmentOption(rate));
+        }
+        int recommended = rateEngine.recommend(rates, policy);
+        quote.recommendedOption = recommended >= 0 ? quote.shippingOptions.get(recommended) : null;
+        return quote;
+    }
+
+    // Everything going to one destination is consolidated into as few parcels as each service allows
+    private Shipment shipment(String destination, List<Integer> itemIndexes, ShippingRateEngine.Product[] products, int[] quantities) {
+        double[] weightsKg = new double[itemIndexes.size()];
+        double[] volumesCm3 = new double[itemIndexes.size()];
+        int[] units = new int[itemIndexes.size()];
+        for (int j = 0; j < itemIndexes.size(); j++) {
+            int i = itemIndexes.get(j);
+            weightsKg[j] = products[i].weightKg();
+            volumesCm3[j] = volumeCm3(products[i]);
+            units[j] = quantities[i];
+        }
+        Shipment shipment = new Shipment();
+        shipment.destination = destination;
+        shipment.zone = rateEngine.zone(destination);
+        shipment.itemIndexes = itemIndexes;
+        shipment.shippingOptions = new ArrayList<>();
+        for (ShippingRateEngine.RateQuote rate : rateEngine.quoteShipment(weightsKg, volumesCm3, units, destination)) {
+            shipment.shippingOptions.add(shipmentOption(rate));
+        }
+        return shipment;
+    }
+
+    private static double volumeCm3(ShippingRateEngine.Product product) {
+        return product.lengthCm() * product.widthCm() * product.heightCm();
+    }
+
+    private static ShipmentOption shipmentOption(ShippingRateEngine.RateQuote rate) {
+        ShipmentOption option = new ShipmentOption();
+        option.carrier = rate.carrier();
+        option.service = rate.service();
+        option.estimatedDeliveryDays = rate.estimatedDeliveryDays();
+        option.cost = rate.cost();
+        option.carbonFootprint = rate.carbonFootprint();
+        option.chargeableWeight = rate.chargeableWeightKg();
+        option.parcelCount = rate.parcelCount();
+        return option;
+    }
+
+    // The best option of every shipment by the given order, or null if some shipment has no option at all
+    private static ShippingPlan plan(List<Shipment> shipments, Comparator<ShipmentOption> order) {
+        ShippingPlan plan = new ShippingPlan();
+        plan.shipments = new ArrayList<>(shipments.size());
+        double cost = 0;
+        double carbonKg = 0;
+        for (Shipment shipment : shipments) {
+            if (shipment.shippingOptions.isEmpty()) {
+                return null;
+            }
+            PlannedShipment planned = new PlannedShipment();
+            planned.destination = shipment.destination;
+            planned.option = Collections.min(shipment.shippingOptions, order);
+            plan.shipments.add(planned);
+            cost += planned.option.cost;
+            carbonKg += planned.option.carbonFootprint;
+            plan.estimatedDeliveryDays = Math.max(plan.estimatedDeliveryDays, planned.option.estimatedDeliveryDays);
+        }
+        plan.totalCost = Math.round(cost * 100) / 100.0;
+        plan.totalCarbonFootprint = Math.round(carbonKg * 1000) / 1000.0;
+        return plan;
+    }
+
+    static ShippingRateEngine.Policy policy(String optimizeFor) {
+        if (optimizeFor == null || optimizeFor.isBlank()) {
+            return ShippingRateEngine.Policy.BALANCED;
+        }
+        try {
+            return ShippingRateEngine.Policy.valueOf(optimizeFor.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "optimizeFor must be one of cost, speed, carbon or balanced.");
+        }
+    }
+
+    static ProductInfo productInfo(ShippingRateEngine.Product product, String requestedProductId) {
+        ProductInfo info = new ProductInfo();
+        info.productId = requestedProductId;
+        info.name = product.name();
+        info.weight = product.weightKg();
+        info.dimensions = new Dimensions();
+        info.dimensions.length = product.lengthCm();
+        info.dimensions.width = product.widthCm();
+        info.dimensions.height = product.heightCm();
+        info.category = product.category();
+        info.price = product.price();
+        return info;
+    }
+
+    static ShippingOption shippingOption(ShippingRateEngine.RateQuote rate) {
+        ShippingOption option = new ShippingOption();
+        option.carrier = rate.carrier();
+        option.service = rate.service();
+        option.estimatedDeliveryDays = rate.estimatedDeliveryDays();
+        option.cost = rate.cost();
+        option.carbonFootprint = rate.carbonFootprint();
+        option.chargeableWeight = rate.chargeableWeightKg();
+        return option;
+    }
+
+    private static Map<String, String> units() {
+        Map<String, String> units = new LinkedHashMap<>();
+        units.put("weight", "kg");
+        units.put("dimensions", "cm");
+        units.put("cost", "USD");
+        units.put("carbonFootprint", "kg CO2");
+        return Collections.unmodifiableMap(units);
+    }
+
     @Schema(description = "Request to determine shipping options for a product, including the Salesforce record ID of the product being shipped.")
     public static class CalculateShippingOptionsRequest {
         @Schema(example = "PROD123456", description = "The Salesforce record ID of the product.")
         public String productId;
+        @Schema(example = "10001", description = "Optional US ZIP code to ship to. Defaults to the app's default destination.")
+        public String destination;
+        @Schema(example = "balanced", allowableValues = {"cost", "speed", "carbon", "balanced"},
+                description = "Optional criterion for the recommended option: lowest cost, fewest days, lowest carbon footprint, or a balance of all three (the default).")
+        public String optimizeFor;
     }
 
     @Schema(description = "Response containing the calculated shipping options for the given product. Describe the results in natural language text to the user.")
     public static class CalculateShippingOptionsResponse {
         public ProductInfo product;
+        public String destination;
+        @Schema(description = "Shipping zone of the destination, from 1 (local) to 8 (farthest).")
+        public int zone;
         public List<ShippingOption> shippingOptions;
         public ShippingOption recommendedOption;
         public String timestamp;
@@ -109,5 +327,87 @@ public class ShippingOptionsService {
         public int estimatedDeliveryDays;
         public double cost;
         public double carbonFootprint;
+        @Schema(description = "Weight the carrier bills: the greater of actual and dimensional weight, rounded up to the next half kilogram.")
+        public double chargeableWeight;
+    }
+
+    @Schema(description = "Request to determine shipping options for several products, each with its own quantity and destination.")
+    public static class BulkShippingOptionsRequest {
+        @Schema(description = "Items to ship, up to 1,000.")
+        public List<BulkShippingItem> items;
+        @Schema(example = "balanced", allowableValues = {"cost", "speed", "carbon", "balanced"},
+                description = "Optional criterion for each item's recommended option: lowest cost, fewest days, lowest carbon footprint, or a balance of all three (the default).")
+        public String optimizeFor;
+    }
+
+    @Schema(description = "One order line: a product, how many units of it, and where they go.")
+    public static class BulkShippingItem {
+        @Schema(example = "PROD123456", description = "The Salesforce record ID of the product.")
+        public String productId;
+        @Schema(example = "2", description = "Optional number of units, from 1 (the default) to 100.")
+        public Integer quantity;
+        @Schema(example = "10001", description = "Optional US ZIP code to ship to. Defaults to the app's default destination.")
+        public String destination;
+    }
+
+    @Schema(description = "Response containing the shipping options of each item, the consolidated shipments per destination, and the cheapest and greenest combined plans. Describe the results in natural language text to the user.")
+    public static class BulkShippingOptionsResponse {
+        @Schema(description = "Options for each item shipped on its own, in request order.")
+        public List<BulkShippingItemQuote> items;
+        @Schema(description = "Items grouped by destination ZIP code, with the options for shipping each group together.")
+        public List<Shipment> shipments;
+        @Schema(description = "The cheapest option of every shipment, or null if some shipment cannot be shipped by any service.")
+        public ShippingPlan cheapestPlan;
+        @Schema(description = "The option with the lowest carbon footprint of every shipment, or null if some shipment cannot be shipped by any service.")
+        public ShippingPlan greenestPlan;
+        public String timestamp;
+        public Map<String, String> units;
+    }
+
+    @Schema(description = "Shipping options for all units of one item, shipped apart from the other items.")
+    public static class BulkShippingItemQuote {
+        public ProductInfo product;
+        public int quantity;
+        public String destination;
+        public int zone;
+        public List<ShipmentOption> shippingOptions;
+        public ShipmentOption recommendedOption;
+    }
+
+    @Schema(description = "Items going to the same destination ZIP code.")
+    public static class Shipment {
+        public String destination;
+        public int zone;
+        @Schema(description = "Positions of the shipment's items in the request.")
+        public List<Integer> itemIndexes;
+        public List<ShipmentOption> shippingOptions;
+    }
+
+    @Schema(description = "A service shipping a group of units, packed into as few parcels as the service's weight limit allows.")
+    public static class ShipmentOption {
+        public String carrier;
+        public String service;
+        public int estimatedDeliveryDays;
+        public double cost;
+        public double carbonFootprint;
+        @Schema(description = "Total weight the carrier bills across all parcels.")
+        public double chargeableWeight;
+        @Schema(description = "Number of parcels the units are packed into.")
+        public int parcelCount;
+    }
+
+    @Schema(description = "One option for every shipment, with totals across the whole order.")
+    public static class ShippingPlan {
+        public double totalCost;
+        public double totalCarbonFootprint;
+        @Schema(description = "Days until the last shipment arrives.")
+        public int estimatedDeliveryDays;
+        public List<PlannedShipment> shipments;
+    }
+
+    @Schema(description = "The option chosen for one shipment.")
+    public static class PlannedShipment {
+        public String destination;
+        public ShipmentOption option;
     }
 }
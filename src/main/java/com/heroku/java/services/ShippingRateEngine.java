@@ -0,0 +1,493 @@
+package com.heroku.java.services;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Shipping rate engine over carrier rate tables loaded once at startup from bundled CSV files. Weight breaks and
+ * prices of every service and zone live in two flat sorted arrays addressed by an offset table, and destination
+ * ZIP3 ranges in parallel int arrays, so pricing a parcel is a pair of binary searches. Each service bills the
+ * greater of actual and dimensional weight, rounded up to the next half kilogram, and shipments that exceed a
+ * service's weight limit are split across several parcels.
+ * <p>
+ * Quotes are immutable and memoized per product and destination range in a fixed-size, direct-mapped cache.
+ */
+@Component
+public class ShippingRateEngine implements MeterBinder {
+
+    private static final Logger logger = LoggerFactory.getLogger(ShippingRateEngine.class);
+
+    private static final String DEFAULT_PRODUCT_ID = "*";
+
+    /**
+     * What the recommended option is chosen for. BALANCED weighs cost, days and carbon as configured.
+     */
+    public enum Policy {
+        COST, SPEED, CARBON, BALANCED
+    }
+
+    /**
+     * Relative weights of cost, transit days and carbon footprint for the BALANCED policy. Each criterion is scored
+     * against the best value among the options, so the weights do not depend on units.
+     */
+    public record PolicyWeights(double cost, double days, double carbon) {
+    }
+
+    public record Product(String productId, String name, String category, double price,
+                          double weightKg, double lengthCm, double widthCm, double heightCm) {
+    }
+
+    /**
+     * One service's price for a parcel, or for a shipment split into parcelCount parcels. The chargeable weight is
+     * the total across parcels.
+     */
+    public record RateQuote(String carrier, String service, int parcelCount, double chargeableWeightKg,
+                            int estimatedDeliveryDays, double cost, double carbonFootprint) {
+    }
+
+    /**
+     * Options for one product and destination, cheapest first. Shared between requests and never modified.
+     */
+    public record Quote(Product product, int zone, int distanceKm, List<RateQuote> options) {
+    }
+
+    // Products by ID; slot 0 is the default product
+    private final Map<String, Integer> productSlots = new HashMap<>();
+    private final Product[] products;
+
+    // Services, with transit days flattened as [service * zoneCount + zone - 1]
+    private final String[] carriers;
+    private final String[] serviceNames;
+    private final double[] dimDivisors;
+    private final double[] co2KgPerTonneKm;
+    private final int[] transitDays;
+    private final int zoneCount;
+
+    // Rates of service s in zone z are [rateStart[s * zoneCount + z - 1], rateStart[s * zoneCount + z]) of both arrays
+    private final int[] rateStart;
+    private final double[] maxWeightsKg;
+    private final double[] prices;
+
+    // Destination ZIP3 ranges, sorted and non-overlapping
+    private final int[] zip3From;
+    private final int[] zip3To;
+    private final int[] rangeZones;
+    private final int[] rangeDistancesKm;
+
+    private final PolicyWeights balancedWeights;
+    private final AtomicReferenceArray<CachedQuote> quoteCache;
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong cacheMisses = new AtomicLong();
+
+    @Autowired
+    public ShippingRateEngine(
+            @Value("${shipping.tables.products:classpath:shipping/products.csv}") Resource products,
+            @Value("${shipping.tables.services:classpath:shipping/services.csv}") Resource services,
+            @Value("${shipping.tables.rates:classpath:shipping/rates.csv}") Resource rates,
+            @Value("${shipping.tables.zones:classpath:shipping/zones.csv}") Resource zones,
+            @Value("${shipping.quote-cache-size:4096}") int quoteCacheSize,
+            @Value("${shipping.policy.cost-weight:1.0}") double costWeight,
+            @Value("${shipping.policy.days-weight:0.5}") double daysWeight,
+            @Value("${shipping.policy.carbon-weight:0.5}") double carbonWeight) throws IOException {
+        this(products.getInputStream(), services.getInputStream(), rates.getInputStream(), zones.getInputStream(),
+                quoteCacheSize, new PolicyWeights(costWeight, daysWeight, carbonWeight));
+        logger.info("Loaded {} products, {} shipping services, {} rates and {} destination ranges",
+                this.products.length, serviceNames.length, prices.length, zip3From.length);
+    }
+
+    public ShippingRateEngine(InputStream productsCsv, InputStream servicesCsv, InputStream ratesCsv, InputStream zonesCsv,
+                              int quoteCacheSize, PolicyWeights balancedWeights) throws IOException {
+        this.balancedWeights = balancedWeights;
+        this.quoteCache = new AtomicReferenceArray<>(Integer.highestOneBit(Math.max(1, quoteCacheSize - 1)) << 1);
+
+        List<Product> productList = new ArrayList<>();
+        productList.add(null);
+        for (String[] row : readRows(productsCsv, 8)) {
+            Product product = new Product(row[0], row[1], row[2], Double.parseDouble(row[3]), Double.parseDouble(row[4]),
+                    Double.parseDouble(row[5]), Double.parseDouble(row[6]), Double.parseDouble(row[7]));
+            if (DEFAULT_PRODUCT_ID.equals(product.productId())) {
+                productList.set(0, product);
+            } else if (productSlots.putIfAbsent(product.productId(), productList.size()) == null) {
+                productList.add(product);
+            }
+        }
+        if (productList.get(0) == null) {
+            throw new IllegalStateException("Product table has no default row with productId " + DEFAULT_PRODUCT_ID);
+        }
+        this.products = productList.toArray(new Product[0]);
+
+        List<String[]> serviceRows = readRows(servicesCsv, 5);
+        int serviceCount = serviceRows.size();
+        this.carriers = new String[serviceCount];
+        this.serviceNames = new String[serviceCount];
+        this.dimDivisors = new double[serviceCount];
+        this.co2KgPerTonneKm = new double[serviceCount];
+        this.zoneCount = serviceCount == 0 ? 0 : serviceRows.get(0)[4].split(";").length;
+        this.transitDays = new int[serviceCount * zoneCount];
+        Map<String, Integer> serviceIndex = new HashMap<>();
+        for (int s = 0; s < serviceCount; s++) {
+            String[] row = serviceRows.get(s);
+            carriers[s] = row[0];
+            serviceNames[s] = row[1];
+            dimDivisors[s] = Double.parseDouble(row[2]);
+            co2KgPerTonneKm[s] = Double.parseDouble(row[3]);
+            String[] days = row[4].split(";");
+            if (days.length != zoneCount) {
+                throw new IllegalStateException("Service " + row[1] + " lists transit days for " + days.length + " zones, expected " + zoneCount);
+            }
+            for (int z = 0; z < zoneCount; z++) {
+                transitDays[s * zoneCount + z] = Integer.parseInt(days[z].trim());
+            }
+            serviceIndex.put(row[0] + "," + row[1], s);
+        }
+
+        // Group rows by service and zone, then lay each group out sorted by weight break
+        List<List<double[]>> groups = new ArrayList<>(serviceCount * zoneCount);
+        for (int i = 0; i < serviceCount * zoneCount; i++) {
+            groups.add(new ArrayList<>());
+        }
+        for (String[] row : readRows(ratesCsv, 5)) {
+            Integer s = serviceIndex.get(row[0] + "," + row[1]);
+            int zone = Integer.parseInt(row[2]);
+            if (s == null || zone < 1 || zone > zoneCount) {
+                throw new IllegalStateException("Rate row for unknown service or zone: " + String.join(",", row));
+            }
+            groups.get(s * zoneCount + zone - 1).add(new double[]{Double.parseDouble(row[3]), Double.parseDouble(row[4])});
+        }
+        this.rateStart = new int[serviceCount * zoneCount + 1];
+        int rateCount = groups.stream().mapToInt(List::size).sum();
+        this.maxWeightsKg = new double[rateCount];
+        this.prices = new double[rateCount];
+        int offset = 0;
+        for (int g = 0; g < groups.size(); g++) {
+            rateStart[g] = offset;
+            List<double[]> group = groups.get(g);
+            group.sort((a, b) -> Double.compare(a[0], b[0]));
+            for (double[] rate : group) {
+                if (offset > rateStart[g] && (rate[0] == maxWeightsKg[offset - 1] || rate[1] < prices[offset - 1])) {
+                    throw new IllegalStateException("Rates of " + serviceNames[g / zoneCount] + " in zone " + (g % zoneCount + 1)
+                            + " must have distinct weight breaks and prices that never decrease");
+                }
+                maxWeightsKg[offset] = rate[0];
+                prices[offset] = rate[1];
+                offset++;
+            }
+        }
+        rateStart[groups.size()] = offset;
+
+        List<String[]> zoneRows = readRows(zonesCsv, 4);
+        zoneRows.sort((a, b) -> Integer.compare(Integer.parseInt(a[0]), Integer.parseInt(b[0])));
+        int rangeCount = zoneRows.size();
+        this.zip3From = new int[rangeCount];
+        this.zip3To = new int[rangeCount];
+        this.rangeZones = new int[rangeCount];
+        this.rangeDistancesKm = new int[rangeCount];
+        for (int r = 0; r < rangeCount; r++) {
+            String[] row = zoneRows.get(r);
+            zip3From[r] = Integer.parseInt(row[0]);
+            zip3To[r] = Integer.parseInt(row[1]);
+            rangeZones[r] = Integer.parseInt(row[2]);
+            rangeDistancesKm[r] = Integer.parseInt(row[3]);
+            if (zip3To[r] < zip3From[r] || (r > 0 && zip3From[r] <= zip3To[r - 1])
+                    || rangeZones[r] < 1 || rangeZones[r] > zoneCount) {
+                throw new IllegalStateException("Invalid or overlapping ZIP3 range " + String.join(",", row));
+            }
+        }
+    }
+
+    /**
+     * The catalog entry for a product ID, or the default product if it is not listed.
+     */
+    public Product product(String productId) {
+        Integer slot = productId != null ? productSlots.get(productId) : null;
+        return products[slot != null ? slot : 0];
+    }
+
+    /**
+     * All services that accept the product to the destination ZIP code, cheapest first, or null if the destination
+     * is not served.
+     */
+    public Quote quote(String productId, String destination) {
+        int range = destinationRange(destination);
+        if (range < 0) {
+            return null;
+        }
+        Integer slot = productId != null ? productSlots.get(productId) : null;
+        int productSlot = slot != null ? slot : 0;
+        int key = productSlot * zip3From.length + range;
+        int bucket = (key ^ (key >>> 16)) & (quoteCache.length() - 1);
+        CachedQuote cached = quoteCache.get(bucket);
+        if (cached != null && cached.key == key) {
+            cacheHits.incrementAndGet();
+            return cached.quote;
+        }
+        cacheMisses.incrementAndGet();
+        Quote quote = computeQuote(products[productSlot], rangeZones[range], rangeDistancesKm[range]);
+        quoteCache.set(bucket, new CachedQuote(key, quote));
+        return quote;
+    }
+
+    /**
+     * Options for shipping units of several products together, cheapest first, or null if the destination is not
+     * served. Each service packs the units into as few parcels as its weight limit allows (next-fit, heaviest
+     * products first) and leaves out shipments containing a unit it cannot take at all. Not cached: quantities and
+     * product mixes rarely repeat.
+     *
+     * @param weightsKg  actual weight of one unit of each product
+     * @param volumesCm3 volume of one unit of each product
+     * @param quantities units of each product
+     */
+    public List<RateQuote> quoteShipment(double[] weightsKg, double[] volumesCm3, int[] quantities, String destination) {
+        int range = destinationRange(destination);
+        if (range < 0) {
+            return null;
+        }
+        int zone = rangeZones[range];
+        int distanceKm = rangeDistancesKm[range];
+        Integer[] heaviestFirst = new Integer[weightsKg.length];
+        double[] unitChargeableKg = new double[weightsKg.length];
+        List<RateQuote> options = new ArrayList<>(serviceNames.length);
+        for (int s = 0; s < serviceNames.length; s++) {
+            int group = s * zoneCount + zone - 1;
+            if (rateStart[group] == rateStart[group + 1]) {
+                continue;
+            }
+            double limitKg = maxWeightsKg[rateStart[group + 1] - 1];
+            for (int i = 0; i < weightsKg.length; i++) {
+                heaviestFirst[i] = i;
+                unitChargeableKg[i] = Math.max(weightsKg[i], volumesCm3[i] / dimDivisors[s]);
+            }
+            Arrays.sort(heaviestFirst, (a, b) -> Double.compare(unitChargeableKg[b], unitChargeableKg[a]));
+
+            // A parcel's chargeable weight is at most the sum of its units' chargeable weights, so filling parcels
+            // up to the limit by that sum never produces a parcel the service rejects
+            Shipment shipment = new Shipment();
+            for (int i : heaviestFirst) {
+                int remaining = quantities[i];
+                while (remaining > 0 && shipment.accepted) {
+                    int fit = (int) Math.min(remaining, Math.floor((limitKg - shipment.openUnitsKg) / unitChargeableKg[i]));
+                    if (fit > 0) {
+                        shipment.openWeightKg += weightsKg[i] * fit;
+                        shipment.openVolumeCm3 += volumesCm3[i] * fit;
+                        shipment.openUnitsKg += unitChargeableKg[i] * fit;
+                        remaining -= fit;
+                    } else if (shipment.openUnitsKg > 0) {
+                        closeParcel(shipment, s, group, distanceKm);
+                    } else {
+                        shipment.accepted = false; // a single unit is over the limit
+                    }
+                }
+            }
+            if (shipment.openUnitsKg > 0) {
+                closeParcel(shipment, s, group, distanceKm);
+            }
+            if (shipment.accepted && shipment.parcels > 0) {
+                options.add(new RateQuote(carriers[s], serviceNames[s], shipment.parcels, shipment.chargeableKg, transitDays[group],
+                        Math.round(shipment.cost * 100) / 100.0, Math.round(shipment.carbonKg) / 1000.0));
+            }
+        }
+        options.sort((a, b) -> Double.compare(a.cost(), b.cost()));
+        return options;
+    }
+
+    /**
+     * Shipping zone of a destination ZIP code, or -1 if it is not served.
+     */
+    public int zone(String destination) {
+        int range = destinationRange(destination);
+        return range >= 0 ? rangeZones[range] : -1;
+    }
+
+    /**
+     * Index of the option the policy recommends, or -1 if there are none. Ties go to the cheaper option.
+     */
+    public int recommend(List<RateQuote> options, Policy policy) {
+        if (options.isEmpty()) {
+            return -1;
+        }
+        PolicyWeights weights = switch (policy) {
+            case COST -> new PolicyWeights(1, 0, 0);
+            case SPEED -> new PolicyWeights(0, 1, 0);
+            case CARBON -> new PolicyWeights(0, 0, 1);
+            case BALANCED -> balancedWeights;
+        };
+        double minCost = Double.MAX_VALUE;
+        double minDays = Double.MAX_VALUE;
+        double minCarbon = Double.MAX_VALUE;
+        for (RateQuote option : options) {
+            minCost = Math.min(minCost, option.cost());
+            minDays = Math.min(minDays, option.estimatedDeliveryDays());
+            minCarbon = Math.min(minCarbon, option.carbonFootprint());
+        }
+        int best = -1;
+        double bestScore = Double.MAX_VALUE;
+        for (int i = 0; i < options.size(); i++) {
+            RateQuote option = options.get(i);
+            double score = weights.cost() * ratio(option.cost(), minCost)
+                    + weights.days() * ratio(option.estimatedDeliveryDays(), minDays)
+                    + weights.carbon() * ratio(option.carbonFootprint(), minCarbon);
+            if (score < bestScore || (score == bestScore && option.cost() < options.get(best).cost())) {
+                best = i;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("shipping.quote.cache.requests", cacheHits, AtomicLong::get)
+                .tag("result", "hit")
+                .description("Shipping quotes served from the cache")
+                .register(registry);
+        FunctionCounter.builder("shipping.quote.cache.requests", cacheMisses, AtomicLong::get)
+                .tag("result", "miss")
+                .description("Shipping quotes computed from the rate tables")
+                .register(registry);
+    }
+
+    private Quote computeQuote(Product product, int zone, int distanceKm) {
+        double volumeCm3 = product.lengthCm() * product.widthCm() * product.heightCm();
+        return new Quote(product, zone, distanceKm, rates(product.weightKg(), volumeCm3, zone, distanceKm));
+    }
+
+    private List<RateQuote> rates(double weightKg, double volumeCm3, int zone, int distanceKm) {
+        List<RateQuote> options = new ArrayList<>(serviceNames.length);
+        for (int s = 0; s < serviceNames.length; s++) {
+            double chargeableKg = chargeableKg(weightKg, volumeCm3, s);
+            int group = s * zoneCount + zone - 1;
+            double price = price(group, chargeableKg);
+            if (Double.isNaN(price)) {
+                continue; // heavier than this service takes
+            }
+            // Freight emissions scale with the cargo space a parcel takes, which is what its chargeable weight measures
+            double carbonKg = Math.round(chargeableKg * distanceKm * co2KgPerTonneKm[s]) / 1000.0;
+            options.add(new RateQuote(carriers[s], serviceNames[s], 1, chargeableKg, transitDays[group], price, carbonKg));
+        }
+        options.sort((a, b) -> Double.compare(a.cost(), b.cost()));
+        return List.copyOf(options);
+    }
+
+    private void closeParcel(Shipment shipment, int service, int group, int distanceKm) {
+        double chargeableKg = chargeableKg(shipment.openWeightKg, shipment.openVolumeCm3, service);
+        shipment.parcels++;
+        shipment.chargeableKg += chargeableKg;
+        shipment.cost += price(group, chargeableKg);
+        shipment.carbonKg += chargeableKg * distanceKm * co2KgPerTonneKm[service];
+        shipment.openWeightKg = 0;
+        shipment.openVolumeCm3 = 0;
+        shipment.openUnitsKg = 0;
+    }
+
+    // The greater of actual and dimensional weight, rounded up to the next half kilogram
+    private double chargeableKg(double weightKg, double volumeCm3, int service) {
+        return Math.ceil(Math.max(weightKg, volumeCm3 / dimDivisors[service]) * 2) / 2;
+    }
+
+    // Price of the first weight break at or above the chargeable weight, or NaN if it exceeds the last one
+    private double price(int group, double chargeableKg) {
+        int from = rateStart[group];
+        int to = rateStart[group + 1];
+        int rate = Arrays.binarySearch(maxWeightsKg, from, to, chargeableKg);
+        if (rate < 0) {
+            rate = -rate - 1;
+        }
+        return rate < to ? prices[rate] : Double.NaN;
+    }
+
+    // Index of the ZIP3 range a 5 digit or ZIP+4 code falls in, or -1
+    private int destinationRange(String destination) {
+        if (destination == null) {
+            return -1;
+        }
+        String zip = destination.trim();
+        int length = zip.length();
+        if (length != 5 && !(length == 10 && zip.charAt(5) == '-')) {
+            return -1;
+        }
+        int zip3 = 0;
+        for (int i = 0; i < length; i++) {
+            char c = zip.charAt(i);
+            if (i == 5) {
+                continue;
+            }
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            if (i < 3) {
+                zip3 = zip3 * 10 + (c - '0');
+            }
+        }
+        int range = Arrays.binarySearch(zip3From, zip3);
+        if (range < 0) {
+            range = -range - 2; // the range starting below this ZIP3
+        }
+        return range >= 0 && zip3 <= zip3To[range] ? range : -1;
+    }
+
+    private static double ratio(double value, double best) {
+        return best > 0 ? value / best : (value > 0 ? 2 : 1);
+    }
+
+    // Data rows of a CSV table: comment lines and the header row are skipped, extra columns are ignored
+    private static List<String[]> readRows(InputStream csv, int columns) throws IOException {
+        List<String[]> rows = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(csv, StandardCharsets.UTF_8))) {
+            String line;
+            boolean header = true;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank() || line.charAt(0) == '#') {
+                    continue;
+                }
+                if (header) {
+                    header = false;
+                    continue;
+                }
+                String[] row = line.split(",", -1);
+                if (row.length < columns) {
+                    throw new IllegalStateException("Expected " + columns + " columns in shipping table row: " + line);
+                }
+                for (int i = 0; i < row.length; i++) {
+                    row[i] = row[i].trim();
+                }
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+
+    private record CachedQuote(int key, Quote quote) {
+    }
+
+    // Closed parcels of one service's packing, and the contents of the parcel being filled
+    private static final class Shipment {
+        boolean accepted = true;
+        int parcels;
+        double chargeableKg;
+        double cost;
+        double carbonKg;
+        double openWeightKg;
+        double openVolumeCm3;
+        double openUnitsKg;
+    }
+}
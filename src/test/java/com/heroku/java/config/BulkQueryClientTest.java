@@ -0,0 +1,131 @@
+package com.heroku.java.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sforce.soap.partner.fault.ApiFault;
+import com.sforce.soap.partner.sobject.SObject;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.net.http.HttpHeaders;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class BulkQueryClientTest {
+
+    private static final SalesforceUserContext USER_CONTEXT = new SalesforceUserContext("token", "62.0", "request", "demo",
+            "00D000000000001", "https://example.my.salesforce.com", "005000000000001", "user@example.com");
+    private static final String JOBS_PATH = "/services/data/v62.0/jobs/query";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void readsQuotedFieldsWithCommasQuotesAndLineBreaks() throws Exception {
+        List<SObject> records = read("Id,Name,Description__c\n"
+                + "a01000000000001AAA,\"Smith, Jones\",\"Said \"\"hello\"\"\nthen left\"\n");
+
+        assertThat(records).hasSize(1);
+        assertThat(records.get(0).getId()).isEqualTo("a01000000000001AAA");
+        assertThat(records.get(0).getField("Name")).isEqualTo("Smith, Jones");
+        assertThat(records.get(0).getField("Description__c")).isEqualTo("Said \"hello\"\nthen left");
+    }
+
+    @Test
+    void readsCrlfLineEndings() throws Exception {
+        List<SObject> records = read("Id,Class__c\r\na01000000000001AAA,Economy\r\na01000000000002AAA,Business\r\n");
+
+        assertThat(records).extracting(SObject::getId).containsExactly("a01000000000001AAA", "a01000000000002AAA");
+        assertThat(records).extracting(record -> record.getField("Class__c")).containsExactly("Economy", "Business");
+    }
+
+    @Test
+    void mapsEmptyFieldsToNull() throws Exception {
+        List<SObject> records = read("Id,Class__c,Flight__c\na01000000000001AAA,,\"\"\n");
+
+        assertThat(records.get(0).getField("Class__c")).isNull();
+        assertThat(records.get(0).getField("Flight__c")).isNull();
+    }
+
+    @Test
+    void setsTheRecordTypeAndReadsTheLastRowWithoutALineBreak() throws Exception {
+        List<SObject> records = read("Id\na01000000000001AAA");
+
+        assertThat(records).hasSize(1);
+        assertThat(records.get(0).getType()).isEqualTo("Booking__c");
+        assertThat(records.get(0).getId()).isEqualTo("a01000000000001AAA");
+    }
+
+    @Test
+    void readsNoRecordsFromEmptyResults() throws Exception {
+        assertThat(read("")).isEmpty();
+        assertThat(read("Id,Class__c\n")).isEmpty();
+    }
+
+    @Test
+    void rejectsAnUnterminatedQuotedField() {
+        assertThatThrownBy(() -> read("Id,Name\na01000000000001AAA,\"Smith\n"))
+                .hasMessageContaining("Unterminated quoted field");
+    }
+
+    @Test
+    void followsTheSforceLocatorThroughEveryPage() throws Exception {
+        SalesforceHttpClient http = mock(SalesforceHttpClient.class);
+        when(http.dataPath(USER_CONTEXT)).thenReturn("/services/data/v62.0");
+        when(http.sendJson(eq(USER_CONTEXT), eq("POST"), eq(JOBS_PATH), any())).thenReturn(objectMapper.readTree("{\"id\":\"750000000000001\"}"));
+        when(http.getJson(USER_CONTEXT, JOBS_PATH + "/750000000000001")).thenReturn(objectMapper.readTree("{\"state\":\"JobComplete\"}"));
+        String resultsPath = JOBS_PATH + "/750000000000001/results?maxRecords=2";
+        when(http.send(USER_CONTEXT, "GET", resultsPath, null, "text/csv"))
+                .thenReturn(page("Id,Class__c\na01000000000001AAA,Economy\na01000000000002AAA,Business\n", "MTAwMDA"));
+        when(http.send(USER_CONTEXT, "GET", resultsPath + "&locator=MTAwMDA", null, "text/csv"))
+                .thenReturn(page("Id,Class__c\na01000000000003AAA,First\n", "null"));
+
+        List<SObject> records = new ArrayList<>();
+        BulkQueryClient client = new BulkQueryClient(http, Duration.ofMillis(1), Duration.ofSeconds(5), 2);
+        long count = client.scan(USER_CONTEXT, "SELECT Id, Class__c FROM Booking__c", records::add);
+
+        assertThat(count).isEqualTo(3);
+        assertThat(records).extracting(SObject::getId).containsExactly("a01000000000001AAA", "a01000000000002AAA", "a01000000000003AAA");
+        assertThat(records).extracting(SObject::getType).containsOnly("Booking__c");
+        // A completed job is left alone
+        verify(http, never()).sendJson(eq(USER_CONTEXT), eq("PATCH"), any(), any());
+    }
+
+    @Test
+    void abortsTheJobWhenItFails() throws Exception {
+        SalesforceHttpClient http = mock(SalesforceHttpClient.class);
+        when(http.dataPath(USER_CONTEXT)).thenReturn("/services/data/v62.0");
+        when(http.sendJson(eq(USER_CONTEXT), eq("POST"), eq(JOBS_PATH), any())).thenReturn(objectMapper.readTree("{\"id\":\"750000000000001\"}"));
+        when(http.getJson(USER_CONTEXT, JOBS_PATH + "/750000000000001"))
+                .thenReturn(objectMapper.readTree("{\"state\":\"Failed\",\"errorMessage\":\"Too many rows\"}"));
+
+        BulkQueryClient client = new BulkQueryClient(http, Duration.ofMillis(1), Duration.ofSeconds(5), 2);
+
+        assertThatThrownBy(() -> client.scan(USER_CONTEXT, "SELECT Id FROM Booking__c", record -> { }))
+                .isInstanceOfSatisfying(ApiFault.class, fault -> assertThat(fault.getExceptionMessage()).contains("Too many rows"));
+        verify(http).sendJson(USER_CONTEXT, "PATCH", JOBS_PATH + "/750000000000001", Map.of("state", "Aborted"));
+    }
+
+    private static List<SObject> read(String csv) throws Exception {
+        List<SObject> records = new ArrayList<>();
+        long count = BulkQueryClient.readRecords(new StringReader(csv), "Booking__c", records::add);
+        assertThat(count).isEqualTo(records.size());
+        return records;
+    }
+
+    private static SalesforceHttpClient.Response page(String csv, String locator) {
+        HttpHeaders headers = HttpHeaders.of(Map.of("Sforce-Locator", List.of(locator)), (name, value) -> true);
+        return new SalesforceHttpClient.Response(headers, new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,107 @@
+package com.heroku.java.config;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ClientContextDecoderTest {
+
+    private static final String CLIENT_CONTEXT = """
+            {"requestId": "request-1", "accessToken": "token", "apiVersion": "62.0", "namespace": "demo",
+             "orgId": "00D000000000001", "orgDomainUrl": "https://example.my.salesforce.com",
+             "userContext": {"userId": "005000000000001", "username": "user@example.com"}}
+            """;
+
+    @Test
+    void decodesEveryField() throws Exception {
+        SalesforceUserContext userContext = new ClientContextDecoder(128).decode(encode(CLIENT_CONTEXT));
+
+        assertThat(userContext.getAccessToken()).isEqualTo("token");
+        assertThat(userContext.getApiVersion()).isEqualTo("62.0");
+        assertThat(userContext.getRequestId()).isEqualTo("request-1");
+        assertThat(userContext.getNamespace()).isEqualTo("demo");
+        assertThat(userContext.getOrgId()).isEqualTo("00D000000000001");
+        assertThat(userContext.getOrgDomainUrl()).isEqualTo("https://example.my.salesforce.com");
+        assertThat(userContext.getUserId()).isEqualTo("005000000000001");
+        assertThat(userContext.getUsername()).isEqualTo("user@example.com");
+    }
+
+    @Test
+    void servesARepeatedHeaderFromTheCacheAsItsFreshDecode() throws Exception {
+        ClientContextDecoder decoder = new ClientContextDecoder(128);
+        String header = encode(CLIENT_CONTEXT);
+
+        SalesforceUserContext first = decoder.decode(header);
+        SalesforceUserContext cached = decoder.decode(header);
+        SalesforceUserContext fresh = new ClientContextDecoder(0).decode(header);
+
+        assertThat(cached).isSameAs(first);
+        assertThat(cached).usingRecursiveComparison().isEqualTo(fresh);
+        assertThat(new ClientContextDecoder(0).decode(header)).isNotSameAs(fresh);
+    }
+
+    @Test
+    void skipsUnknownFieldsOfAnyShape() throws Exception {
+        String header = encode("""
+                {"extra": {"nested": [1, {"orgId": "not this one"}]}, "accessToken": "token", "apiVersion": "62.0",
+                 "orgId": "00D000000000001", "orgDomainUrl": "https://example.my.salesforce.com", "flags": [true, null],
+                 "userContext": {"userId": "005000000000001", "profile": {"userId": "not this one"}, "username": "user@example.com"}}
+                """);
+
+        SalesforceUserContext userContext = new ClientContextDecoder(128).decode(header);
+
+        assertThat(userContext.getOrgId()).isEqualTo("00D000000000001");
+        assertThat(userContext.getUserId()).isEqualTo("005000000000001");
+        assertThat(userContext.getUsername()).isEqualTo("user@example.com");
+        // Optional fields
+        assertThat(userContext.getRequestId()).isNull();
+        assertThat(userContext.getNamespace()).isNull();
+    }
+
+    @Test
+    void rejectsAHeaderMissingARequiredField() {
+        ClientContextDecoder decoder = new ClientContextDecoder(128);
+
+        assertThatThrownBy(() -> decoder.decode(encode(CLIENT_CONTEXT.replace("\"accessToken\": \"token\", ", ""))))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Missing required fields");
+        assertThatThrownBy(() -> decoder.decode(encode(CLIENT_CONTEXT.replace("\"username\": \"user@example.com\"", "\"other\": 1"))))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> decoder.decode(encode("{}")))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void rejectsMalformedBase64AndJson() {
+        ClientContextDecoder decoder = new ClientContextDecoder(128);
+
+        assertThatThrownBy(() -> decoder.decode("not base64!"))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> decoder.decode(encode("[\"accessToken\"]")))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("not a JSON object");
+        assertThatThrownBy(() -> decoder.decode(encode("{\"accessToken\": ")))
+                .isInstanceOf(JsonProcessingException.class);
+        assertThatThrownBy(() -> decoder.decode(encode("accessToken=token")))
+                .isInstanceOf(JsonProcessingException.class);
+    }
+
+    @Test
+    void doesNotCacheHeadersThatFailToDecode() throws Exception {
+        ClientContextDecoder decoder = new ClientContextDecoder(128);
+        String missingUser = encode(CLIENT_CONTEXT.replace("\"userId\": \"005000000000001\", ", ""));
+
+        assertThatThrownBy(() -> decoder.decode(missingUser)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> decoder.decode(missingUser)).isInstanceOf(IllegalArgumentException.class);
+        assertThat(decoder.decode(encode(CLIENT_CONTEXT)).getUserId()).isEqualTo("005000000000001");
+    }
+
+    private static String encode(String json) {
+        return Base64.getEncoder().encodeToString(json.getBytes(StandardCharsets.UTF_8));
+    }
+}
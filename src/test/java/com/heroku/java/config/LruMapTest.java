@@ -0,0 +1,62 @@
+package com.heroku.java.config;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LruMapTest {
+
+    @Test
+    void forgetsTheLeastRecentlyUsedEntryFirst() {
+        List<Integer> evicted = new ArrayList<>();
+        LruMap<String, Integer> map = new LruMap<>(2, evicted::add);
+        map.put("a", 1);
+        map.put("b", 2);
+        // Reading a makes b the least recently used
+        map.get("a");
+
+        map.put("c", 3);
+
+        assertThat(map).containsOnlyKeys("a", "c");
+        assertThat(evicted).containsExactly(2);
+    }
+
+    @Test
+    void replacingAnEntryEvictsNothing() {
+        List<Integer> evicted = new ArrayList<>();
+        LruMap<String, Integer> map = new LruMap<>(2, evicted::add);
+        map.put("a", 1);
+        map.put("b", 2);
+
+        map.put("a", 10);
+
+        assertThat(map).containsOnlyKeys("a", "b");
+        assertThat(evicted).isEmpty();
+    }
+
+    @Test
+    void skipsEntriesThatMayNotBeEvicted() {
+        List<Integer> evicted = new ArrayList<>();
+        LruMap<String, Integer> map = new LruMap<>(2, value -> value % 2 == 0, evicted::add);
+        map.put("odd", 1);
+        map.put("even", 2);
+
+        map.put("new", 3);
+
+        assertThat(map).containsOnlyKeys("odd", "new");
+        assertThat(evicted).containsExactly(2);
+    }
+
+    @Test
+    void growsPastItsSizeRatherThanEvictTheEntryJustAdded() {
+        LruMap<String, Integer> map = new LruMap<>(1, value -> false, value -> { });
+        map.put("a", 1);
+
+        map.computeIfAbsent("b", key -> 2);
+
+        assertThat(map).containsOnlyKeys("a", "b");
+    }
+}
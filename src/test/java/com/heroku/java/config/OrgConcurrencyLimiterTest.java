@@ -0,0 +1,131 @@
+package com.heroku.java.config;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class OrgConcurrencyLimiterTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @Test
+    void grantsSlotsUpToTheOrgLimitAndFreesThemOnRelease() {
+        OrgConcurrencyLimiter limiter = limiter(100, 2, 256);
+
+        OrgConcurrencyLimiter.Permit first = limiter.tryAcquire("org-a");
+        OrgConcurrencyLimiter.Permit second = limiter.tryAcquire("org-a");
+        OrgConcurrencyLimiter.Permit third = limiter.tryAcquire("org-a");
+
+        assertThat(first.isGranted()).isTrue();
+        assertThat(second.isGranted()).isTrue();
+        assertThat(third.isGranted()).isFalse();
+        assertThat(third.getRejection()).isEqualTo(OrgConcurrencyLimiter.Rejection.ORG_LIMIT);
+        assertThat(registry.get("action.concurrency.rejected").tags("reason", "org-limit", "orgId", "org-a").counter().count()).isEqualTo(1);
+        // Other orgs have slots of their own
+        assertThat(limiter.tryAcquire("org-b").isGranted()).isTrue();
+
+        first.release(null);
+        assertThat(limiter.tryAcquire("org-a").isGranted()).isTrue();
+        assertThat(registry.get("action.concurrency.in-flight").gauge().value()).isEqualTo(3);
+    }
+
+    @Test
+    void rejectsRequestsOverTheGlobalCap() {
+        OrgConcurrencyLimiter limiter = limiter(2, 20, 256);
+
+        assertThat(limiter.tryAcquire("org-a").isGranted()).isTrue();
+        assertThat(limiter.tryAcquire("org-b").isGranted()).isTrue();
+        OrgConcurrencyLimiter.Permit rejected = limiter.tryAcquire("org-c");
+
+        assertThat(rejected.getRejection()).isEqualTo(OrgConcurrencyLimiter.Rejection.CAPACITY);
+        // A refused permit holds nothing
+        rejected.release(null);
+        assertThat(registry.get("action.concurrency.in-flight").gauge().value()).isEqualTo(2);
+    }
+
+    @Test
+    void evictsTheLeastRecentlySeenIdleOrgButNeverABusyOne() {
+        OrgConcurrencyLimiter limiter = limiter(100, 20, 2);
+        OrgConcurrencyLimiter.Permit busy = limiter.tryAcquire("org-busy");
+        limiter.tryAcquire("org-idle").release(null);
+
+        limiter.tryAcquire("org-new");
+
+        assertThat(registry.find("action.concurrency.limit").tag("orgId", "org-idle").gauge()).isNull();
+        assertThat(registry.find("action.concurrency.org.in-flight").tag("orgId", "org-idle").gauge()).isNull();
+        assertThat(registry.get("action.concurrency.org.in-flight").tag("orgId", "org-busy").gauge().value()).isEqualTo(1);
+        assertThat(registry.get("action.concurrency.limit").tag("orgId", "org-new").gauge().value()).isEqualTo(20);
+
+        // The busy org is still the one its permit counts against
+        busy.release(null);
+        assertThat(registry.get("action.concurrency.org.in-flight").tag("orgId", "org-busy").gauge().value()).isZero();
+    }
+
+    @Test
+    void growsTheLimitWhileLatencyHoldsAndShrinksItWhenLatencyRises() {
+        OrgConcurrencyLimiter limiter = limiter(1_000, 20, 256);
+
+        for (int round = 0; round < 20; round++) {
+            runFullRound(limiter, Duration.ofMillis(10));
+        }
+        double steadyLimit = orgLimit();
+        assertThat(steadyLimit).isGreaterThan(20);
+
+        for (int round = 0; round < 20; round++) {
+            runFullRound(limiter, Duration.ofMillis(100));
+        }
+        assertThat(orgLimit()).isLessThan(steadyLimit).isGreaterThanOrEqualTo(4);
+    }
+
+    @Test
+    void leavesTheLimitAloneForRequestsThatRanNoQueries() {
+        OrgConcurrencyLimiter limiter = limiter(1_000, 20, 256);
+
+        for (int round = 0; round < 5; round++) {
+            List<OrgConcurrencyLimiter.Permit> permits = fill(limiter);
+            permits.forEach(permit -> permit.release(new RequestTimings()));
+        }
+
+        assertThat(orgLimit()).isEqualTo(20);
+    }
+
+    @Test
+    void grantsEverythingWhenDisabled() {
+        OrgConcurrencyLimiter limiter = new OrgConcurrencyLimiter(registry, true, false, 1, 1, 1, 1, 1.5, 0.2, 1, Duration.ofSeconds(1));
+
+        for (int i = 0; i < 10; i++) {
+            assertThat(limiter.tryAcquire("org-a").isGranted()).isTrue();
+        }
+    }
+
+    private OrgConcurrencyLimiter limiter(int maxInFlight, int initialLimit, int maxOrgs) {
+        return new OrgConcurrencyLimiter(registry, true, true, maxInFlight, initialLimit, 4, 100, 1.5, 0.2, maxOrgs, Duration.ofSeconds(1));
+    }
+
+    // Takes every slot the org has, then releases them all as requests whose queries took the given time
+    private static void runFullRound(OrgConcurrencyLimiter limiter, Duration queryTime) {
+        for (OrgConcurrencyLimiter.Permit permit : fill(limiter)) {
+            RequestTimings timings = new RequestTimings();
+            timings.record(RequestTimings.Stage.SOQL, "Booking__c", queryTime.toNanos());
+            permit.release(timings);
+        }
+    }
+
+    private static List<OrgConcurrencyLimiter.Permit> fill(OrgConcurrencyLimiter limiter) {
+        List<OrgConcurrencyLimiter.Permit> permits = new ArrayList<>();
+        OrgConcurrencyLimiter.Permit permit;
+        while ((permit = limiter.tryAcquire("org-a")).isGranted()) {
+            permits.add(permit);
+        }
+        return permits;
+    }
+
+    private double orgLimit() {
+        return registry.get("action.concurrency.limit").tag("orgId", "org-a").gauge().value();
+    }
+}
@@ -0,0 +1,72 @@
+package com.heroku.java.config;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RequestStageMetricsTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @Test
+    void recordsEachStageUnderTheEndpointAndOrg() {
+        RequestStageMetrics metrics = new RequestStageMetrics(registry, true, 256, false);
+
+        metrics.end(timings("org-a", Duration.ofMillis(40), Duration.ofMillis(60)), request());
+
+        assertThat(registry.get(RequestStageMetrics.METER_NAME)
+                .tags("endpoint", "/api/calculateCarbonFootprint", "orgId", "org-a", "stage", "soql", "sobject", "Booking__c")
+                .timer().count()).isEqualTo(2);
+        assertThat(registry.get(RequestStageMetrics.METER_NAME)
+                .tags("orgId", "org-a", "stage", "compute", "sobject", "none")
+                .timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    void removesTheSeriesOfTheLeastRecentlySeenOrgOnceThereAreTooMany() {
+        RequestStageMetrics metrics = new RequestStageMetrics(registry, true, 2, false);
+        metrics.end(timings("org-a", Duration.ofMillis(10)), request());
+        metrics.end(timings("org-b", Duration.ofMillis(10)), request());
+        // Seeing org-a again makes org-b the least recently seen
+        metrics.end(timings("org-a", Duration.ofMillis(10)), request());
+
+        metrics.end(timings("org-c", Duration.ofMillis(10)), request());
+
+        assertThat(registry.find(RequestStageMetrics.METER_NAME).tag("orgId", "org-b").timers()).isEmpty();
+        assertThat(registry.find(RequestStageMetrics.METER_NAME).tag("orgId", "org-a").timers()).hasSize(2);
+        assertThat(registry.find(RequestStageMetrics.METER_NAME).tag("orgId", "org-c").timers()).hasSize(2);
+        assertThat(registry.find(RequestStageMetrics.METER_NAME).timers()).hasSize(4);
+    }
+
+    @Test
+    void leavesOutTheOrgWhenTaggingIsOff() {
+        RequestStageMetrics metrics = new RequestStageMetrics(registry, false, 1, false);
+
+        metrics.end(timings("org-a", Duration.ofMillis(10)), request());
+        metrics.end(timings("org-b", Duration.ofMillis(10)), request());
+
+        assertThat(registry.find(RequestStageMetrics.METER_NAME).tagKeys("orgId").timers()).isEmpty();
+        assertThat(registry.get(RequestStageMetrics.METER_NAME).tags("stage", "soql").timer().count()).isEqualTo(2);
+    }
+
+    private static RequestTimings timings(String orgId, Duration... queryTimes) {
+        RequestTimings timings = new RequestTimings();
+        timings.setOrgId(orgId);
+        for (Duration queryTime : queryTimes) {
+            timings.record(RequestTimings.Stage.SOQL, "Booking__c", queryTime.toNanos());
+        }
+        timings.record(RequestTimings.Stage.COMPUTE, null, Duration.ofMillis(1).toNanos());
+        return timings;
+    }
+
+    private static MockHttpServletRequest request() {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE, "/api/calculateCarbonFootprint");
+        return request;
+    }
+}
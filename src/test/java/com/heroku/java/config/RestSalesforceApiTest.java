@@ -0,0 +1,94 @@
+package com.heroku.java.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sforce.soap.partner.QueryResult;
+import com.sforce.soap.partner.sobject.SObject;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RestSalesforceApiTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void convertsRecordsLikeThePartnerApi() throws Exception {
+        QueryResult result = RestSalesforceApi.queryResult(objectMapper.readTree("""
+                {"totalSize": 1, "done": true, "records": [
+                  {"attributes": {"type": "Flight__c", "url": "/services/data/v62.0/sobjects/Flight__c/a02000000000001AAA"},
+                   "Id": "a02000000000001AAA", "Airline__c": "Summit Jet", "Seats__c": 180, "International__c": false,
+                   "Gate__c": null}
+                ]}"""));
+
+        assertThat(result.isDone()).isTrue();
+        assertThat(result.getSize()).isEqualTo(1);
+        assertThat(result.getQueryLocator()).isNull();
+        SObject flight = result.getRecords()[0];
+        assertThat(flight.getType()).isEqualTo("Flight__c");
+        assertThat(flight.getId()).isEqualTo("a02000000000001AAA");
+        assertThat(flight.getField("Airline__c")).isEqualTo("Summit Jet");
+        // Scalars come back as text, as they do over SOAP
+        assertThat(flight.getField("Seats__c")).isEqualTo("180");
+        assertThat(flight.getField("International__c")).isEqualTo("false");
+        assertThat(flight.getField("Gate__c")).isNull();
+        assertThat(flight.getField("attributes")).isNull();
+    }
+
+    @Test
+    void usesTheNextRecordsUrlAsTheQueryLocator() throws Exception {
+        QueryResult result = RestSalesforceApi.queryResult(objectMapper.readTree("""
+                {"totalSize": 4000, "done": false, "nextRecordsUrl": "/services/data/v62.0/query/01gD0000002HU6KIAW-2000",
+                 "records": [{"attributes": {"type": "Booking__c"}, "Id": "a01000000000001AAA"}]}"""));
+
+        assertThat(result.isDone()).isFalse();
+        assertThat(result.getSize()).isEqualTo(4000);
+        assertThat(result.getQueryLocator()).isEqualTo("/services/data/v62.0/query/01gD0000002HU6KIAW-2000");
+        assertThat(result.getRecords()).hasSize(1);
+    }
+
+    @Test
+    void mapsParentRelationshipsToNestedRecords() throws Exception {
+        QueryResult result = RestSalesforceApi.queryResult(objectMapper.readTree("""
+                {"totalSize": 1, "done": true, "records": [
+                  {"attributes": {"type": "Booking__c"}, "Id": "a01000000000001AAA",
+                   "Flight__r": {"attributes": {"type": "Flight__c"}, "Id": "a02000000000001AAA",
+                                 "Origin__r": {"attributes": {"type": "Airport__c"}, "Code__c": "DEN"}},
+                   "Passenger__r": null}
+                ]}"""));
+
+        SObject booking = result.getRecords()[0];
+        SObject flight = (SObject) booking.getField("Flight__r");
+        assertThat(flight.getType()).isEqualTo("Flight__c");
+        assertThat(flight.getId()).isEqualTo("a02000000000001AAA");
+        SObject origin = (SObject) flight.getField("Origin__r");
+        assertThat(origin.getType()).isEqualTo("Airport__c");
+        assertThat(origin.getField("Code__c")).isEqualTo("DEN");
+        assertThat(booking.getField("Passenger__r")).isNull();
+    }
+
+    @Test
+    void mapsChildRelationshipsToNestedQueryResults() throws Exception {
+        QueryResult result = RestSalesforceApi.queryResult(objectMapper.readTree("""
+                {"totalSize": 1, "done": true, "records": [
+                  {"attributes": {"type": "Flight__c"}, "Id": "a02000000000001AAA",
+                   "Bookings__r": {"totalSize": 2, "done": true, "records": [
+                     {"attributes": {"type": "Booking__c"}, "Id": "a01000000000001AAA", "Class__c": "Economy"},
+                     {"attributes": {"type": "Booking__c"}, "Id": "a01000000000002AAA", "Class__c": "Business"}
+                   ]}}
+                ]}"""));
+
+        QueryResult bookings = (QueryResult) result.getRecords()[0].getField("Bookings__r");
+        assertThat(bookings.getSize()).isEqualTo(2);
+        assertThat(bookings.getRecords()).extracting(SObject::getId).containsExactly("a01000000000001AAA", "a01000000000002AAA");
+        assertThat(bookings.getRecords()).extracting(booking -> booking.getField("Class__c")).containsExactly("Economy", "Business");
+    }
+
+    @Test
+    void readsAnEmptyPage() throws Exception {
+        QueryResult result = RestSalesforceApi.queryResult(objectMapper.readTree("{\"totalSize\": 0, \"done\": true, \"records\": []}"));
+
+        assertThat(result.getSize()).isZero();
+        assertThat(result.getRecords()).isEmpty();
+        assertThat(result.isDone()).isTrue();
+    }
+}
@@ -0,0 +1,255 @@
+package com.heroku.java.config;
+
+import com.sforce.soap.partner.fault.ApiQueryFault;
+import com.sforce.ws.ConnectionException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SalesforceCallGuardTest {
+
+    private static final SalesforceUserContext USER_CONTEXT = new SalesforceUserContext("token", "62.0", "request", "demo",
+            "00D000000000001", "https://example.my.salesforce.com", "005000000000001", "user@example.com");
+    private static final Duration OPEN_DURATION = Duration.ofSeconds(30);
+
+    // Only moves when a test moves it; waits on calls still take real time
+    private final AtomicLong clock = new AtomicLong();
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private SalesforceCallGuard guard;
+
+    @AfterEach
+    void shutDown() {
+        if (guard != null) {
+            guard.destroy();
+        }
+    }
+
+    @Test
+    void retriesTransientFailuresUntilACallSucceeds() throws Exception {
+        guard = guard(3, false, 5, Duration.ofSeconds(5));
+        AtomicInteger attempts = new AtomicInteger();
+
+        String result = guard.call(USER_CONTEXT, SalesforceCallGuard.Operation.QUERY, () -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw new ConnectionException("Connection reset");
+            }
+            return "records";
+        });
+
+        assertThat(result).isEqualTo("records");
+        assertThat(attempts).hasValue(3);
+        assertThat(registry.get("salesforce.client.retries").counter().count()).isEqualTo(2);
+    }
+
+    @Test
+    void givesUpAfterTheLastAttempt() {
+        guard = guard(3, false, 5, Duration.ofSeconds(5));
+        AtomicInteger attempts = new AtomicInteger();
+
+        assertThatThrownBy(() -> guard.call(USER_CONTEXT, SalesforceCallGuard.Operation.QUERY, () -> {
+            attempts.incrementAndGet();
+            throw new ConnectionException("Connection reset");
+        })).isInstanceOf(ConnectionException.class).hasMessage("Connection reset");
+
+        assertThat(attempts).hasValue(3);
+    }
+
+    @Test
+    void doesNotRetryFaultsSalesforceAnswersWith() {
+        guard = guard(3, false, 1, Duration.ofSeconds(5));
+        AtomicInteger attempts = new AtomicInteger();
+
+        assertThatThrownBy(() -> guard.call(USER_CONTEXT, SalesforceCallGuard.Operation.QUERY, () -> {
+            attempts.incrementAndGet();
+            throw new ApiQueryFault();
+        })).isInstanceOf(ApiQueryFault.class);
+
+        assertThat(attempts).hasValue(1);
+        assertThat(registry.get("salesforce.client.retries").counter().count()).isZero();
+        // Nor are they held against the org, even with a threshold of one
+        assertThat(openCircuits()).isZero();
+    }
+
+    @Test
+    void usesAHedgeThatAnswersBeforeASlowCall() throws Exception {
+        guard = guard(1, true, 5, Duration.ofSeconds(5));
+        // Enough quick calls to know the org's usual latency
+        for (int i = 0; i < 20; i++) {
+            guard.call(USER_CONTEXT, SalesforceCallGuard.Operation.QUERY, () -> "quick");
+        }
+        CountDownLatch never = new CountDownLatch(1);
+        AtomicInteger attempts = new AtomicInteger();
+
+        String result = guard.call(USER_CONTEXT, SalesforceCallGuard.Operation.QUERY, () -> {
+            if (attempts.incrementAndGet() == 1) {
+                awaitInterruptibly(never);
+                return "slow";
+            }
+            return "hedged";
+        });
+
+        assertThat(result).isEqualTo("hedged");
+        assertThat(attempts).hasValue(2);
+        assertThat(registry.get("salesforce.client.hedges").tag("result", "sent").counter().count()).isEqualTo(1);
+        assertThat(registry.get("salesforce.client.hedges").tag("result", "won").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void doesNotHedgeWithoutEnoughLatencySamples() throws Exception {
+        guard = guard(1, true, 5, Duration.ofSeconds(5));
+        AtomicInteger attempts = new AtomicInteger();
+
+        String result = guard.call(USER_CONTEXT, SalesforceCallGuard.Operation.QUERY, () -> {
+            attempts.incrementAndGet();
+            sleep(50);
+            return "records";
+        });
+
+        assertThat(result).isEqualTo("records");
+        assertThat(attempts).hasValue(1);
+        assertThat(registry.get("salesforce.client.hedges").tag("result", "sent").counter().count()).isZero();
+    }
+
+    @Test
+    void opensTheCircuitAfterConsecutiveFailuresThenProbesOnceItHasBeenOpenLongEnough() throws Exception {
+        guard = guard(1, false, 2, Duration.ofSeconds(5));
+        failCall();
+        failCall();
+        assertThat(registry.get("salesforce.client.circuit.opened").counter().count()).isEqualTo(1);
+        assertThat(openCircuits()).isEqualTo(1);
+
+        // Open: calls fail without reaching Salesforce
+        AtomicInteger attempts = new AtomicInteger();
+        assertThatThrownBy(() -> guard.call(USER_CONTEXT, SalesforceCallGuard.Operation.QUERY, () -> attempts.incrementAndGet()))
+                .isInstanceOf(ConnectionException.class)
+                .hasMessageContaining("suspended");
+        assertThat(attempts).hasValue(0);
+        assertThat(registry.get("salesforce.client.circuit.rejected").counter().count()).isEqualTo(1);
+
+        // Half open: one call probes the org, and its success closes the circuit again
+        clock.addAndGet(OPEN_DURATION.toNanos());
+        assertThat(openCircuits()).isZero();
+        assertThat(guard.call(USER_CONTEXT, SalesforceCallGuard.Operation.QUERY, () -> "probe")).isEqualTo("probe");
+        assertThat(guard.call(USER_CONTEXT, SalesforceCallGuard.Operation.QUERY, () -> "closed")).isEqualTo("closed");
+        assertThat(registry.get("salesforce.client.circuit.opened").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void reopensTheCircuitWhenTheProbeFails() {
+        guard = guard(1, false, 2, Duration.ofSeconds(5));
+        failCall();
+        failCall();
+        clock.addAndGet(OPEN_DURATION.toNanos());
+
+        failCall();
+
+        assertThat(registry.get("salesforce.client.circuit.opened").counter().count()).isEqualTo(2);
+        assertThat(openCircuits()).isEqualTo(1);
+        assertThatThrownBy(() -> guard.call(USER_CONTEXT, SalesforceCallGuard.Operation.QUERY, () -> "rejected"))
+                .hasMessageContaining("suspended");
+    }
+
+    @Test
+    void letsOnlyOneProbeThroughWhileHalfOpen() throws Exception {
+        guard = guard(1, false, 2, Duration.ofSeconds(5));
+        failCall();
+        failCall();
+        clock.addAndGet(OPEN_DURATION.toNanos());
+        CountDownLatch probing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        CompletableFuture<String> probe = CompletableFuture.supplyAsync(() -> {
+            try {
+                return guard.call(USER_CONTEXT, SalesforceCallGuard.Operation.QUERY, () -> {
+                    probing.countDown();
+                    awaitInterruptibly(release);
+                    return "probe";
+                });
+            } catch (ConnectionException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        assertThat(probing.await(5, TimeUnit.SECONDS)).isTrue();
+
+        assertThatThrownBy(() -> guard.call(USER_CONTEXT, SalesforceCallGuard.Operation.QUERY, () -> "second"))
+                .hasMessageContaining("suspended");
+        release.countDown();
+        assertThat(probe.get(5, TimeUnit.SECONDS)).isEqualTo("probe");
+    }
+
+    @Test
+    void failsACallThatOutlastsTheDeadlineAndInterruptsIt() throws Exception {
+        guard = guard(1, false, 5, Duration.ofMillis(100));
+        CountDownLatch never = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+
+        assertThatThrownBy(() -> guard.call(USER_CONTEXT, SalesforceCallGuard.Operation.QUERY, () -> {
+            try {
+                never.await();
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+            return "too late";
+        })).isInstanceOf(ConnectionException.class).hasMessageContaining("did not complete within");
+
+        assertThat(interrupted.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    void doesNotRetryOnceTheDeadlineHasPassed() {
+        guard = guard(3, false, 5, Duration.ofSeconds(5));
+        AtomicInteger attempts = new AtomicInteger();
+
+        assertThatThrownBy(() -> guard.call(USER_CONTEXT, SalesforceCallGuard.Operation.QUERY, () -> {
+            attempts.incrementAndGet();
+            clock.addAndGet(Duration.ofSeconds(5).toNanos());
+            throw new ConnectionException("Connection reset");
+        })).isInstanceOf(ConnectionException.class).hasMessage("Connection reset");
+
+        assertThat(attempts).hasValue(1);
+        assertThat(registry.get("salesforce.client.retries").counter().count()).isZero();
+    }
+
+    private SalesforceCallGuard guard(int maxAttempts, boolean hedgingEnabled, int failureThreshold, Duration deadline) {
+        SalesforceCallGuard guard = new SalesforceCallGuard(registry, deadline, maxAttempts, Duration.ofMillis(1), Duration.ofMillis(1),
+                hedgingEnabled, 0.95, Duration.ofMillis(20), 1.0, failureThreshold, OPEN_DURATION, 16, clock::get);
+        guard.bindTo(registry);
+        return guard;
+    }
+
+    private void failCall() {
+        assertThatThrownBy(() -> guard.call(USER_CONTEXT, SalesforceCallGuard.Operation.QUERY, () -> {
+            throw new ConnectionException("Connection refused");
+        })).isInstanceOf(ConnectionException.class);
+    }
+
+    private double openCircuits() {
+        return registry.get("salesforce.client.circuit.open").gauge().value();
+    }
+
+    private static void awaitInterruptibly(CountDownLatch latch) throws ConnectionException {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new ConnectionException("Interrupted", e);
+        }
+    }
+
+    private static void sleep(long millis) throws ConnectionException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new ConnectionException("Interrupted", e);
+        }
+    }
+}
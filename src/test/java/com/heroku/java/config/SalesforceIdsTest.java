@@ -0,0 +1,22 @@
+package com.heroku.java.config;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SalesforceIdsTest {
+
+    @Test
+    void keysBothFormsOfAnIdTheSame() {
+        assertThat(SalesforceIds.key("a02000000000001AAA")).isEqualTo("a02000000000001");
+        assertThat(SalesforceIds.key("a02000000000001")).isEqualTo("a02000000000001");
+        assertThat(SalesforceIds.key("short")).isEqualTo("short");
+    }
+
+    @Test
+    void escapesQuotesAndBackslashesForSoql() {
+        assertThat(SalesforceIds.soqlEscape("a02000000000001AAA")).isEqualTo("a02000000000001AAA");
+        assertThat(SalesforceIds.soqlEscape("x' OR Id != '")).isEqualTo("x\\' OR Id != \\'");
+        assertThat(SalesforceIds.soqlEscape("x\\' OR Id != '")).isEqualTo("x\\\\\\' OR Id != \\'");
+    }
+}
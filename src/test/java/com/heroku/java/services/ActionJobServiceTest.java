@@ -0,0 +1,136 @@
+package com.heroku.java.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.heroku.java.config.ActionJobQueue;
+import com.heroku.java.config.RequestCoalescer;
+import com.heroku.java.config.SalesforceConnectionCache;
+import com.heroku.java.config.SalesforceDataAccess;
+import com.heroku.java.config.SalesforceQueryExecutor;
+import com.heroku.java.config.SalesforceRecordCache;
+import com.heroku.java.config.SalesforceUserContext;
+import com.sforce.soap.partner.PartnerConnection;
+import com.sforce.soap.partner.QueryResult;
+import com.sforce.soap.partner.sobject.SObject;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ActionJobServiceTest {
+
+    private static final SalesforceUserContext USER_CONTEXT = new SalesforceUserContext("token", "62.0", "request", "demo",
+            "00D000000000001", "https://example.my.salesforce.com", "005000000000001", "user@example.com");
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final SalesforceRecordCache recordCache = mock(SalesforceRecordCache.class);
+    private final SalesforceDataAccess dataAccess = mock(SalesforceDataAccess.class);
+    private final MockHttpServletRequest httpServletRequest = new MockHttpServletRequest();
+    private SalesforceQueryExecutor queryExecutor;
+    private ActionJobQueue jobQueue;
+    private ActionJobService jobService;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        queryExecutor = new SalesforceQueryExecutor(Duration.ofSeconds(5), Executors.newVirtualThreadPerTaskExecutor());
+        jobQueue = new ActionJobQueue(objectMapper, mock(SalesforceConnectionCache.class), new SimpleMeterRegistry(),
+                1, 10, 10, 100, Duration.ofHours(1), "");
+        RequestCoalescer requestCoalescer = new RequestCoalescer(new SimpleMeterRegistry(), true);
+        CarbonFootprintService carbonFootprintService = new CarbonFootprintService(mock(AirportIndex.class), mock(EmissionFactorModel.class),
+                dataAccess, queryExecutor, recordCache, requestCoalescer, objectMapper);
+        FinanceAgreementService financeAgreementService = new FinanceAgreementService(recordCache, requestCoalescer);
+        jobService = new ActionJobService(jobQueue, carbonFootprintService, financeAgreementService, objectMapper);
+        httpServletRequest.setAttribute("salesforceUserContext", USER_CONTEXT);
+        httpServletRequest.setAttribute("salesforcePartnerConnection", mock(PartnerConnection.class));
+
+        // No such records: the cache finds nothing and the flight has no bookings
+        when(recordCache.getRecord(any(), any(), anyString(), anyString(), anyString())).thenReturn(null);
+        QueryResult noBookings = new QueryResult();
+        noBookings.setDone(true);
+        noBookings.setRecords(new SObject[0]);
+        when(dataAccess.query(any(), any(), anyString())).thenReturn(noBookings);
+    }
+
+    @AfterEach
+    void tearDown() {
+        jobQueue.destroy();
+        queryExecutor.destroy();
+    }
+
+    @Test
+    void failsACarbonFootprintJobForAMissingFlightWithNotFound() throws Exception {
+        CarbonFootprintService.CarbonFootprintRequest request = new CarbonFootprintService.CarbonFootprintRequest();
+        request.flightId = "a02000000000001AAA";
+
+        ActionJobService.ActionJobResponse job = awaitJob(jobService.submitCarbonFootprint(request, null, httpServletRequest).getBody());
+
+        assertThat(job.status).isEqualTo("FAILED");
+        assertThat(job.error.status).isEqualTo(404);
+        assertThat(job.error.message).isEqualTo("Flight not found in Salesforce.");
+    }
+
+    @Test
+    void failsAFinanceAgreementJobForAMissingVehicleWithNotFound() throws Exception {
+        FinanceAgreementService.FinanceCalculationRequest request = new FinanceAgreementService.FinanceCalculationRequest();
+        request.vehicleId = "a04000000000001AAA";
+        request.maxInterestRate = 3.5;
+        request.downPayment = 1000;
+        request.years = 3;
+
+        ActionJobService.ActionJobResponse job = awaitJob(jobService.submitFinanceAgreement(request, null, httpServletRequest).getBody());
+
+        assertThat(job.status).isEqualTo("FAILED");
+        assertThat(job.error.status).isEqualTo(404);
+        assertThat(job.error.message).isEqualTo("Vehicle not found in Salesforce.");
+    }
+
+    @Test
+    void rejectsAMissingFlightIdWithBadRequest() {
+        CarbonFootprintService.CarbonFootprintRequest request = new CarbonFootprintService.CarbonFootprintRequest();
+
+        assertThatThrownBy(() -> jobService.submitCarbonFootprint(request, null, httpServletRequest))
+                .isInstanceOf(ResponseStatusException.class)
+                .extracting(e -> ((ResponseStatusException) e).getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+        request.flightId = " ";
+        assertThatThrownBy(() -> jobService.submitCarbonFootprint(request, null, httpServletRequest))
+                .isInstanceOf(ResponseStatusException.class)
+                .extracting(e -> ((ResponseStatusException) e).getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+    }
+
+    @Test
+    void rejectsAMissingVehicleIdWithBadRequest() {
+        FinanceAgreementService.FinanceCalculationRequest request = new FinanceAgreementService.FinanceCalculationRequest();
+        FinanceAgreementService.FinanceScenarioRequest scenarios = new FinanceAgreementService.FinanceScenarioRequest();
+
+        assertThatThrownBy(() -> jobService.submitFinanceAgreement(request, null, httpServletRequest))
+                .isInstanceOf(ResponseStatusException.class)
+                .extracting(e -> ((ResponseStatusException) e).getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+        assertThatThrownBy(() -> jobService.submitFinanceScenarios(scenarios, null, httpServletRequest))
+                .isInstanceOf(ResponseStatusException.class)
+                .extracting(e -> ((ResponseStatusException) e).getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+    }
+
+    private ActionJobService.ActionJobResponse awaitJob(ActionJobService.ActionJobResponse submitted) throws InterruptedException {
+        ActionJobService.GetJobRequest getJob = new ActionJobService.GetJobRequest();
+        getJob.jobId = submitted.jobId;
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        ActionJobService.ActionJobResponse job = jobService.getJob(getJob, httpServletRequest);
+        while (!ActionJobQueue.Status.valueOf(job.status).isDone() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+            job = jobService.getJob(getJob, httpServletRequest);
+        }
+        return job;
+    }
+}
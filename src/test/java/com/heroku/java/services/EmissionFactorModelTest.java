@@ -0,0 +1,97 @@
+package com.heroku.java.services;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+class EmissionFactorModelTest {
+
+    private static EmissionFactorModel model;
+
+    @BeforeAll
+    static void loadFactors() throws Exception {
+        model = new EmissionFactorModel(EmissionFactorModel.class.getResourceAsStream("/emissions/defra-2023.csv"), "DEFRA 2023", true);
+    }
+
+    @Test
+    void emissionsPerLegMatchAFlightOfOnePassenger() {
+        // Every band edge, both ends of the precomputed table and legs beyond it, in every class
+        int[] distancesKm = { 0, 1, 1499, 1500, 1501, 8000, EmissionFactorModel.MAX_TABLE_KM,
+                EmissionFactorModel.MAX_TABLE_KM + 1, 40_000 };
+        int classCount = EmissionFactorModel.SeatClass.VALUES.length;
+        int count = distancesKm.length * classCount;
+        int[] legDistancesKm = new int[count];
+        byte[] seatClasses = new byte[count];
+        for (int i = 0; i < count; i++) {
+            legDistancesKm[i] = distancesKm[i / classCount];
+            seatClasses[i] = (byte) (i % classCount);
+        }
+
+        double[] emissionsKg = new double[count];
+        model.emissionsKg(legDistancesKm, seatClasses, count, emissionsKg);
+
+        for (int i = 0; i < count; i++) {
+            assertThat(emissionsKg[i]).as("%d km in class %d", legDistancesKm[i], seatClasses[i])
+                    .isCloseTo(onePassengerKg(legDistancesKm[i], seatClasses[i]), within(1e-9));
+        }
+    }
+
+    @Test
+    void totalMatchesTheSumOfEachLeg() {
+        Random random = new Random(42);
+        // Not a multiple of four, so the tail after the unrolled loop counts too
+        int count = 1_003;
+        int[] distancesKm = new int[count];
+        byte[] seatClasses = new byte[count];
+        double expectedKg = 0;
+        for (int i = 0; i < count; i++) {
+            distancesKm[i] = random.nextInt(25_000);
+            seatClasses[i] = (byte) random.nextInt(EmissionFactorModel.SeatClass.VALUES.length);
+            expectedKg += onePassengerKg(distancesKm[i], seatClasses[i]);
+        }
+
+        assertThat(model.totalEmissionsKg(distancesKm, seatClasses, count)).isCloseTo(expectedKg, within(1e-6));
+        // Legs past count are ignored
+        assertThat(model.totalEmissionsKg(distancesKm, seatClasses, 1)).isCloseTo(onePassengerKg(distancesKm[0], seatClasses[0]), within(1e-9));
+    }
+
+    @Test
+    void rejectsUnknownSeatClasses() {
+        int[] distancesKm = { 1000, 1000 };
+
+        assertThatThrownBy(() -> model.totalEmissionsKg(distancesKm, new byte[] { 0, 3 }, 2))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Leg 1 has no seat class with ordinal 3");
+        assertThatThrownBy(() -> model.emissionsKg(distancesKm, new byte[] { -1, 0 }, 2, new double[2]))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Leg 0 has no seat class with ordinal -1");
+    }
+
+    @Test
+    void rejectsNegativeDistances() {
+        assertThatThrownBy(() -> model.totalEmissionsKg(new int[] { 1000, -5 }, new byte[] { 0, 0 }, 2))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Leg 1 has a negative distance: -5 km");
+    }
+
+    @Test
+    void rejectsColumnsShorterThanTheCount() {
+        assertThatThrownBy(() -> model.totalEmissionsKg(new int[2], new byte[1], 2))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Columns hold 1 legs, expected 2");
+        assertThatThrownBy(() -> model.emissionsKg(new int[2], new byte[2], 2, new double[1]))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Output holds 1 legs, expected 2");
+    }
+
+    private static double onePassengerKg(int distanceKm, int seatClass) {
+        int[] passengersByClass = new int[EmissionFactorModel.SeatClass.VALUES.length];
+        passengersByClass[seatClass] = 1;
+        return model.flightEmissionsKg(distanceKm, passengersByClass);
+    }
+}
@@ -0,0 +1,178 @@
+package com.heroku.java.services;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+class FinanceScenarioGridTest {
+
+    private static final double PRICE = 30_000;
+
+    @Test
+    void matchesTheSingleScenarioPaymentForEveryScenarioInRequestOrder() {
+        int[] termMonths = { 36, 60 };
+        double[] rates = { 2.9, 3.5 };
+        double[] downPayments = { 0, 1000, 5000 };
+
+        FinanceScenarioGrid grid = new FinanceScenarioGrid(PRICE, termMonths, rates, downPayments).evaluate();
+
+        assertThat(grid.size()).isEqualTo(12);
+        int scenario = 0;
+        for (int months : termMonths) {
+            for (double rate : rates) {
+                for (double downPayment : downPayments) {
+                    assertScenario(grid, scenario++, months, rate, downPayment);
+                }
+            }
+        }
+    }
+
+    @Test
+    void matchesTheSingleScenarioPaymentOnTheParallelPath() {
+        // 30 terms x 10 rates x 20 down payments, above the 4096 scenarios evaluated across the fork/join pool
+        int[] termMonths = IntStream.rangeClosed(1, 30).map(years -> years * 12).toArray();
+        double[] rates = IntStream.range(0, 10).mapToDouble(i -> 0.5 + i * 0.3).toArray();
+        double[] downPayments = IntStream.range(0, 20).mapToDouble(i -> i * 500.0).toArray();
+
+        FinanceScenarioGrid grid = new FinanceScenarioGrid(PRICE, termMonths, rates, downPayments).evaluate();
+
+        assertThat(grid.size()).isEqualTo(6000);
+        for (int scenario = 0; scenario < grid.size(); scenario++) {
+            assertScenario(grid, scenario, grid.termMonths(scenario), grid.annualInterestRate(scenario), grid.downPayment(scenario));
+        }
+        assertThat(grid.termMonths(grid.size() - 1)).isEqualTo(360);
+        assertThat(grid.annualInterestRate(grid.size() - 1)).isEqualTo(rates[9]);
+        assertThat(grid.downPayment(grid.size() - 1)).isEqualTo(9500);
+    }
+
+    @Test
+    void spreadsTheLoanEvenlyAtZeroInterest() {
+        assertThat(FinanceScenarioGrid.paymentFactor(0, 48)).isEqualTo(1.0 / 48);
+
+        FinanceScenarioGrid grid = new FinanceScenarioGrid(PRICE, new int[] { 48 }, new double[] { 0 }, new double[] { 6000 }).evaluate();
+
+        assertThat(grid.monthlyPayment(0)).isCloseTo(500, within(1e-9));
+        assertThat(grid.totalCost(0)).isCloseTo(24_000, within(1e-9));
+    }
+
+    @Test
+    void ranksByTotalCostOrMonthlyPayment() {
+        FinanceScenarioGrid grid = new FinanceScenarioGrid(PRICE, new int[] { 24, 60 }, new double[] { 3.5 }, new double[] { 0 }).evaluate();
+
+        // The shorter term pays less interest, the longer one pays less each month
+        assertThat(grid.rank(2, false, Double.POSITIVE_INFINITY)).containsExactly(0, 1);
+        assertThat(grid.rank(2, true, Double.POSITIVE_INFINITY)).containsExactly(1, 0);
+        assertThat(grid.rank(1, true, Double.POSITIVE_INFINITY)).containsExactly(1);
+    }
+
+    @Test
+    void leavesOutPaidOffAndUnaffordableScenarios() {
+        FinanceScenarioGrid grid = new FinanceScenarioGrid(PRICE, new int[] { 24, 60 }, new double[] { 3.5 },
+                new double[] { 0, PRICE }).evaluate();
+        double longTermPayment = grid.monthlyPayment(2);
+
+        // Scenarios 1 and 3 finance nothing, scenario 0 costs more each month than the cap
+        assertThat(grid.rank(10, false, longTermPayment)).containsExactly(2);
+        assertThat(grid.eligibleCount(longTermPayment)).isEqualTo(1);
+        assertThat(grid.eligibleCount(Double.POSITIVE_INFINITY)).isEqualTo(2);
+    }
+
+    @Test
+    void keepsGridOrderForEqualScores() {
+        FinanceScenarioGrid grid = new FinanceScenarioGrid(PRICE, new int[] { 36 }, new double[] { 2.9 },
+                new double[] { 1000, 1000, 1000 }).evaluate();
+
+        assertThat(grid.rank(3, false, Double.POSITIVE_INFINITY)).containsExactly(0, 1, 2);
+    }
+
+    @Test
+    void capsRatesAtTheDemoMaximumAndDropsDuplicates() {
+        FinanceAgreementService.ScenarioQuery query = FinanceAgreementService.scenarioQuery(
+                request(List.of(3), List.of(2.9, 3.5, 4.0, 2.9, 7.5)));
+
+        assertThat(query.interestRates()).containsExactly(2.9, 3.5);
+        assertThat(query.termMonths()).containsExactly(36);
+        // No down payments means none
+        assertThat(query.downPayments()).containsExactly(0);
+        assertThat(query.rankedOffers()).isEqualTo(10);
+        assertThat(query.byMonthlyPayment()).isFalse();
+        assertThat(query.maxMonthlyPayment()).isEqualTo(Double.POSITIVE_INFINITY);
+    }
+
+    @Test
+    void acceptsEitherRankingCaseInsensitively() {
+        FinanceAgreementService.FinanceScenarioRequest request = request(List.of(3), List.of(2.9));
+        request.rankBy = "MonthlyPayment";
+        assertThat(FinanceAgreementService.scenarioQuery(request).byMonthlyPayment()).isTrue();
+        request.rankBy = "totalFinancingCost";
+        assertThat(FinanceAgreementService.scenarioQuery(request).byMonthlyPayment()).isFalse();
+
+        request.rankBy = "interest";
+        assertBadRequest(request);
+    }
+
+    @Test
+    void rejectsInvalidGrids() {
+        assertBadRequest(request(List.of(), List.of(2.9)));
+        assertBadRequest(request(List.of(0), List.of(2.9)));
+        assertBadRequest(request(List.of(31), List.of(2.9)));
+        assertBadRequest(request(List.of(3), List.of()));
+        assertBadRequest(request(List.of(3), List.of(-0.1)));
+
+        FinanceAgreementService.FinanceScenarioRequest negativeDownPayment = request(List.of(3), List.of(2.9));
+        negativeDownPayment.downPayments = List.of(-1.0);
+        assertBadRequest(negativeDownPayment);
+
+        FinanceAgreementService.FinanceScenarioRequest tooManyOffers = request(List.of(3), List.of(2.9));
+        tooManyOffers.maxOffers = 101;
+        assertBadRequest(tooManyOffers);
+        tooManyOffers.maxOffers = 0;
+        assertBadRequest(tooManyOffers);
+    }
+
+    @Test
+    void rejectsGridsOfMoreThanTenThousandScenarios() {
+        List<Integer> years = IntStream.rangeClosed(1, 30).boxed().toList();
+        List<Double> rates = IntStream.range(0, 20).mapToObj(i -> i * 0.1).toList();
+        FinanceAgreementService.FinanceScenarioRequest request = request(years, rates);
+        // 30 x 20 x 17 is 10200
+        request.downPayments = IntStream.range(0, 17).mapToObj(i -> i * 100.0).toList();
+        assertBadRequest(request);
+
+        // 30 x 20 x 16 is 9600, inside the limit
+        request.downPayments = IntStream.range(0, 16).mapToObj(i -> i * 100.0).toList();
+        assertThat(FinanceAgreementService.scenarioQuery(request).termMonths()).hasSize(30);
+    }
+
+    private static void assertScenario(FinanceScenarioGrid grid, int scenario, int months, double rate, double downPayment) {
+        double loanAmount = PRICE - downPayment;
+        double expected = FinanceAgreementService.monthlyPayment(loanAmount, rate, months);
+        assertThat(grid.termMonths(scenario)).isEqualTo(months);
+        assertThat(grid.annualInterestRate(scenario)).isEqualTo(rate);
+        assertThat(grid.downPayment(scenario)).isEqualTo(downPayment);
+        assertThat(grid.loanAmount(scenario)).isEqualTo(loanAmount);
+        assertThat(grid.monthlyPayment(scenario)).isCloseTo(expected, within(1e-9));
+        assertThat(grid.totalCost(scenario)).isCloseTo(expected * months, within(1e-6));
+    }
+
+    private static FinanceAgreementService.FinanceScenarioRequest request(List<Integer> years, List<Double> interestRates) {
+        FinanceAgreementService.FinanceScenarioRequest request = new FinanceAgreementService.FinanceScenarioRequest();
+        request.vehicleId = "a04000000000001AAA";
+        request.years = years;
+        request.interestRates = interestRates;
+        return request;
+    }
+
+    private static void assertBadRequest(FinanceAgreementService.FinanceScenarioRequest request) {
+        assertThatThrownBy(() -> FinanceAgreementService.scenarioQuery(request))
+                .isInstanceOf(ResponseStatusException.class)
+                .extracting(e -> ((ResponseStatusException) e).getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+    }
+}
@@ -0,0 +1,118 @@
+package com.heroku.java.services;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ShippingOptionsServiceTest {
+
+    private final MockHttpServletRequest httpServletRequest = new MockHttpServletRequest();
+    private ShippingOptionsService shippingService;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        shippingService = new ShippingOptionsService(ShippingRateEngineTest.engine(4096), "60601");
+    }
+
+    @Test
+    void consolidatesItemsForOneZipCodeIntoOneShipment() {
+        ShippingOptionsService.BulkShippingOptionsResponse response = shippingService.calculateBulkShippingOptions(
+                request(item("PROD200003", 3, "10001"), item("PROD200002", 1, "94105"), item("PROD200001", 2, "10001-1234")),
+                httpServletRequest);
+
+        assertThat(response.shipments).extracting(shipment -> shipment.destination).containsExactly("10001", "94105");
+        assertThat(response.shipments.get(0).itemIndexes).containsExactly(0, 2);
+        assertThat(response.shipments.get(1).itemIndexes).containsExactly(1);
+
+        // Three espresso machines and two pairs of shoes fit one 32 kg parcel of Economy Ground, in the 50 kg break,
+        // which costs less than shipping them apart in the 30 kg and 5 kg breaks
+        ShippingOptionsService.ShipmentOption together = response.shipments.get(0).shippingOptions.get(0);
+        assertThat(together.service).isEqualTo("Economy Ground");
+        assertThat(together.parcelCount).isEqualTo(1);
+        assertThat(together.chargeableWeight).isEqualTo(32.0);
+        assertThat(together.cost).isEqualTo(30.99);
+        assertThat(response.items.get(0).shippingOptions.get(0).cost).isEqualTo(22.49);
+        assertThat(response.items.get(2).shippingOptions.get(0).cost).isEqualTo(10.49);
+        assertThat(response.items.get(2).destination).isEqualTo("10001");
+    }
+
+    @Test
+    void plansTheCheapestAndGreenestOptionOfEveryShipment() {
+        ShippingOptionsService.BulkShippingOptionsResponse response = shippingService.calculateBulkShippingOptions(
+                request(item("PROD200003", 3, "10001"), item("PROD200002", 1, "94105"), item("PROD200001", 2, "10001")),
+                httpServletRequest);
+
+        ShippingOptionsService.ShippingPlan cheapest = response.cheapestPlan;
+        assertThat(cheapest.shipments).extracting(planned -> planned.option.service).containsExactly("Economy Ground", "Economy Ground");
+        assertThat(cheapest.totalCost).isEqualTo(37.98);
+        assertThat(cheapest.totalCarbonFootprint).isEqualTo(13.145);
+        // The last shipment arrives with the one to zone 8
+        assertThat(cheapest.estimatedDeliveryDays).isEqualTo(9);
+
+        // Economy Ground is also the lowest emission service, so both plans agree
+        ShippingOptionsService.ShippingPlan greenest = response.greenestPlan;
+        assertThat(greenest.totalCost).isEqualTo(cheapest.totalCost);
+        assertThat(greenest.totalCarbonFootprint).isEqualTo(cheapest.totalCarbonFootprint);
+        for (ShippingOptionsService.Shipment shipment : response.shipments) {
+            double lowestCarbon = shipment.shippingOptions.stream().mapToDouble(option -> option.carbonFootprint).min().orElseThrow();
+            assertThat(greenest.shipments.get(response.shipments.indexOf(shipment)).option.carbonFootprint).isEqualTo(lowestCarbon);
+        }
+    }
+
+    @Test
+    void hasNoPlanWhenSomeShipmentCannotBeShipped() {
+        ShippingOptionsService.BulkShippingOptionsResponse response = shippingService.calculateBulkShippingOptions(
+                request(item("PROD200001", 1, "94105"), item("PROD-HEAVY", 1, "10001")), httpServletRequest);
+
+        assertThat(response.shipments.get(0).shippingOptions).isNotEmpty();
+        assertThat(response.shipments.get(1).shippingOptions).isEmpty();
+        assertThat(response.items.get(1).recommendedOption).isNull();
+        assertThat(response.cheapestPlan).isNull();
+        assertThat(response.greenestPlan).isNull();
+    }
+
+    @Test
+    void rejectsInvalidItems() {
+        assertBadRequest(request());
+        assertBadRequest(request(item("PROD200001", 0, "10001")));
+        assertBadRequest(request(item("PROD200001", 101, "10001")));
+        assertBadRequest(request(item("PROD200001", 1, "96301")));
+
+        List<ShippingOptionsService.BulkShippingItem> items = new ArrayList<>();
+        for (int i = 0; i <= 1000; i++) {
+            items.add(item("PROD200001", 1, "10001"));
+        }
+        ShippingOptionsService.BulkShippingOptionsRequest tooMany = new ShippingOptionsService.BulkShippingOptionsRequest();
+        tooMany.items = items;
+        assertBadRequest(tooMany);
+    }
+
+    private static ShippingOptionsService.BulkShippingOptionsRequest request(ShippingOptionsService.BulkShippingItem... items) {
+        ShippingOptionsService.BulkShippingOptionsRequest request = new ShippingOptionsService.BulkShippingOptionsRequest();
+        request.items = List.of(items);
+        return request;
+    }
+
+    private static ShippingOptionsService.BulkShippingItem item(String productId, int quantity, String destination) {
+        ShippingOptionsService.BulkShippingItem item = new ShippingOptionsService.BulkShippingItem();
+        item.productId = productId;
+        item.quantity = quantity;
+        item.destination = destination;
+        return item;
+    }
+
+    private void assertBadRequest(ShippingOptionsService.BulkShippingOptionsRequest request) {
+        assertThatThrownBy(() -> shippingService.calculateBulkShippingOptions(request, httpServletRequest))
+                .isInstanceOf(ResponseStatusException.class)
+                .extracting(e -> ((ResponseStatusException) e).getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+    }
+}
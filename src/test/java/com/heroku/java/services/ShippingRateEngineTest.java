@@ -0,0 +1,133 @@
+package com.heroku.java.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ShippingRateEngineTest {
+
+    // Besides the bundled catalog: a product too heavy for any service, and one whose dimensional weight is over the
+    // 70 kg limit of the services that divide by 5000 but not of Economy Ground, which divides by 6000
+    static final String EXTRA_PRODUCTS = """
+            PROD-HEAVY,Cast Iron Anvil,Tools,500.00,80,40,40,40
+            PROD-BULKY,Floor Cushion Set,Home,199.00,20,100,60,60
+            """;
+
+    @Test
+    void pricesEveryServiceFromTheBundledRateTablesCheapestFirst() throws IOException {
+        ShippingRateEngine engine = engine(4096);
+
+        ShippingRateEngine.Quote quote = engine.quote("PROD123456", "10001");
+
+        // 1.25 kg in 30 x 20 x 15 cm bills 1.5 kg at divisor 6000 and 2 kg at 5000, both in the 2 kg break of zone 8
+        assertThat(quote.zone()).isEqualTo(8);
+        assertThat(quote.distanceKm()).isEqualTo(4100);
+        assertThat(quote.options()).containsExactly(
+                new ShippingRateEngine.RateQuote("CodyShipping", "Economy Ground", 1, 1.5, 9, 8.49, 0.615),
+                new ShippingRateEngine.RateQuote("CodyShipping", "Standard Delivery", 1, 2.0, 5, 13.49, 0.984),
+                new ShippingRateEngine.RateQuote("AstroShipping", "Express Delivery", 1, 2.0, 3, 27.99, 6.97),
+                new ShippingRateEngine.RateQuote("AppyShipping", "Overnight Shipping", 1, 2.0, 1, 43.99, 10.25));
+    }
+
+    @Test
+    void quotesUnlistedProductsAsTheDefaultProduct() throws IOException {
+        ShippingRateEngine engine = engine(4096);
+
+        assertThat(engine.quote("PROD999999", "94105").options()).isEqualTo(engine.quote("PROD123456", "94105").options());
+        assertThat(engine.quote(null, "94105").product().name()).isEqualTo("Smart Gadget X");
+    }
+
+    @Test
+    void refusesDestinationsThatAreNotServed() throws IOException {
+        ShippingRateEngine engine = engine(4096);
+
+        // 962 to 966 are military addresses
+        assertThat(engine.quote("PROD123456", "96301")).isNull();
+        assertThat(engine.quote("PROD123456", "1000")).isNull();
+        assertThat(engine.quote("PROD123456", "1000A")).isNull();
+        assertThat(engine.zone("10001-1234")).isEqualTo(8);
+        assertThat(engine.zone("94105")).isEqualTo(1);
+    }
+
+    @Test
+    void leavesOutServicesTheParcelIsTooHeavyFor() throws IOException {
+        ShippingRateEngine engine = engine(4096);
+
+        assertThat(engine.quote("PROD-HEAVY", "10001").options()).isEmpty();
+        assertThat(engine.quote("PROD-BULKY", "10001").options())
+                .extracting(ShippingRateEngine.RateQuote::service)
+                .containsExactly("Economy Ground");
+    }
+
+    @Test
+    void splitsShipmentsOverTheWeightLimitIntoParcels() throws IOException {
+        ShippingRateEngine engine = engine(4096);
+
+        // Two 30 kg units fit a 70 kg parcel, the third needs another
+        List<ShippingRateEngine.RateQuote> options = engine.quoteShipment(new double[]{30}, new double[]{1000}, new int[]{3}, "94105");
+
+        assertThat(options).hasSize(4).allSatisfy(option -> {
+            assertThat(option.parcelCount()).isEqualTo(2);
+            assertThat(option.chargeableWeightKg()).isEqualTo(90);
+        });
+        // 60 kg and 30 kg parcels of Economy Ground in zone 1
+        assertThat(options.get(0).cost()).isEqualTo(39.48);
+        assertThat(engine.quoteShipment(new double[]{75}, new double[]{1000}, new int[]{1}, "94105")).isEmpty();
+        assertThat(engine.quoteShipment(new double[]{1}, new double[]{1000}, new int[]{1}, "96301")).isNull();
+    }
+
+    @Test
+    void servesRepeatedQuotesForADestinationRangeFromTheCache() throws IOException {
+        ShippingRateEngine engine = engine(4096);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        engine.bindTo(registry);
+
+        ShippingRateEngine.Quote first = engine.quote("PROD200001", "10001");
+
+        // Same ZIP3 range, so the same quote
+        assertThat(engine.quote("PROD200001", "10001-1234")).isSameAs(first);
+        assertThat(engine.quote("PROD200001", "10199")).isSameAs(first);
+        assertThat(cacheRequests(registry, "hit")).isEqualTo(2);
+        assertThat(cacheRequests(registry, "miss")).isEqualTo(1);
+    }
+
+    @Test
+    void recomputesAQuoteWhoseSlotWasTakenByAnother() throws IOException {
+        // Two slots, and PROD123456 to 10001 and to 94105 (keys 18 and 28) map to the same one
+        ShippingRateEngine engine = engine(2);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        engine.bindTo(registry);
+
+        ShippingRateEngine.Quote first = engine.quote("PROD123456", "10001");
+        engine.quote("PROD123456", "94105");
+        ShippingRateEngine.Quote again = engine.quote("PROD123456", "10001");
+
+        assertThat(again).isNotSameAs(first).isEqualTo(first);
+        assertThat(cacheRequests(registry, "miss")).isEqualTo(3);
+        assertThat(cacheRequests(registry, "hit")).isZero();
+    }
+
+    // The bundled tables, with EXTRA_PRODUCTS added to the catalog
+    static ShippingRateEngine engine(int quoteCacheSize) throws IOException {
+        InputStream products = new SequenceInputStream(table("products.csv"),
+                new ByteArrayInputStream(EXTRA_PRODUCTS.getBytes(StandardCharsets.UTF_8)));
+        return new ShippingRateEngine(products, table("services.csv"), table("rates.csv"), table("zones.csv"),
+                quoteCacheSize, new ShippingRateEngine.PolicyWeights(1.0, 0.5, 0.5));
+    }
+
+    private static InputStream table(String name) {
+        return ShippingRateEngineTest.class.getResourceAsStream("/shipping/" + name);
+    }
+
+    private static double cacheRequests(SimpleMeterRegistry registry, String result) {
+        return registry.get("shipping.quote.cache.requests").tag("result", result).functionCounter().count();
+    }
+}